@@ -0,0 +1,72 @@
+package it.prog3.logisticaapp;
+
+import it.prog3.logisticaapp.model.ColloReale;
+import it.prog3.logisticaapp.model.EventoTracking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Micro-benchmark dello storico dei colli con molti eventi (senza DB).
+ * <p>
+ * Confronta l'accodamento in {@link ColloReale} (append su {@code StoricoEventi}) con il vecchio
+ * inserimento in testa a un ArrayList, e misura la lettura di un'istantanea dello storico.
+ * Argomenti opzionali: eventi per collo (default 10000) e numero di colli (default 20).
+ * </p>
+ */
+public class BenchmarkStorico {
+
+    private static final int GIRI_RISCALDAMENTO = 3;
+    private static final int GIRI_MISURATI = 5;
+
+    public static void main(String[] args) {
+        int eventiPerCollo = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int colli = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        EventoTracking[] eventi = new EventoTracking[eventiPerCollo];
+        for (int i = 0; i < eventiPerCollo; i++) {
+            eventi[i] = new EventoTracking(i, EventoTracking.Tipo.ARRIVO_HUB, "HUB-" + (i % 50));
+        }
+
+        System.out.println("=== BENCHMARK STORICO: " + colli + " colli x " + eventiPerCollo + " eventi ===");
+
+        for (int giro = 0; giro < GIRI_RISCALDAMENTO + GIRI_MISURATI; giro++) {
+            long inizio = System.nanoTime();
+            long controllo = 0;
+            for (int c = 0; c < colli; c++) {
+                List<EventoTracking> vecchio = new ArrayList<>();
+                for (EventoTracking e : eventi) {
+                    vecchio.add(0, e);
+                }
+                controllo += vecchio.size();
+            }
+            long nanosVecchio = System.nanoTime() - inizio;
+
+            inizio = System.nanoTime();
+            List<ColloReale> reali = new ArrayList<>(colli);
+            for (int c = 0; c < colli; c++) {
+                ColloReale reale = new ColloReale("B" + c, 1.0, "X", "Y");
+                for (EventoTracking e : eventi) {
+                    reale.aggiungiEventoStorico(e);
+                }
+                reali.add(reale);
+            }
+            long nanosAccodamento = System.nanoTime() - inizio;
+
+            // Lettura come nella GUI: istantanea dal più recente, scorsa per intero
+            inizio = System.nanoTime();
+            for (ColloReale reale : reali) {
+                for (EventoTracking e : reale.getStorico()) {
+                    controllo += e.getIstante();
+                }
+            }
+            long nanosLettura = System.nanoTime() - inizio;
+
+            if (giro >= GIRI_RISCALDAMENTO) {
+                System.out.printf("Giro %d: ArrayList.add(0) %.1f ms | accodamento %.1f ms | lettura istantanee %.1f ms (controllo %d)%n",
+                        giro - GIRI_RISCALDAMENTO + 1, nanosVecchio / 1e6, nanosAccodamento / 1e6,
+                        nanosLettura / 1e6, controllo);
+            }
+        }
+    }
+}
@@ -4,12 +4,15 @@ import it.prog3.logisticaapp.database.DbSetup;
 import it.prog3.logisticaapp.database.GestoreDatabase;
 import it.prog3.logisticaapp.model.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class TestMain {
     public static void main(String[] args) {
         System.out.println("=== INIZIO TEST BACKEND ===");
 
         // 1. Reset e Creazione Tabelle
-        DbSetup.main(args);
+        DbSetup.reset();
 
         GestoreDatabase dao = new GestoreDatabase();
         //dao.resetTabelle();
@@ -33,12 +36,13 @@ public class TestMain {
         dao.inserisciAzienda(dhl);
         dao.inserisciAzienda(brt);
 
-        // 4. Creazione COLLI
+        // 4. Creazione COLLI (inserimento massivo in un'unica transazione)
+        List<ICollo> colli = new ArrayList<>();
         for (int i = 1; i <= 25; i++) {
             String codice = String.format("C%02d", i);
-            ICollo c = new ColloReale(codice, 1.0, "X", "Y");
-            dao.inserisciCollo(c);
+            colli.add(new ColloReale(codice, 1.0, "X", "Y"));
         }
+        System.out.println("[DB] Inserimento colli: " + dao.inserisciColli(colli));
 
         System.out.println("=== FINE TEST BACKEND ===");
     }
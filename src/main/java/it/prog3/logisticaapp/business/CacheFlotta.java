@@ -0,0 +1,202 @@
+package it.prog3.logisticaapp.business;
+
+import it.prog3.logisticaapp.database.IPersistenza;
+import it.prog3.logisticaapp.database.ModificheFlotta;
+import it.prog3.logisticaapp.database.VersioneFlotta;
+import it.prog3.logisticaapp.model.Azienda;
+import it.prog3.logisticaapp.model.AziendaConcreta;
+import it.prog3.logisticaapp.model.IVeicolo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cache versionata della flotta usata dalla {@link LogisticaFacade}.
+ * <p>
+ * La flotta viene letta per intero una sola volta; a ogni accesso successivo si chiedono alla
+ * persistenza solo le modifiche dopo l'ultima versione vista ({@link IPersistenza#getModificheFlotta})
+ * e si sostituiscono i soli veicoli cambiati. Se nulla è cambiato il costo è una query sul contatore.
+ * </p>
+ * <p>
+ * Due indici, aggiornati insieme ai veicoli, servono le viste più usate senza scorrere la flotta:
+ * <ul>
+ *     <li><b>in viaggio</b>: veicoli pieni (e non vuoti), quelli che vede il Corriere;</li>
+ *     <li><b>con spazio</b>: veicoli con almeno un posto libero, quelli utili al carico del Manager.</li>
+ * </ul>
+ * Entrambi sono ordinati per azienda e codice veicolo, come la query della flotta.
+ * </p>
+ */
+public class CacheFlotta {
+
+    private final IPersistenza persistenza;
+
+    // Versione dell'ultima modifica applicata (null = serve una lettura completa)
+    private VersioneFlotta versione;
+
+    // Aziende per nome (case-insensitive) e veicoli per codice
+    private final Map<String, Azienda> aziende = new LinkedHashMap<>();
+    private final Map<String, IVeicolo> veicoli = new HashMap<>();
+    private final Map<String, Azienda> aziendaDelVeicolo = new HashMap<>();
+
+    // Indici delle viste (chiave: azienda + codice veicolo)
+    private final TreeMap<String, IVeicolo> inViaggio = new TreeMap<>();
+    private final TreeMap<String, IVeicolo> conSpazio = new TreeMap<>();
+
+    // Statistiche
+    private long aggiornamentiCompleti;
+    private long aggiornamentiIncrementali;
+    private long aggiornamentiVuoti;
+    private long veicoliRicaricati;
+
+    public CacheFlotta(IPersistenza persistenza) {
+        if (persistenza == null) {
+            throw new IllegalArgumentException("La cache della flotta richiede un livello di persistenza.");
+        }
+        this.persistenza = persistenza;
+    }
+
+    /**
+     * Allinea la cache all'ultima versione salvata, applicando solo le differenze.
+     */
+    public synchronized void aggiorna() {
+        ModificheFlotta modifiche = persistenza.getModificheFlotta(versione);
+
+        if (modifiche.isCompleta()) {
+            svuota();
+            for (Azienda az : modifiche.getAziende()) {
+                for (IVeicolo v : az.getFlotta()) {
+                    aggiungi(az.getNome(), v);
+                }
+            }
+            aggiornamentiCompleti++;
+        } else if (modifiche.isVuota()) {
+            aggiornamentiVuoti++;
+        } else {
+            // I veicoli modificati escono tutti; rientrano quelli ancora presenti nel DB
+            for (String codice : modifiche.getVeicoliModificati()) {
+                rimuovi(codice);
+            }
+            for (Azienda az : modifiche.getAziende()) {
+                for (IVeicolo v : az.getFlotta()) {
+                    aggiungi(az.getNome(), v);
+                    veicoliRicaricati++;
+                }
+            }
+            aggiornamentiIncrementali++;
+        }
+        versione = modifiche.getVersione();
+    }
+
+    /**
+     * Scarta il contenuto: il prossimo accesso rilegge tutta la flotta
+     * (es. dopo un carico in memoria annullato dal rollback).
+     */
+    public synchronized void invalida() {
+        versione = null;
+    }
+
+    /**
+     * @return Le aziende con la loro flotta, aggiornate all'ultima versione.
+     */
+    public synchronized List<Azienda> getAziende() {
+        aggiorna();
+        return new ArrayList<>(aziende.values());
+    }
+
+    /**
+     * @return I veicoli pieni (quelli che il Manager ha spedito), dall'indice.
+     */
+    public synchronized List<IVeicolo> getVeicoliInViaggio() {
+        aggiorna();
+        return new ArrayList<>(inViaggio.values());
+    }
+
+    /**
+     * @return I veicoli con almeno un posto libero, dall'indice.
+     */
+    public synchronized List<IVeicolo> getVeicoliConSpazio() {
+        aggiorna();
+        return new ArrayList<>(conSpazio.values());
+    }
+
+    // =========================================================================
+    // METODI DI SUPPORTO
+    // =========================================================================
+
+    private void svuota() {
+        aziende.clear();
+        veicoli.clear();
+        aziendaDelVeicolo.clear();
+        inViaggio.clear();
+        conSpazio.clear();
+    }
+
+    /**
+     * Inserisce il veicolo nella sua azienda (mantenendo l'ordine per codice) e negli indici.
+     */
+    private void aggiungi(String nomeAzienda, IVeicolo v) {
+        String chiave = nomeAzienda.toLowerCase();
+        Azienda az = aziende.get(chiave);
+        if (az == null) {
+            az = new AziendaConcreta(nomeAzienda);
+            aziende.put(chiave, az);
+        }
+
+        List<IVeicolo> flotta = az.getFlotta();
+        int posizione = flotta.size();
+        while (posizione > 0 && flotta.get(posizione - 1).getCodice().compareTo(v.getCodice()) > 0) {
+            posizione--;
+        }
+        flotta.add(posizione, v);
+
+        veicoli.put(v.getCodice(), v);
+        aziendaDelVeicolo.put(v.getCodice(), az);
+        indicizza(az, v);
+    }
+
+    private void rimuovi(String codice) {
+        IVeicolo v = veicoli.remove(codice);
+        if (v == null) return;
+
+        Azienda az = aziendaDelVeicolo.remove(codice);
+        az.getFlotta().remove(v);
+        if (az.getFlotta().isEmpty()) {
+            aziende.remove(az.getNome().toLowerCase());
+        }
+        String chiave = chiaveIndice(az, v);
+        inViaggio.remove(chiave);
+        conSpazio.remove(chiave);
+    }
+
+    private void indicizza(Azienda az, IVeicolo v) {
+        String chiave = chiaveIndice(az, v);
+        int carico = v.getCarico().size();
+        if (carico == v.getCapienza() && carico > 0) {
+            inViaggio.put(chiave, v);
+        }
+        if (carico < v.getCapienza()) {
+            conSpazio.put(chiave, v);
+        }
+    }
+
+    private static String chiaveIndice(Azienda az, IVeicolo v) {
+        return az.getNome() + '\u0000' + v.getCodice();
+    }
+
+    // =========================================================================
+    // STATISTICHE
+    // =========================================================================
+
+    public synchronized VersioneFlotta getVersione() { return versione; }
+
+    public synchronized String getStatistiche() {
+        return String.format("versione=%s, veicoli=%d (in viaggio=%d, con spazio=%d), aggiornamenti: completi=%d, " +
+                        "incrementali=%d (veicoli ricaricati=%d), senza modifiche=%d",
+                versione, veicoli.size(), inViaggio.size(), conSpazio.size(), aggiornamentiCompleti,
+                aggiornamentiIncrementali, veicoliRicaricati, aggiornamentiVuoti);
+    }
+}
@@ -1,6 +1,14 @@
 package it.prog3.logisticaapp.business;
 
+import it.prog3.logisticaapp.database.CacheColli;
+import it.prog3.logisticaapp.database.EsitoBatch;
 import it.prog3.logisticaapp.database.GestoreDatabase;
+import it.prog3.logisticaapp.database.GiornaleTracking;
+import it.prog3.logisticaapp.database.IPersistenza;
+import it.prog3.logisticaapp.database.PaginaStorico;
+import it.prog3.logisticaapp.database.RiepilogoTracking;
+import it.prog3.logisticaapp.database.StatisticheQuery;
+import it.prog3.logisticaapp.database.UnitaDiLavoro;
 import it.prog3.logisticaapp.model.*;
 import it.prog3.logisticaapp.util.FileLogger;
 import it.prog3.logisticaapp.util.Subject;
@@ -14,18 +22,41 @@ import java.util.List;
  */
 public class LogisticaFacade {
 
-    private final GestoreDatabase gestoreDatabase;
+    private final IPersistenza persistenza;
+    private final GiornaleTracking giornaleTracking;
     private final PackingContext packingContext;
 
-    // Cache per il Manager (mantiene i veicoli caricati in memoria durante la sessione)
-    private List<Azienda> elencoAziende;
+    // Flotta in memoria, aggiornata in modo incrementale (solo i veicoli cambiati nel DB)
+    private final CacheFlotta cacheFlotta;
 
+    // Esito (e tempi) dell'ultimo commit di eseguiCarico
+    private EsitoBatch ultimoCommit;
+
+    /**
+     * Facade collegata al database SQLite dell'applicazione.
+     */
     public LogisticaFacade() {
-        this.gestoreDatabase = new GestoreDatabase();
+        this(new GestoreDatabase(), GiornaleTracking.getDefault());
+    }
+
+    /**
+     * Costruttore con iniezione delle dipendenze (es. {@link it.prog3.logisticaapp.database.GestoreMemoria}
+     * per test e benchmark senza I/O).
+     *
+     * @param persistenza      Livello di persistenza da usare.
+     * @param giornaleTracking Giornale degli eventi di tracking, scritto sulla stessa persistenza.
+     */
+    public LogisticaFacade(IPersistenza persistenza, GiornaleTracking giornaleTracking) {
+        if (persistenza == null || giornaleTracking == null) {
+            throw new IllegalArgumentException("Persistenza e giornale tracking sono obbligatori.");
+        }
+        this.persistenza = persistenza;
+        this.giornaleTracking = giornaleTracking;
         this.packingContext = new PackingContext(new NextFitStrategy());
 
-        // Caricamento iniziale per il Manager
-        this.elencoAziende = gestoreDatabase.getFlottaAll();
+        // Caricamento iniziale della flotta (i successivi accessi leggono solo le modifiche)
+        this.cacheFlotta = new CacheFlotta(persistenza);
+        this.cacheFlotta.aggiorna();
     }
 
     public void setStrategy(PackingStrategy strategy) {
@@ -37,51 +68,86 @@ public class LogisticaFacade {
     // =========================================================================
 
     public List<Azienda> getAziendeAll() {
-        // Lazy loading / Refresh se null
-        if (this.elencoAziende == null) {
-            this.elencoAziende = gestoreDatabase.getFlottaAll();
-        }
-        return this.elencoAziende;
+        return cacheFlotta.getAziende();
+    }
+
+    /**
+     * Veicoli con almeno un posto libero (indice mantenuto dalla cache della flotta).
+     */
+    public List<IVeicolo> getVeicoliConSpazio() {
+        return cacheFlotta.getVeicoliConSpazio();
     }
 
     public List<ICollo> getColliInAttesa() {
-        return gestoreDatabase.getColliInPreparazione();
+        return persistenza.getColliInPreparazione();
+    }
+
+    /**
+     * Pagina di colli in attesa, ordinati per codice (paginazione keyset).
+     *
+     * @param dopoCodice Ultimo codice già mostrato (null per la prima pagina).
+     * @param limite     Dimensione massima della pagina.
+     */
+    public List<ICollo> getColliInAttesa(String dopoCodice, int limite) {
+        return persistenza.getColliInPreparazione(dopoCodice, limite);
+    }
+
+    public int contaColliInAttesa() {
+        return persistenza.contaColliInPreparazione();
     }
 
     /**
      * Esegue il caricamento (Strategy), cambia stato a IN_TRANSITO e inizializza lo storico.
+     * <p>
+     * Tutte le modifiche vengono salvate in un'unica transazione: in caso di errore
+     * il DB non resta caricato a metà.
+     * </p>
      */
     public void eseguiCarico() {
         System.out.println("[Facade] Avvio procedura di carico...");
 
-        // 1. Recupero Dati
-        List<ICollo> colliDaSpedire = gestoreDatabase.getColliInPreparazione();
-
-        if (this.elencoAziende == null || this.elencoAziende.isEmpty()) {
-            this.elencoAziende = gestoreDatabase.getFlottaAll();
-        }
+        // 1. Recupero Dati (solo le modifiche rispetto alla cache)
+        List<Azienda> aziende = cacheFlotta.getAziende();
 
-        if (colliDaSpedire.isEmpty()) {
+        if (persistenza.contaColliInPreparazione() == 0) {
             throw new IllegalStateException("Nessun collo da spedire in magazzino.");
         }
 
         // 2. Creazione "Flotta Globale"
         List<IVeicolo> flottaGlobale = new ArrayList<>();
-        for (Azienda az : this.elencoAziende) {
+        for (Azienda az : aziende) {
             flottaGlobale.addAll(az.getFlotta());
         }
+        // Solo i veicoli con spazio vanno alla Strategy: NextFit scarta il collo se incontra
+        // due veicoli pieni di fila, lasciando a terra colli già letti.
+        List<IVeicolo> veicoliConSpazio = cacheFlotta.getVeicoliConSpazio();
+        int postiLiberi = 0;
+        for (IVeicolo v : veicoliConSpazio) {
+            postiLiberi += v.getCapienza() - v.getCarico().size();
+        }
 
         if (flottaGlobale.isEmpty()) {
             throw new IllegalStateException("Nessun veicolo disponibile.");
         }
+        if (postiLiberi == 0) {
+            throw new IllegalStateException("Nessun veicolo con spazio disponibile.");
+        }
+
+        // Carichiamo solo i colli che possono fisicamente entrare nella flotta (prima pagina keyset):
+        // la memoria usata dipende dalla capienza libera, non dalla dimensione del backlog.
+        List<ICollo> colliDaSpedire = persistenza.getColliInPreparazione(null, postiLiberi);
 
         // 3. Esecuzione Strategy (Riempie i veicoli IN MEMORIA)
-        packingContext.esegui(colliDaSpedire, flottaGlobale);
+        packingContext.esegui(colliDaSpedire, veicoliConSpazio);
 
-        // 4. Salvataggio su DB
+        // 4. Preparazione della Unit of Work (nessuna scrittura ancora)
+        UnitaDiLavoro unita = new UnitaDiLavoro();
         int colliProcessati = 0;
 
-        for (Azienda az : this.elencoAziende) {
+        // Colli modificati in memoria (dalla Strategy o qui sotto), da confermare o annullare dopo il salvataggio
+        List<ICollo> toccati = new ArrayList<>(colliDaSpedire);
+
+        for (Azienda az : aziende) {
             for (IVeicolo v : az.getFlotta()) {
 
                 // Controlliamo se il veicolo è pieno
@@ -91,18 +157,18 @@ public class LogisticaFacade {
                 for (ICollo c : v.getCarico()) {
 
                     attachLogger(c);
+                    toccati.add(c);
 
                     if (isPieno) {
                         // CASO A: Veicolo Pieno -> SPEDIAMO
-                        if (!"IN_TRANSITO".equals(c.getStato())) {
-                            c.setStato("IN_TRANSITO");
+                        if (c.getStato() != StatoCollo.IN_TRANSITO) {
+                            c.setStato(StatoCollo.IN_TRANSITO);
 
                             // Salviamo associazione e stato
-                            gestoreDatabase.associaColloVeicolo(c, v.getCodice());
+                            unita.associaColloVeicolo(c, v.getCodice());
 
                             // Tracking
-                            String msg = "Spedito con " + az.getNome() + ". Il pacco ha lasciato la struttura del mittente.";
-                            gestoreDatabase.aggiornaTracking(c.getCodice(), msg);
+                            unita.aggiornaTracking(c.getCodice(), EventoTracking.adesso(EventoTracking.Tipo.SPEDITO, az.getNome()));
 
                             colliProcessati++;
                         }
@@ -111,8 +177,8 @@ public class LogisticaFacade {
                         // Il pacco resta "IN_PREPARAZIONE" ma ricordiamo che è su questo camion.
                         // Così se chiudi l'app, al riavvio lo ritrovi lì.
 
-                        c.setStato("CARICATO"); // Ribadiamo lo stato
-                        gestoreDatabase.associaColloVeicolo(c, v.getCodice());
+                        c.setStato(StatoCollo.CARICATO); // Ribadiamo lo stato
+                        unita.associaColloVeicolo(c, v.getCodice());
 
                         // NON aggiungiamo tracking perché non è ancora partito
                     }
@@ -120,7 +186,51 @@ public class LogisticaFacade {
             }
         }
 
-        System.out.println("[Facade] Procedura terminata. Colli spediti: " + colliProcessati);
+        // 5. Salvataggio su DB: un'unica transazione batch (tutto o niente)
+        try {
+            this.ultimoCommit = persistenza.eseguiUnitaDiLavoro(unita);
+        } catch (RuntimeException e) {
+            // Il DB è stato riportato allo stato precedente: scartiamo la cache in memoria,
+            // che ormai contiene un carico mai salvato, e riportiamo indietro i colli.
+            annullaModifiche(toccati);
+            cacheFlotta.invalida();
+            throw e;
+        }
+        confermaModifiche(toccati);
+
+        System.out.println("[Facade] Procedura terminata. Colli spediti: " + colliProcessati
+                + " (commit: " + ultimoCommit + ")");
+    }
+
+    /**
+     * Esito dell'ultimo salvataggio di {@link #eseguiCarico()}: righe scritte e durata
+     * della fase di commit.
+     *
+     * @return L'esito, oppure null se non è ancora stato eseguito alcun carico.
+     */
+    public EsitoBatch getUltimoCommit() {
+        return ultimoCommit;
+    }
+
+    /**
+     * Tempi delle query SQL (per nome, con p50/p99) e ultime query lente.
+     */
+    public StatisticheQuery getStatisticheQuery() {
+        return StatisticheQuery.getInstance();
+    }
+
+    /**
+     * Versione e aggiornamenti (completi/incrementali) della cache della flotta.
+     */
+    public CacheFlotta getCacheFlotta() {
+        return cacheFlotta;
+    }
+
+    /**
+     * Hit/miss della cache condivisa dei colli idratati.
+     */
+    public CacheColli getCacheColli() {
+        return CacheColli.getInstance();
     }
 
     // =========================================================================
@@ -130,22 +240,10 @@ public class LogisticaFacade {
     /**
      * Recupera TUTTI i veicoli di TUTTE le aziende.
      * FILTRO: Il corriere vede SOLO i veicoli che sono PIENI (quindi effettivamente partiti).
+     * Quelli parziali sono ancora fermi in magazzino.
      */
     public List<IVeicolo> getFlotta() {
-        List<Azienda> tutteLeAziende = gestoreDatabase.getFlottaAll();
-        List<IVeicolo> veicoliInViaggio = new ArrayList<>();
-
-        for (Azienda az : tutteLeAziende) {
-            for (IVeicolo v : az.getFlotta()) {
-                // Il corriere deve vedere solo i veicoli pieni (quelli che il Manager ha "spedito")
-                // Quelli parziali sono ancora fermi in magazzino.
-                if (v.getCarico().size() == v.getCapienza() && !v.getCarico().isEmpty()) {
-                    veicoliInViaggio.add(v);
-                }
-            }
-        }
-
-        return veicoliInViaggio;
+        return cacheFlotta.getVeicoliInViaggio();
     }
 
     /**
@@ -158,24 +256,74 @@ public class LogisticaFacade {
 
         System.out.println("[Facade] Aggiornamento tappa per " + veicolo.getCodice() + " a " + luogo);
 
-        int aggiornati = 0;
+        EventoTracking evento = EventoTracking.adesso(EventoTracking.Tipo.ARRIVO_HUB, luogo);
+        List<ICollo> inTransito = new ArrayList<>();
+        List<String> codici = new ArrayList<>();
 
         for (ICollo c : veicolo.getCarico()) {
             attachLogger(c);
-            if ("IN_TRANSITO".equals(c.getStato())) {
-                String messaggio = "Arrivato a centro di smistamento: " + luogo;
+            if (c.getStato() == StatoCollo.IN_TRANSITO) {
+                inTransito.add(c);
+                codici.add(c.getCodice());
+            }
+        }
 
-                gestoreDatabase.aggiornaTracking(c.getCodice(), messaggio);
+        // Un solo accodamento per tutta la tappa: il giornale li scrive in un'unica transazione
+        giornaleTracking.registraTappa(codici, evento);
 
-                try {
-                    c.aggiungiEventoStorico(messaggio);
-                } catch (Exception e) { /* Ignora */ }
+        for (ICollo c : inTransito) {
+            try {
+                c.aggiungiEventoStorico(evento);
+            } catch (Exception e) { /* Ignora */ }
+        }
+        veicolo.notifyObservers();
+        System.out.println("[Facade] Tappa registrata per " + inTransito.size() + " colli.");
+    }
 
-                aggiornati++;
+    /**
+     * Consegna finale: i colli in transito del veicolo diventano CONSEGNATO e liberano il veicolo.
+     * <p>
+     * I colli consegnati sono chiusi: dopo il periodo di conservazione vengono spostati
+     * in archivio (vedi {@code ArchiviatoreColli}), restando comunque ricercabili.
+     * </p>
+     */
+    public void registraConsegnaVeicolo(IVeicolo veicolo, String luogo) {
+        if (veicolo == null || veicolo.getCarico().isEmpty()) {
+            throw new IllegalArgumentException("Veicolo vuoto o non valido.");
+        }
+
+        EventoTracking evento = EventoTracking.adesso(EventoTracking.Tipo.CONSEGNATO, luogo);
+        UnitaDiLavoro unita = new UnitaDiLavoro();
+        List<ICollo> consegnati = new ArrayList<>();
+
+        for (ICollo c : veicolo.getCarico()) {
+            attachLogger(c);
+            if (c.getStato() == StatoCollo.IN_TRANSITO) {
+                c.setStato(StatoCollo.CONSEGNATO);
+                unita.associaColloVeicolo(c, null);
+                unita.aggiornaTracking(c.getCodice(), evento);
+                consegnati.add(c);
             }
         }
+
+        try {
+            persistenza.eseguiUnitaDiLavoro(unita);
+        } catch (RuntimeException e) {
+            // Niente è stato salvato: i colli tornano in transito sul veicolo
+            annullaModifiche(consegnati);
+            cacheFlotta.invalida();
+            throw e;
+        }
+        confermaModifiche(consegnati);
+
+        for (ICollo c : consegnati) {
+            try {
+                c.aggiungiEventoStorico(evento);
+            } catch (Exception e) { /* Ignora */ }
+        }
+        // Il veicolo svuotato verrà ricaricato dalla cache della flotta al prossimo accesso
         veicolo.notifyObservers();
-        System.out.println("[Facade] Tappa registrata per " + aggiornati + " colli.");
+        System.out.println("[Facade] Consegna registrata per " + consegnati.size() + " colli a " + luogo);
     }
 
     // =========================================================================
@@ -183,15 +331,65 @@ public class LogisticaFacade {
     // =========================================================================
 
     public ICollo cercaCollo(String codice) {
-        return gestoreDatabase.getColloProxy(codice);
+        return persistenza.getColloProxy(codice);
+    }
+
+    /**
+     * Storico completo del collo (senza caricare l'intero ColloReale).
+     */
+    public List<EventoTracking> getStoricoCollo(String codice) {
+        return persistenza.getStoricoPerCollo(codice);
+    }
+
+    /**
+     * Pagina dello storico, dal più recente.
+     *
+     * @param token Token restituito dalla pagina precedente (null per iniziare).
+     */
+    public PaginaStorico getStoricoCollo(String codice, String token, int dimensione) {
+        return persistenza.getStoricoPagina(codice, token, dimensione);
     }
 
-    public List<String> getStoricoCollo(String codice) {
-        ColloReale c = gestoreDatabase.getColloRealeCompleto(codice);
-        return (c != null) ? c.getStorico() : new ArrayList<>();
+    /**
+     * Stato e ultimo evento del collo (prima schermata del Cliente), senza caricare lo storico.
+     *
+     * @return Il riepilogo, oppure null se il codice non esiste.
+     */
+    public RiepilogoTracking getRiepilogoTracking(String codice) {
+        return persistenza.getRiepilogoTracking(codice);
+    }
+
+    public int contaEventiStorico(String codice) {
+        return persistenza.contaEventiStorico(codice);
+    }
+
+    /**
+     * Salvataggio riuscito: i proxy smettono di considerare le proprie modifiche in sospeso.
+     */
+    private static void confermaModifiche(List<ICollo> colli) {
+        for (ICollo c : colli) {
+            if (c instanceof ColloProxy) {
+                ((ColloProxy) c).confermaModifiche();
+            }
+        }
+    }
+
+    /**
+     * Salvataggio fallito (rollback): i proxy tornano allo stato salvato e rileggono i dati al prossimo accesso.
+     */
+    private static void annullaModifiche(List<ICollo> colli) {
+        for (ICollo c : colli) {
+            if (c instanceof ColloProxy) {
+                ((ColloProxy) c).annullaModifiche();
+            }
+        }
     }
 
     private void attachLogger(ICollo c) {
+        // Lo stesso proxy torna dalla Identity Map a ogni operazione: un solo logger per proxy
+        if (c instanceof ColloProxy && !((ColloProxy) c).segnaLoggerAgganciato()) {
+            return;
+        }
         if (c instanceof Subject) {
             Subject s = (Subject) c;
 
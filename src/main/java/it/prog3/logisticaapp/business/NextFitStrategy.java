@@ -2,6 +2,7 @@ package it.prog3.logisticaapp.business;
 
 import it.prog3.logisticaapp.model.ICollo;
 import it.prog3.logisticaapp.model.IVeicolo;
+import it.prog3.logisticaapp.model.StatoCollo;
 import java.util.Iterator;
 import java.util.List;
 
@@ -34,9 +35,8 @@ public class NextFitStrategy implements PackingStrategy { // Usa IPackingStrateg
 
         for (ICollo collo : colli) {
 
-            // 1. Controllo Stato: Deve corrispondere a quello nel DB (GestoreDatabase)
-            // Se nel DB usi "IN_PREPARAZIONE", devi usare quella stringa qui.
-            if (!"IN_PREPARAZIONE".equalsIgnoreCase(collo.getStato())) {
+            // 1. Controllo Stato: confronto tra costanti enum (nessun confronto di stringhe)
+            if (collo.getStato() != StatoCollo.IN_PREPARAZIONE) {
                 continue; // Ignora colli già processati
             }
 
@@ -45,7 +45,7 @@ public class NextFitStrategy implements PackingStrategy { // Usa IPackingStrateg
 
             if (caricato) {
                 // Successo! Aggiorna stato e logga
-                collo.setStato("CARICATO");
+                collo.setStato(StatoCollo.CARICATO);
                 System.out.println(" -> Collo " + collo.getCodice() + " caricato su " + veicoloCorrente.getCodice());
             } else {
                 // Fallimento: Il veicolo è pieno (o il collo è troppo grande).
@@ -59,7 +59,7 @@ public class NextFitStrategy implements PackingStrategy { // Usa IPackingStrateg
 
                     // Riprova sul nuovo veicolo (appena aperto, quindi vuoto)
                     if (veicoloCorrente.caricaCollo(collo)) {
-                        collo.setStato("CARICATO");
+                        collo.setStato(StatoCollo.CARICATO);
                         System.out.println(" -> Collo " + collo.getCodice() + " caricato su NUOVO veicolo " + veicoloCorrente.getCodice());
                     } else {
                         // Se non entra nemmeno in un veicolo vuoto, il collo è fisicamente troppo grande
@@ -1,5 +1,7 @@
 package it.prog3.logisticaapp.business;
 
+import it.prog3.logisticaapp.model.MappaIdentitaColli;
+
 /**
  * Singleton Sessione.
  * Gestisce l'utente attualmente loggato nel sistema (simulazione login).
@@ -18,6 +20,9 @@ public class Sessione {
 
     private Ruolo ruoloCorrente;
 
+    // Identity Map: un solo ColloProxy vivo per codice in tutta la sessione
+    private final MappaIdentitaColli mappaColli = new MappaIdentitaColli();
+
     // Costruttore privato per impedire istanziazione esterna
     private Sessione() {
         // Default: Il cliente è l'attore con permessi minimi
@@ -27,9 +32,10 @@ public class Sessione {
 
     /**
      * Restituisce l'istanza unica della Sessione (Lazy Initialization).
+     * Sincronizzato: i proxy vengono creati anche dai thread in background (es. giornale, import).
      * @return L'oggetto Sessione.
      */
-    public static Sessione getInstance() {
+    public static synchronized Sessione getInstance() {
         if (instance == null) {
             instance = new Sessione();
         }
@@ -56,4 +62,11 @@ public class Sessione {
         this.ruoloCorrente = ruoloCorrente;
         System.out.println("[Sessione] Cambio ruolo effettuato: " + ruoloCorrente);
     }
+
+    /**
+     * Restituisce la mappa dei colli attivi nella sessione (Identity Map dei proxy).
+     */
+    public MappaIdentitaColli getMappaColli() {
+        return mappaColli;
+    }
 }
\ No newline at end of file
@@ -1,14 +1,29 @@
 package it.prog3.logisticaapp.controller;
 
 import it.prog3.logisticaapp.business.LogisticaFacade;
+import it.prog3.logisticaapp.database.PaginaStorico;
+import it.prog3.logisticaapp.database.RiepilogoTracking;
+import it.prog3.logisticaapp.model.EventoTracking;
 import it.prog3.logisticaapp.model.ICollo;
+import it.prog3.logisticaapp.model.StatoCollo;
 import it.prog3.logisticaapp.util.Observer;
 import it.prog3.logisticaapp.util.Subject;
 import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.fxml.FXML;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.event.EventHandler;
 import javafx.scene.control.*;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.VBox;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class ClienteController implements Observer {
@@ -30,14 +45,46 @@ public class ClienteController implements Observer {
     private Subject colloOsservato;
     private ICollo colloCorrente;
 
+    // Codice del collo mostrato: il proxy (colloCorrente) viene creato solo quando serve lo storico
+    private String codiceCorrente;
+
     // Flag per sapere se l'utente ha già chiesto di vedere i dettagli
     private boolean dettagliCaricati = false;
 
+    // Paginazione dello storico: prima gli eventi recenti, i più vecchi allo scroll
+    private static final int DIMENSIONE_PAGINA_STORICO = 20;
+    private static final DateTimeFormatter FORMATO_DATA =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private String tokenStorico;
+    private int eventiMostrati;
+    private int totaleEventi;
+    private String rigaAvviso;
+    private ScrollBar barraStorico;
+
     @FXML
     public void initialize() {
         this.facade = new LogisticaFacade();
         resetVista();
 
+        // Gli eventi meno recenti si caricano quando la lista arriva in fondo: la barra di scorrimento
+        // esiste solo dopo la creazione dello skin (NO LAMBDA)
+        listStorico.skinProperty().addListener(new ChangeListener<Skin<?>>() {
+            @Override
+            public void changed(ObservableValue<? extends Skin<?>> observable, Skin<?> oldValue, Skin<?> newValue) {
+                if (newValue != null) agganciaBarraStorico();
+            }
+        });
+        // Se la pagina non riempie la lista non c'è nulla da scorrere: si carica anche cliccando l'avviso
+        listStorico.setOnMouseClicked(new EventHandler<MouseEvent>() {
+            @Override
+            public void handle(MouseEvent event) {
+                String selezionata = listStorico.getSelectionModel().getSelectedItem();
+                if (selezionata != null && selezionata.equals(rigaAvviso)) {
+                    caricaStoricoPrecedente();
+                }
+            }
+        });
+
         Platform.runLater(() -> txtCodice.requestFocus());
     }
 
@@ -48,6 +95,29 @@ public class ClienteController implements Observer {
         btnVediStorico.setVisible(false);
         listStorico.getItems().clear();
         dettagliCaricati = false;
+        tokenStorico = null;
+        rigaAvviso = null;
+    }
+
+    /**
+     * Collega il caricamento della pagina successiva alla barra verticale della lista, quando arriva in fondo.
+     */
+    private void agganciaBarraStorico() {
+        if (barraStorico != null) return;
+        for (Node n : listStorico.lookupAll(".scroll-bar")) {
+            if (n instanceof ScrollBar && ((ScrollBar) n).getOrientation() == Orientation.VERTICAL) {
+                barraStorico = (ScrollBar) n;
+                barraStorico.valueProperty().addListener(new ChangeListener<Number>() {
+                    @Override
+                    public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
+                        if (newValue.doubleValue() >= barraStorico.getMax()) {
+                            caricaStoricoPrecedente();
+                        }
+                    }
+                });
+                return;
+            }
+        }
     }
 
     @FXML
@@ -65,29 +135,29 @@ public class ClienteController implements Observer {
         if (colloOsservato != null) {
             colloOsservato.detach(this);
             colloOsservato = null;
-            colloCorrente = null;
         }
+        colloCorrente = null;
+        codiceCorrente = null;
 
         try {
-            // 1. Otteniamo il Proxy (leggero, solo codice e stato)
-            ICollo collo = facade.cercaCollo(codice);
+            // 1. Prima schermata dal riepilogo (stato + ultimo evento): una sola lettura per chiave primaria
+            RiepilogoTracking riepilogo = facade.getRiepilogoTracking(codice);
 
-            if (collo == null) {
+            if (riepilogo == null) {
                 lblRisultato.setText("Spedizione non trovata.");
                 return;
             }
 
-            this.colloCorrente = collo;
-            lblRisultato.setText("Spedizione: " + collo.getCodice());
-
-            // 2. Aggiorniamo la vista base (senza caricare storico)
-            aggiornaStatoUI();
-
-            // 3. Observer
-            if (collo instanceof Subject) {
-                this.colloOsservato = (Subject) collo;
-                this.colloOsservato.attach(this);
+            String intestazione = "Spedizione: " + riepilogo.getCodice();
+            if (riepilogo.getUltimoEvento() != null) {
+                intestazione += "\nUltimo aggiornamento: "
+                        + formatta(Collections.singletonList(riepilogo.getUltimoEvento())).get(0);
             }
+            lblRisultato.setText(intestazione);
+            this.codiceCorrente = riepilogo.getCodice();
+
+            // 2. Aggiorniamo la vista base (senza caricare storico né cercare il collo)
+            aggiornaStatoUI(riepilogo.getStato());
 
         } catch (Exception e) {
             lblRisultato.setText("Errore di sistema.");
@@ -99,13 +169,11 @@ public class ClienteController implements Observer {
      * Aggiorna solo l'intestazione dello stato.
      * NON carica lo storico dal DB.
      */
-    private void aggiornaStatoUI() {
-        if (colloCorrente == null) return;
-
-        String stato = colloCorrente.getStato();
+    private void aggiornaStatoUI(StatoCollo stato) {
+        if (stato == null) return;
 
         // Gestione stati "Non Spedito"
-        if ("IN_PREPARAZIONE".equals(stato) || "CARICATO".equals(stato)) {
+        if (stato == StatoCollo.IN_PREPARAZIONE || stato == StatoCollo.CARICATO) {
             lblStato.setText("Stato: NON ANCORA SPEDITO");
             lblStato.setStyle("-fx-text-fill: #e67e22; -fx-font-weight: bold;");
 
@@ -113,15 +181,20 @@ public class ClienteController implements Observer {
             btnVediStorico.setVisible(false);
             boxStorico.setVisible(false);
 
-        } else if ("IN_TRANSITO".equals(stato)) {
-            lblStato.setText("Stato: IN TRANSITO / SPEDITO");
-            lblStato.setStyle("-fx-text-fill: #27ae60; -fx-font-weight: bold;");
+        } else if (stato == StatoCollo.IN_TRANSITO || stato == StatoCollo.CONSEGNATO) {
+            if (stato == StatoCollo.CONSEGNATO) {
+                lblStato.setText("Stato: CONSEGNATO");
+                lblStato.setStyle("-fx-text-fill: #2980b9; -fx-font-weight: bold;");
+            } else {
+                lblStato.setText("Stato: IN TRANSITO / SPEDITO");
+                lblStato.setStyle("-fx-text-fill: #27ae60; -fx-font-weight: bold;");
+            }
 
             // Qui sta la differenza: Mostriamo il bottone, MA NON CARICHIAMO I DATI
             if (!dettagliCaricati) {
                 btnVediStorico.setVisible(true);
                 boxStorico.setVisible(false);
-            } else {
+            } else if (codiceCorrente != null) {
                 // Se l'utente aveva già cliccato, ricarichiamo la lista (caso aggiornamento live)
                 caricaStorico();
             }
@@ -134,9 +207,11 @@ public class ClienteController implements Observer {
      */
     @FXML
     public void onVediStorico() {
-        if (colloCorrente == null) return;
+        if (codiceCorrente == null) return;
 
         System.out.println("[ClienteController] Utente richiede storico -> Attivazione Proxy/DB...");
+        osservaCollo();
+        agganciaBarraStorico();
 
         dettagliCaricati = true; // Ricordiamo che l'utente vuole vedere i dettagli
         btnVediStorico.setVisible(false); // Nascondiamo il bottone
@@ -145,30 +220,114 @@ public class ClienteController implements Observer {
         caricaStorico();
     }
 
+    /**
+     * Proxy (leggero, solo codice e stato) per gli aggiornamenti live: cercato solo alla prima richiesta
+     * dello storico, così la prima schermata resta una sola lettura del riepilogo.
+     */
+    private void osservaCollo() {
+        if (colloCorrente != null) return;
+        try {
+            ICollo collo = facade.cercaCollo(codiceCorrente);
+            if (collo == null) return;
+            this.colloCorrente = collo;
+
+            if (collo instanceof Subject) {
+                this.colloOsservato = (Subject) collo;
+                this.colloOsservato.attach(this);
+            }
+        } catch (Exception e) {
+            // Lo storico resta consultabile anche senza aggiornamenti live
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Mostra subito la pagina più recente dello storico.
+     */
     private void caricaStorico() {
         try {
-            // Questa chiamata triggera il caricamento completo
-            List<String> storico = facade.getStoricoCollo(colloCorrente.getCodice());
+            String codice = codiceCorrente;
+            PaginaStorico pagina = facade.getStoricoCollo(codice, null, DIMENSIONE_PAGINA_STORICO);
 
             listStorico.getItems().clear();
-            if (storico.isEmpty()) {
+            rigaAvviso = null;
+            tokenStorico = pagina.getTokenSuccessivo();
+            eventiMostrati = pagina.getEventi().size();
+
+            if (pagina.getEventi().isEmpty()) {
                 listStorico.getItems().add("Nessun dettaglio disponibile al momento.");
             } else {
-                for (String evento : storico) {
-                    listStorico.getItems().add(evento);
-                }
+                listStorico.getItems().addAll(formatta(pagina.getEventi()));
+                // Il conteggio serve solo se ci sono altre pagine
+                totaleEventi = pagina.haAltri() ? facade.contaEventiStorico(codice) : eventiMostrati;
+                mostraAvvisoAltriEventi();
+            }
+        } catch (Exception e) {
+            listStorico.getItems().add("Errore nel recupero dati.");
+        }
+    }
+
+    /**
+     * Accoda la pagina successiva (eventi più vecchi), se esiste.
+     */
+    private void caricaStoricoPrecedente() {
+        if (codiceCorrente == null || tokenStorico == null) return;
+
+        try {
+            PaginaStorico pagina = facade.getStoricoCollo(codiceCorrente, tokenStorico, DIMENSIONE_PAGINA_STORICO);
+
+            if (rigaAvviso != null) {
+                listStorico.getItems().remove(rigaAvviso);
+                rigaAvviso = null;
             }
+            tokenStorico = pagina.getTokenSuccessivo();
+            eventiMostrati += pagina.getEventi().size();
+            listStorico.getItems().addAll(formatta(pagina.getEventi()));
+            mostraAvvisoAltriEventi();
+
         } catch (Exception e) {
+            tokenStorico = null;
             listStorico.getItems().add("Errore nel recupero dati.");
         }
     }
 
+    /**
+     * Conversione evento -> testo: avviene solo qui, al momento di mostrarlo (ora locale).
+     */
+    private static List<String> formatta(List<EventoTracking> eventi) {
+        List<String> righe = new ArrayList<>(eventi.size());
+        for (EventoTracking e : eventi) {
+            String quando = FORMATO_DATA.format(Instant.ofEpochMilli(e.getIstante()));
+            switch (e.getTipo()) {
+                case SPEDITO:
+                    righe.add(quando + " - Spedito con " + e.getLuogo() + ". Il pacco ha lasciato la struttura del mittente.");
+                    break;
+                case ARRIVO_HUB:
+                    righe.add(quando + " - Arrivato a centro di smistamento: " + e.getLuogo());
+                    break;
+                case CONSEGNATO:
+                    righe.add(quando + " - Consegnato al destinatario: " + e.getLuogo());
+                    break;
+                default:
+                    righe.add(quando + " - " + e.getLuogo());
+            }
+        }
+        return righe;
+    }
+
+    private void mostraAvvisoAltriEventi() {
+        if (tokenStorico == null) return;
+        rigaAvviso = "... altri " + Math.max(0, totaleEventi - eventiMostrati)
+                + " eventi meno recenti (scorri fino in fondo o clicca qui per caricarli)";
+        listStorico.getItems().add(rigaAvviso);
+    }
+
     @Override
     public void update() {
         Platform.runLater(() -> {
             System.out.println("[ClienteGUI] Update ricevuto.");
             // Aggiorniamo lo stato (es. se passa da PREPARAZIONE a TRANSITO)
-            aggiornaStatoUI();
+            if (colloCorrente != null) aggiornaStatoUI(colloCorrente.getStato());
         });
     }
 
@@ -24,6 +24,7 @@ public class CorriereController {
     @FXML private ListView<String> listCarico;
     @FXML private TextField txtLuogo;
     @FXML private Button btnAggiorna;
+    @FXML private Button btnConsegna;
     @FXML private Label lblStatus;
 
     private LogisticaFacade facade;
@@ -144,6 +145,49 @@ public class CorriereController {
         }
     }
 
+    @FXML
+    public void onRegistraConsegna() {
+        IVeicolo veicoloSelezionato = comboVeicoli.getSelectionModel().getSelectedItem();
+        String luogo = txtLuogo.getText().trim();
+
+        if (veicoloSelezionato == null) {
+            Alert alert = new Alert(Alert.AlertType.WARNING, "Seleziona prima un veicolo!");
+            alert.show();
+            return;
+        }
+
+        if (veicoloSelezionato.getCarico().isEmpty()) {
+            Alert alert = new Alert(Alert.AlertType.WARNING, "Questo veicolo è vuoto, non c'è nulla da consegnare.");
+            alert.show();
+            return;
+        }
+
+        if (luogo.isEmpty()) {
+            Alert alert = new Alert(Alert.AlertType.WARNING, "Inserisci il luogo di consegna.");
+            alert.show();
+            return;
+        }
+
+        try {
+            facade.registraConsegnaVeicolo(veicoloSelezionato, luogo);
+
+            txtLuogo.clear();
+
+            // Il veicolo ora è vuoto: ricarichiamo la flotta (non compare più tra quelli in viaggio)
+            caricaFlottaCompleta();
+            listCarico.getItems().clear();
+            lblStatus.setText("Consegna registrata a: " + luogo);
+
+            Alert info = new Alert(Alert.AlertType.INFORMATION, "Consegna registrata con successo!");
+            info.show();
+
+        } catch (Exception e) {
+            lblStatus.setText("Errore: " + e.getMessage());
+            mostraCaricoVeicolo(veicoloSelezionato);
+            e.printStackTrace();
+        }
+    }
+
     @FXML
     public void onLogout() {
         try {
@@ -25,6 +25,8 @@ public class ManagerController {
     @FXML private TableColumn<ICollo, Double> colPeso;
     @FXML private TableColumn<ICollo, String> colDestinazione;
 
+    @FXML private Button btnAltriColli;
+
     @FXML private TreeView<String> treeVeicoliDisponibili;
     @FXML private ComboBox<String> comboStrategia;
     @FXML private Label lblStatus;
@@ -35,6 +37,11 @@ public class ManagerController {
     // --- Business Layer ---
     private LogisticaFacade facade;
 
+    // Paginazione della tabella colli (keyset sul codice)
+    private static final int DIMENSIONE_PAGINA = 200;
+    private String ultimoCodiceMostrato;
+    private int totaleColliInAttesa;
+
     @FXML
     public void initialize() {
         this.facade = new LogisticaFacade();
@@ -79,12 +86,11 @@ public class ManagerController {
      */
     private void aggiornaDati() {
         try {
-            // A. Aggiorna tabella colli
-            List<ICollo> colli = facade.getColliInAttesa();
-            tableColliInAttesa.setItems(FXCollections.observableArrayList(colli));
-
-            String msg = "Colli in attesa: " + colli.size();
-            if (lblStatus != null) lblStatus.setText(msg);
+            // A. Aggiorna tabella colli (solo la prima pagina, le altre su richiesta)
+            totaleColliInAttesa = facade.contaColliInAttesa();
+            ultimoCodiceMostrato = null;
+            tableColliInAttesa.setItems(FXCollections.<ICollo>observableArrayList());
+            caricaPaginaColli();
 
             // B. Recupera struttura Aziende/Veicoli
             List<Azienda> aziende = facade.getAziendeAll();
@@ -101,6 +107,34 @@ public class ManagerController {
         }
     }
 
+    /**
+     * Accoda alla tabella la pagina successiva di colli in attesa.
+     */
+    private void caricaPaginaColli() {
+        List<ICollo> pagina = facade.getColliInAttesa(ultimoCodiceMostrato, DIMENSIONE_PAGINA);
+        if (!pagina.isEmpty()) {
+            ultimoCodiceMostrato = pagina.get(pagina.size() - 1).getCodice();
+            tableColliInAttesa.getItems().addAll(pagina);
+        }
+
+        int mostrati = tableColliInAttesa.getItems().size();
+        if (btnAltriColli != null) btnAltriColli.setVisible(mostrati < totaleColliInAttesa);
+
+        String msg = "Colli in attesa: " + totaleColliInAttesa;
+        if (mostrati < totaleColliInAttesa) msg += " (mostrati " + mostrati + ")";
+        if (lblStatus != null) lblStatus.setText(msg);
+    }
+
+    @FXML
+    public void onAltriColli() {
+        try {
+            caricaPaginaColli();
+        } catch (Exception e) {
+            System.err.println("Errore caricamento pagina colli: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     /*
     private void costruisciAlberoDisponibili(List<Azienda> aziende) {
         TreeItem<String> root = new TreeItem<>("Flotta Disponibile");
@@ -246,8 +280,12 @@ public class ManagerController {
             // 2. Esegui
             facade.eseguiCarico();
 
-            // 3. Feedback
-            lblStatus.setText("Carico completato con successo!");
+            // 3. Feedback (con la durata della fase di commit)
+            String tempoCommit = "";
+            if (facade.getUltimoCommit() != null) {
+                tempoCommit = String.format(" (salvataggio in %.1f ms)", facade.getUltimoCommit().getDurataMs());
+            }
+            lblStatus.setText("Carico completato con successo!" + tempoCommit);
             Alert alert = new Alert(Alert.AlertType.INFORMATION);
             alert.setTitle("Successo");
             alert.setHeaderText(null);
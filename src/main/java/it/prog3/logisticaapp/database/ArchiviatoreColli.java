@@ -0,0 +1,226 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.StatoCollo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Partizionamento caldo/freddo: sposta i colli chiusi e il loro storico nelle tabelle di archivio.
+ * <p>
+ * Le tabelle attive ({@code colli}, {@code storico_spostamenti}) restano piccole, quindi indici,
+ * cache delle pagine e query della flotta lavorano solo sui colli ancora in circolazione.
+ * Un collo viene archiviato quando è {@link StatoCollo#CONSEGNATO} da più del periodo di conservazione
+ * (colonna {@code chiuso_il}, impostata dai trigger alla consegna); lo storico si sposta <b>sempre insieme</b> al collo,
+ * così lo storico di un collo non è mai diviso tra le due tabelle.
+ * </p>
+ * <p>
+ * Ogni lotto è una transazione breve dello {@link ScrittoreDB} (copia + cancellazione, tutto o niente):
+ * tra un lotto e l'altro le scritture dell'applicazione non restano mai in attesa a lungo.
+ * Le letture continuano a trovare i colli archiviati tramite il fallback di {@link GestoreDatabase}.
+ * </p>
+ * <p>
+ * L'archiviatore dell'applicazione ({@link #getDefault()}) si pianifica da solo su un proprio thread
+ * in background e si ferma alla chiusura del database.
+ * </p>
+ */
+public class ArchiviatoreColli {
+
+    // I codici del lotto vengono fissati una volta sola: copia e cancellazione lavorano sullo stesso insieme
+    private static final String CREA_LOTTO = "CREATE TEMP TABLE IF NOT EXISTS archivio_lotto (codice TEXT PRIMARY KEY)";
+    private static final String SVUOTA_LOTTO = "DELETE FROM archivio_lotto";
+    private static final String SCEGLI_LOTTO =
+            "INSERT INTO archivio_lotto (codice) " +
+            "SELECT c.codice FROM colli c WHERE c.stato = ? AND c.chiuso_il <= ? " +
+            "ORDER BY c.codice LIMIT ?";
+    private static final String COPIA_COLLI =
+            "INSERT OR REPLACE INTO colli_archivio (codice, peso, stato, mittente, destinatario, archiviato_il) " +
+            "SELECT codice, peso, stato, mittente, destinatario, ? FROM colli WHERE codice IN (SELECT codice FROM archivio_lotto)";
+    private static final String COPIA_STORICO =
+            "INSERT OR REPLACE INTO storico_archivio (id, collo_codice, timestamp, tipo, luogo) " +
+            "SELECT id, collo_codice, timestamp, tipo, luogo FROM storico_spostamenti " +
+            "WHERE collo_codice IN (SELECT codice FROM archivio_lotto)";
+    private static final String CANCELLA_STORICO =
+            "DELETE FROM storico_spostamenti WHERE collo_codice IN (SELECT codice FROM archivio_lotto)";
+    private static final String CANCELLA_COLLI =
+            "DELETE FROM colli WHERE codice IN (SELECT codice FROM archivio_lotto)";
+
+    private static ArchiviatoreColli istanzaDefault;
+
+    private final ScrittoreDB scrittore;
+    private final int dimensioneLotto;
+    private final long conservazioneMs;
+    private ScheduledExecutorService pianificatore;
+
+    // Statistiche
+    private final AtomicLong colliArchiviati = new AtomicLong();
+    private final AtomicLong eventiArchiviati = new AtomicLong();
+    private final AtomicLong lotti = new AtomicLong();
+    private final AtomicLong cicli = new AtomicLong();
+
+    /**
+     * @param scrittore       Scrittore del database (le transazioni passano da lui).
+     * @param dimensioneLotto Colli massimi spostati in una singola transazione.
+     * @param conservazioneMs Tempo minimo dalla consegna prima che un collo sia archiviato.
+     */
+    public ArchiviatoreColli(ScrittoreDB scrittore, int dimensioneLotto, long conservazioneMs) {
+        if (dimensioneLotto <= 0) {
+            throw new IllegalArgumentException("La dimensione del lotto deve essere maggiore di zero.");
+        }
+        if (conservazioneMs < 0) {
+            throw new IllegalArgumentException("Il periodo di conservazione non può essere negativo.");
+        }
+        this.scrittore = scrittore;
+        this.dimensioneLotto = dimensioneLotto;
+        this.conservazioneMs = conservazioneMs;
+    }
+
+    /**
+     * Archiviatore dell'applicazione (su SQLite), configurabile con proprietà di sistema:
+     * <ul>
+     *     <li>{@code logistica.archivio.intervalloMin}: minuti tra due archiviazioni, 0 per disattivarla (default 60);</li>
+     *     <li>{@code logistica.archivio.conservazioneGiorni}: giorni dalla consegna prima di archiviare un collo (default 7);</li>
+     *     <li>{@code logistica.archivio.lotto}: colli spostati per transazione (default 500).</li>
+     * </ul>
+     * Alla prima chiamata avvia l'archiviazione periodica.
+     */
+    public static synchronized ArchiviatoreColli getDefault() {
+        if (istanzaDefault == null) {
+            final ArchiviatoreColli archiviatore = new ArchiviatoreColli(ConnessioneDB.getInstance().getScrittore(),
+                    Integer.getInteger("logistica.archivio.lotto", 500),
+                    TimeUnit.DAYS.toMillis(Long.getLong("logistica.archivio.conservazioneGiorni", 7L)));
+
+            long intervalloMin = Long.getLong("logistica.archivio.intervalloMin", 60L);
+            if (intervalloMin > 0) {
+                archiviatore.pianifica(1, intervalloMin, TimeUnit.MINUTES);
+                ConnessioneDB.getInstance().registraAllaChiusura(new Runnable() {
+                    @Override
+                    public void run() {
+                        archiviatore.ferma();
+                    }
+                });
+            }
+            istanzaDefault = archiviatore;
+        }
+        return istanzaDefault;
+    }
+
+    /**
+     * Avvia l'archiviazione periodica su un thread in background dedicato (una sola volta).
+     */
+    public synchronized void pianifica(long ritardoIniziale, long intervallo, TimeUnit unita) {
+        if (pianificatore != null) return;
+        pianificatore = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "archivio-colli");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pianificatore.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    archivia();
+                } catch (SQLException | RuntimeException e) {
+                    System.err.println("[Archivio] Archiviazione fallita: " + e.getMessage());
+                }
+            }
+        }, ritardoIniziale, intervallo, unita);
+    }
+
+    /**
+     * Ferma l'archiviazione periodica (il lotto in corso viene interrotto e annullato).
+     */
+    public synchronized void ferma() {
+        if (pianificatore != null) {
+            pianificatore.shutdownNow();
+            pianificatore = null;
+        }
+    }
+
+    /**
+     * Archivia tutti i colli idonei, un lotto (una transazione) alla volta.
+     *
+     * @return Il numero di colli archiviati.
+     * @throws SQLException Se un lotto fallisce (i lotti precedenti restano archiviati).
+     */
+    public int archivia() throws SQLException {
+        int totale = 0;
+        int spostati;
+        do {
+            spostati = archiviaLotto();
+            totale += spostati;
+        } while (spostati == dimensioneLotto);
+
+        cicli.incrementAndGet();
+        if (totale > 0) {
+            System.out.println("[Archivio] Archiviati " + totale + " colli. " + getStatistiche());
+        }
+        return totale;
+    }
+
+    /**
+     * Sposta al massimo {@code dimensioneLotto} colli in un'unica transazione.
+     *
+     * @return Il numero di colli spostati (0 se non ce ne sono altri da archiviare).
+     */
+    public int archiviaLotto() throws SQLException {
+        final long adesso = System.currentTimeMillis();
+        return scrittore.esegui(new ScrittoreDB.Scrittura<Integer>() {
+            @Override
+            public Integer esegui(Connection conn) throws SQLException {
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate(CREA_LOTTO);
+                    st.executeUpdate(SVUOTA_LOTTO);
+                }
+
+                int scelti;
+                try (PreparedStatement ps = conn.prepareStatement(SCEGLI_LOTTO)) {
+                    ps.setInt(1, StatoCollo.CONSEGNATO.getCodice());
+                    ps.setLong(2, adesso - conservazioneMs);
+                    ps.setInt(3, dimensioneLotto);
+                    scelti = ps.executeUpdate();
+                }
+                if (scelti == 0) return 0;
+
+                try (PreparedStatement ps = conn.prepareStatement(COPIA_COLLI)) {
+                    ps.setLong(1, adesso);
+                    ps.executeUpdate();
+                }
+                int eventi;
+                try (Statement st = conn.createStatement()) {
+                    eventi = st.executeUpdate(COPIA_STORICO);
+                    st.executeUpdate(CANCELLA_STORICO);
+                    st.executeUpdate(CANCELLA_COLLI);
+                    st.executeUpdate(SVUOTA_LOTTO);
+                }
+
+                // Conteggi aggiornati solo dentro la transazione riuscita (il gruppo potrebbe ancora fallire al COMMIT,
+                // caso raro: al ciclo successivo gli stessi colli verrebbero ricontati)
+                colliArchiviati.addAndGet(scelti);
+                eventiArchiviati.addAndGet(eventi);
+                lotti.incrementAndGet();
+                return scelti;
+            }
+        });
+    }
+
+    public long getColliArchiviati() { return colliArchiviati.get(); }
+    public long getEventiArchiviati() { return eventiArchiviati.get(); }
+    public long getLotti() { return lotti.get(); }
+    public long getCicli() { return cicli.get(); }
+
+    public String getStatistiche() {
+        return String.format("colli=%d, eventi=%d, lotti=%d, cicli=%d (lotto=%d, conservazione=%d ms)",
+                getColliArchiviati(), getEventiArchiviati(), getLotti(), getCicli(), dimensioneLotto, conservazioneMs);
+    }
+}
@@ -0,0 +1,139 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.ColloReale;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache condivisa (di processo) dei {@link ColloReale} già idratati, con politica LRU.
+ * <p>
+ * Più proxy dello stesso collo (es. da {@code getColliPerVeicolo} e da {@code getColloProxy})
+ * evitano di ripetere SELECT del collo e dello storico. La cache tiene un'istantanea privata
+ * e consegna sempre una copia ({@link ColloReale#copia()}): le modifiche fatte da un proxy
+ * prima del salvataggio (o perse con un rollback) non raggiungono la cache né gli altri proxy.
+ * La dimensione è limitata: oltre il massimo viene scartato il collo usato meno di recente.
+ * </p>
+ * <p>
+ * Ogni scrittura su un collo lo invalida. Per evitare che un caricamento partito <b>prima</b>
+ * di una scrittura rimetta in cache dati vecchi, chi carica legge prima la {@link #getGenerazione()}
+ * e la passa a {@link #inserisci}: se nel frattempo c'è stata un'invalidazione l'inserimento viene ignorato.
+ * </p>
+ * <p>
+ * Dimensione configurabile con {@code logistica.cache.colli.dimensione} (default 1000, 0 la disattiva).
+ * </p>
+ */
+public class CacheColli {
+
+    private static final CacheColli INSTANCE = new CacheColli(Integer.getInteger("logistica.cache.colli.dimensione", 1000));
+
+    private final int dimensioneMassima;
+    private final LinkedHashMap<String, ColloReale> colli;
+    private long generazione = 0;
+
+    // Statistiche (protette dallo stesso lock della mappa)
+    private long hit;
+    private long miss;
+    private long rimozioniLru;
+    private long invalidazioni;
+
+    /**
+     * @param dimensioneMassima Numero massimo di colli in cache (0 = cache disattivata).
+     */
+    public CacheColli(int dimensioneMassima) {
+        if (dimensioneMassima < 0) {
+            throw new IllegalArgumentException("La dimensione della cache non può essere negativa.");
+        }
+        this.dimensioneMassima = dimensioneMassima;
+        // accessOrder = true: ogni get sposta il collo in coda, il primo è il meno usato di recente
+        this.colli = new LinkedHashMap<String, ColloReale>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ColloReale> piuVecchio) {
+                if (size() > CacheColli.this.dimensioneMassima) {
+                    rimozioniLru++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static CacheColli getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return Una copia del collo in cache, oppure null (miss).
+     */
+    public synchronized ColloReale cerca(String codice) {
+        ColloReale reale = colli.get(codice);
+        if (reale != null) {
+            hit++;
+            return reale.copia();
+        }
+        miss++;
+        return null;
+    }
+
+    /**
+     * Generazione corrente: va letta prima di iniziare un caricamento dal DB.
+     */
+    public synchronized long getGenerazione() {
+        return generazione;
+    }
+
+    /**
+     * Inserisce un collo appena caricato, a meno che nel frattempo ci sia stata un'invalidazione.
+     *
+     * @param generazioneLetta Valore di {@link #getGenerazione()} letto prima del caricamento.
+     * @return L'istanza da usare: una copia di quella già in cache (se un altro thread l'ha inserita prima)
+     *         o quella passata, che resta del chiamante (la cache ne conserva una copia).
+     */
+    public synchronized ColloReale inserisci(String codice, ColloReale reale, long generazioneLetta) {
+        if (dimensioneMassima == 0 || generazioneLetta != generazione) return reale;
+        ColloReale presente = colli.get(codice);
+        if (presente != null) return presente.copia();
+        colli.put(codice, reale.copia());
+        return reale;
+    }
+
+    public synchronized void invalida(String codice) {
+        generazione++;
+        if (colli.remove(codice) != null) invalidazioni++;
+    }
+
+    public synchronized void invalida(Collection<String> codici) {
+        generazione++;
+        for (String codice : codici) {
+            if (colli.remove(codice) != null) invalidazioni++;
+        }
+    }
+
+    public synchronized void svuota() {
+        generazione++;
+        invalidazioni += colli.size();
+        colli.clear();
+    }
+
+    // =========================================================================
+    // STATISTICHE
+    // =========================================================================
+
+    public int getDimensioneMassima() { return dimensioneMassima; }
+    public synchronized int getDimensione() { return colli.size(); }
+    public synchronized long getHit() { return hit; }
+    public synchronized long getMiss() { return miss; }
+    public synchronized long getRimozioniLru() { return rimozioniLru; }
+    public synchronized long getInvalidazioni() { return invalidazioni; }
+
+    public synchronized double getHitRatio() {
+        long totale = hit + miss;
+        return totale == 0 ? 0.0 : (double) hit / totale;
+    }
+
+    public synchronized String getStatistiche() {
+        return String.format("dimensione=%d/%d, hit=%d, miss=%d, hit ratio=%.1f%%, rimozioni LRU=%d, invalidazioni=%d",
+                colli.size(), dimensioneMassima, hit, miss, getHitRatio() * 100, rimozioniLru, invalidazioni);
+    }
+}
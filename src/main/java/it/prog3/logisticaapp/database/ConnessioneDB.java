@@ -1,13 +1,47 @@
 package it.prog3.logisticaapp.database;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Gestione Singleton della connessione al Database.
  * <p>
  * L'istanza viene creata al caricamento della classe (Thread-safe).
+ * Letture e scritture sono separate:
+ * <ul>
+ *     <li>le <b>letture</b> usano le connessioni in sola lettura di un {@link PoolConnessioni},
+ *     che resta aperto per tutta la vita dell'applicazione;</li>
+ *     <li>le <b>scritture</b> passano tutte dallo {@link ScrittoreDB}, unico thread con una
+ *     connessione in scrittura (SQLite ammette un solo writer alla volta).</li>
+ * </ul>
+ * All'avvio lo schema viene aggiornato con {@link MigrazioniSchema} sulla connessione dello scrittore.
+ * </p>
+ * <p>
+ * Ogni connessione viene aperta con il {@link ProfiloSQLite} scelto (WAL, synchronous, busy_timeout,
+ * cache, mmap, temp_store); un thread di manutenzione in background esegue periodicamente il checkpoint
+ * del WAL. Archiviazione dei colli consegnati ({@link ArchiviatoreColli#getDefault()}), potatura del registro
+ * della flotta ({@link ModificheFlotta}) e verifica del filtro dei codici ({@link FiltroCodici#getDefault()})
+ * si pianificano da sé.
+ * </p>
+ * <p>
+ * Parametri configurabili con proprietà di sistema (es. {@code -Dlogistica.db.pool.dimensione=8}):
+ * <ul>
+ *     <li>{@code logistica.db.pool.dimensione}: numero massimo di connessioni (default 4).</li>
+ *     <li>{@code logistica.db.pool.attesaMs}: attesa massima a pool esaurito (default 5000).</li>
+ *     <li>{@code logistica.db.pool.sogliaLeakMs}: durata di un prestito oltre cui si segnala un leak (default 30000).</li>
+ *     <li>{@code logistica.db.profilo}: profilo delle connessioni, SICURO o PRESTAZIONI (default SICURO).</li>
+ *     <li>{@code logistica.db.scrittore.raggruppa}: scritture massime per transazione dello scrittore (default 256).</li>
+ *     <li>{@code logistica.db.scrittore.attesaMs}: attesa massima dell'esito di una scrittura (default 300000).</li>
+ *     <li>{@code logistica.db.monitor.report}: stampa le statistiche delle query alla chiusura (default false).</li>
+ * </ul>
  * </p>
  */
 public class ConnessioneDB {
@@ -18,9 +52,18 @@ public class ConnessioneDB {
     // Stringa di connessione JDBC per SQLite
     private static final String URL = "jdbc:sqlite:logistica.db";
 
+    private final ProfiloSQLite profilo;
+    private final PoolConnessioni pool;
+    private final ScrittoreDB scrittore;
+    private final ScheduledExecutorService manutenzione;
+
+    // Azioni da eseguire prima della chiusura del pool (es. flush delle code di scrittura)
+    private final List<Runnable> azioniChiusura = new CopyOnWriteArrayList<>();
+
     /**
      * Costruttore PRIVATO (Singleton).
-     * Carica il driver JDBC. Se fallisce, blocca l'applicazione.
+     * Carica il driver JDBC, avvia lo scrittore e prepara il pool dei lettori.
+     * Se fallisce, blocca l'applicazione.
      */
     private ConnessioneDB() {
         try {
@@ -30,6 +73,64 @@ public class ConnessioneDB {
             // Lanciamo una RuntimeException per fermare l'avvio del programma.
             throw new RuntimeException("ERRORE: Driver JDBC SQLite non trovato!", e);
         }
+
+        this.profilo = ProfiloSQLite.daProprieta();
+        System.out.println("[ConnessioneDB] Profilo SQLite: " + profilo);
+
+        // Lo scrittore apre (e se serve crea) il file e attiva il WAL: va avviato prima dei lettori
+        try {
+            this.scrittore = new ScrittoreDB(URL, profilo.proprietaScrittura(),
+                    Integer.getInteger("logistica.db.scrittore.raggruppa", 256),
+                    Long.getLong("logistica.db.scrittore.attesaMs", 300000L));
+        } catch (SQLException e) {
+            throw new RuntimeException("ERRORE: Impossibile aprire il database in scrittura!", e);
+        }
+
+        // Porta lo schema all'ultima versione prima di servire qualsiasi query
+        try {
+            scrittore.eseguiInEsclusiva(new ScrittoreDB.Scrittura<Integer>() {
+                @Override
+                public Integer esegui(Connection conn) throws SQLException {
+                    try (Statement st = conn.createStatement()) {
+                        st.execute(profilo.pragmaCheckpointAutomatico());
+                    }
+                    return MigrazioniSchema.applica(conn);
+                }
+            });
+        } catch (SQLException e) {
+            scrittore.chiudi();
+            throw new RuntimeException("ERRORE: Migrazione dello schema fallita!", e);
+        }
+
+        this.pool = new PoolConnessioni(URL, profilo.proprietaLettura(),
+                Integer.getInteger("logistica.db.pool.dimensione", 4),
+                Long.getLong("logistica.db.pool.attesaMs", 5000L),
+                Long.getLong("logistica.db.pool.sogliaLeakMs", 30000L));
+
+        // Checkpoint periodico: il WAL non cresce anche quando i lettori bloccano quello automatico
+        this.manutenzione = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "manutenzione-db");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long periodo = profilo.getIntervalloCheckpointMs();
+        this.manutenzione.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                eseguiCheckpoint("PASSIVE");
+            }
+        }, periodo, periodo, TimeUnit.MILLISECONDS);
+
+        // Chiusura pulita delle connessioni all'uscita della JVM
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                chiudi();
+            }
+        }, "pool-db-shutdown"));
     }
 
     /**
@@ -40,12 +141,91 @@ public class ConnessioneDB {
     }
 
     /**
-     * Crea e restituisce una nuova connessione al DB.
+     * Preleva una connessione <b>in sola lettura</b> dal pool.
+     * <p>
+     * Va sempre usata in un try-with-resources: la {@code close()} la restituisce al pool.
+     * Per modificare il database usare {@link #getScrittore()}.
+     * </p>
      *
-     * @return Connection attiva.
-     * @throws SQLException Se il file db non si trova o è bloccato.
+     * @return Connection attiva (sola lettura).
+     * @throws SQLException Se il file db non si trova, è bloccato o il pool è esaurito.
      */
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL);
+        return pool.preleva();
+    }
+
+    /**
+     * Espone il pool per la lettura delle statistiche.
+     */
+    public PoolConnessioni getPool() {
+        return pool;
+    }
+
+    public ProfiloSQLite getProfilo() {
+        return profilo;
+    }
+
+    /**
+     * Esegue un checkpoint del WAL sulla connessione dello scrittore.
+     *
+     * @param modalita PASSIVE (non attende i lettori) oppure TRUNCATE (svuota il file WAL).
+     */
+    private void eseguiCheckpoint(final String modalita) {
+        try {
+            scrittore.eseguiInEsclusiva(new ScrittoreDB.Scrittura<Void>() {
+                @Override
+                public Void esegui(Connection conn) throws SQLException {
+                    try (Statement st = conn.createStatement();
+                         ResultSet rs = st.executeQuery("PRAGMA wal_checkpoint(" + modalita + ")")) {
+                        // Riga: busy, pagine nel WAL, pagine riportate nel DB
+                        if (rs.next() && rs.getInt(1) != 0) {
+                            System.err.println("[ConnessioneDB] Checkpoint " + modalita + " parziale: "
+                                    + rs.getInt(3) + "/" + rs.getInt(2) + " pagine.");
+                        }
+                    }
+                    return null;
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("[ConnessioneDB] Checkpoint " + modalita + " fallito: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restituisce l'unico scrittore del database, a cui vanno inviate tutte le modifiche.
+     */
+    public ScrittoreDB getScrittore() {
+        return scrittore;
+    }
+
+    /**
+     * Registra un'azione da eseguire alla chiusura, quando le connessioni sono ancora disponibili.
+     */
+    public void registraAllaChiusura(Runnable azione) {
+        azioniChiusura.add(azione);
+    }
+
+    /**
+     * Chiude scrittore e pool (chiamato anche dallo shutdown hook).
+     * Prima esegue, in ordine inverso di registrazione, le azioni di chiusura;
+     * poi lo scrittore completa le scritture già accodate.
+     */
+    public void chiudi() {
+        if (pool.isChiuso()) return;
+        for (int i = azioniChiusura.size() - 1; i >= 0; i--) {
+            try {
+                azioniChiusura.get(i).run();
+            } catch (RuntimeException e) {
+                System.err.println("[ConnessioneDB] Errore in un'azione di chiusura: " + e.getMessage());
+            }
+        }
+        manutenzione.shutdownNow();
+        pool.chiudi();
+        if (Boolean.getBoolean("logistica.db.monitor.report")) {
+            System.out.println("[ConnessioneDB] Statistiche query:\n" + StatisticheQuery.getInstance().getReport());
+        }
+        // Senza lettori attivi il WAL può essere riportato per intero nel DB e svuotato
+        eseguiCheckpoint("TRUNCATE");
+        scrittore.chiudi();
     }
-}
\ No newline at end of file
+}
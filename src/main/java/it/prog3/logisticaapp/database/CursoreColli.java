@@ -0,0 +1,23 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.ICollo;
+
+import java.util.Iterator;
+
+/**
+ * Cursore forward-only sui colli restituiti da una query.
+ * <p>
+ * Le righe vengono lette dal DB una alla volta (a blocchi di "fetch size"),
+ * quindi la memoria occupata non dipende dal numero di risultati.
+ * Tiene impegnata una connessione finché non viene chiuso: usarlo sempre
+ * in un try-with-resources.
+ * </p>
+ */
+public interface CursoreColli extends Iterator<ICollo>, AutoCloseable {
+
+    /**
+     * Rilascia ResultSet, statement e connessione.
+     */
+    @Override
+    void close();
+}
@@ -5,67 +5,89 @@ import java.sql.Statement;
 import java.sql.SQLException;
 
 /**
- * Classe di utilità per la creazione e il popolamento iniziale del Database.
+ * Classe di utilità per la creazione e l'aggiornamento del Database.
+ * <p>
+ * Lo schema viene portato all'ultima versione tramite {@link MigrazioniSchema},
+ * senza cancellare i dati esistenti. Il vecchio comportamento "drop &amp; recreate"
+ * resta disponibile tramite {@link #reset()} (o l'argomento {@code --reset}).
+ * </p>
  */
 public class DbSetup {
 
     public static void main(String[] args) {
-        System.out.println("=== SETUP DATABASE ===");
+        if (args != null && args.length > 0 && "--reset".equals(args[0])) {
+            reset();
+        } else {
+            aggiorna();
+        }
+    }
 
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             Statement stmt = conn.createStatement()) {
+    /**
+     * Applica le migrazioni mancanti (nessuna perdita di dati).
+     */
+    public static void aggiorna() {
+        System.out.println("=== SETUP DATABASE ===");
 
-            // ==========================================
-            // 1. PULIZIA (DROP TABLES)
-            // ==========================================
-            stmt.executeUpdate("DROP TABLE IF EXISTS storico_spostamenti");
-            stmt.executeUpdate("DROP TABLE IF EXISTS colli");
-            stmt.executeUpdate("DROP TABLE IF EXISTS veicoli");
-            System.out.println("-> Tabelle vecchie eliminate.");
+        try {
+            // Le migrazioni gestiscono da sé le transazioni: vanno eseguite da sole sullo scrittore
+            ConnessioneDB.getInstance().getScrittore().eseguiInEsclusiva(new ScrittoreDB.Scrittura<Void>() {
+                @Override
+                public Void esegui(Connection conn) throws SQLException {
+                    int versionePrima = MigrazioniSchema.getVersioneCorrente(conn);
+                    int applicate = MigrazioniSchema.applica(conn);
 
-            // ==========================================
-            // 2. CREAZIONE SCHEMA (DDL)
-            // ==========================================
+                    System.out.println("-> Schema v" + versionePrima + " -> v" + MigrazioniSchema.getVersioneCorrente(conn)
+                            + " (" + applicate + " migrazioni applicate).");
+                    return null;
+                }
+            });
+            System.out.println("=== SETUP COMPLETATO CON SUCCESSO ===");
 
-            // Tabella VEICOLI
-            String sqlVeicoli = "CREATE TABLE veicoli (" +
-                    "codice TEXT PRIMARY KEY, " +
-                    "tipo TEXT NOT NULL, " +
-                    "capienza INTEGER NOT NULL, " +
-                    "azienda TEXT NOT NULL" +
-                    ");";
-            stmt.executeUpdate(sqlVeicoli);
-            System.out.println("-> Tabella 'veicoli' creata.");
+        } catch (SQLException e) {
+            System.err.println("ERRORE DURANTE IL SETUP DEL DB:");
+            e.printStackTrace();
+        }
+    }
 
-            // Tabella COLLI
-            String sqlColli = "CREATE TABLE colli (" +
-                    "codice TEXT PRIMARY KEY, " +
-                    "peso REAL, " +
-                    "stato TEXT, " +
-                    "mittente TEXT, " +
-                    "destinatario TEXT," +
-                    "veicolo_codice TEXT" +
-                    ");";
-            stmt.executeUpdate(sqlColli);
-            System.out.println("-> Tabella 'colli' creata.");
+    /**
+     * Elimina tutte le tabelle e ricrea lo schema da zero (utile per i test).
+     */
+    public static void reset() {
+        System.out.println("=== RESET DATABASE ===");
 
-            // Tabella STORICO (Relazione 1-a-N)
-            // Usata per il tracciamento. Collegata ai colli tramite Foreign Key.
-            String sqlStorico = "CREATE TABLE storico_spostamenti (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                    "collo_codice TEXT, " +
-                    "descrizione TEXT, " +
-                    "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP, " +
-                    "FOREIGN KEY(collo_codice) REFERENCES colli(codice)" +
-                    ");";
-            stmt.executeUpdate(sqlStorico);
-            System.out.println("-> Tabella 'storico_spostamenti' creata.");
+        try {
+            ConnessioneDB.getInstance().getScrittore().esegui(new ScrittoreDB.Scrittura<Void>() {
+                @Override
+                public Void esegui(Connection conn) throws SQLException {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.executeUpdate("DROP TABLE IF EXISTS stato_tracking");
+                        stmt.executeUpdate("DROP TABLE IF EXISTS modifiche_flotta");
+                        stmt.executeUpdate("DROP TABLE IF EXISTS versione_dati");
+                        stmt.executeUpdate("DROP TABLE IF EXISTS storico_archivio");
+                        stmt.executeUpdate("DROP TABLE IF EXISTS colli_archivio");
+                        stmt.executeUpdate("DROP TABLE IF EXISTS storico_spostamenti");
+                        stmt.executeUpdate("DROP TABLE IF EXISTS colli");
+                        stmt.executeUpdate("DROP TABLE IF EXISTS veicoli");
+                        stmt.executeUpdate("PRAGMA user_version = 0");
+                    }
+                    return null;
+                }
+            });
+            System.out.println("-> Tabelle vecchie eliminate.");
 
-            System.out.println("=== SETUP COMPLETATO CON SUCCESSO ===");
+            SnapshotFlotta snapshot = SnapshotFlotta.getDefault();
+            if (snapshot != null) {
+                snapshot.invalida();
+            }
+            CacheColli.getInstance().svuota();
+            FiltroCodici.getDefault().invalida();
 
         } catch (SQLException e) {
-            System.err.println("ERRORE DURANTE IL SETUP DEL DB:");
+            System.err.println("ERRORE DURANTE IL RESET DEL DB:");
             e.printStackTrace();
+            return;
         }
+
+        aggiorna();
     }
-}
\ No newline at end of file
+}
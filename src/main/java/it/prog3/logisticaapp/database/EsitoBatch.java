@@ -0,0 +1,76 @@
+package it.prog3.logisticaapp.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Risultato di un'operazione di scrittura massiva.
+ * <p>
+ * Le righe rifiutate non interrompono il batch: vengono raccolte qui con il relativo motivo,
+ * così il chiamante può decidere se ritentarle o segnalarle.
+ * </p>
+ */
+public class EsitoBatch {
+
+    private int righeScritte;
+    private final List<Errore> errori = new ArrayList<>();
+    private long durataNanos;
+
+    void aggiungiScritte(int n) {
+        this.righeScritte += n;
+    }
+
+    void aggiungiErrore(String chiave, String messaggio) {
+        errori.add(new Errore(chiave, messaggio));
+    }
+
+    void setDurataNanos(long durataNanos) {
+        this.durataNanos = durataNanos;
+    }
+
+    /**
+     * Somma al risultato corrente quello di un altro batch.
+     */
+    public void unisci(EsitoBatch altro) {
+        this.righeScritte += altro.righeScritte;
+        this.errori.addAll(altro.errori);
+        this.durataNanos += altro.durataNanos;
+    }
+
+    public int getRigheScritte() { return righeScritte; }
+
+    public int getRigheRifiutate() { return errori.size(); }
+
+    public List<Errore> getErrori() { return Collections.unmodifiableList(errori); }
+
+    public boolean isCompleto() { return errori.isEmpty(); }
+
+    public double getDurataMs() { return durataNanos / 1_000_000.0; }
+
+    @Override
+    public String toString() {
+        return String.format("scritte=%d, rifiutate=%d, durata=%.1f ms", righeScritte, errori.size(), getDurataMs());
+    }
+
+    /**
+     * Singola riga rifiutata: chiave (es. codice del collo) e messaggio di errore.
+     */
+    public static class Errore {
+        private final String chiave;
+        private final String messaggio;
+
+        Errore(String chiave, String messaggio) {
+            this.chiave = chiave;
+            this.messaggio = messaggio;
+        }
+
+        public String getChiave() { return chiave; }
+        public String getMessaggio() { return messaggio; }
+
+        @Override
+        public String toString() {
+            return chiave + ": " + messaggio;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package it.prog3.logisticaapp.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Risultato (anche parziale) di un'importazione con {@link ImportatoreManifesto}.
+ * <p>
+ * L'offset confermato è la posizione in byte del file fino a cui tutte le righe sono state
+ * scritte o scartate in una transazione confermata: ripartendo da lì non si perde né si ripete nulla.
+ * Degli scarti viene conservato solo un campione ({@link #MASSIMO_SCARTI_CONSERVATI}),
+ * il conteggio invece è sempre completo.
+ * </p>
+ */
+public class EsitoImportazione {
+
+    public static final int MASSIMO_SCARTI_CONSERVATI = 1000;
+
+    private final long offsetIniziale;
+    private long offsetConfermato;
+    private long righeLette;
+    private long righeScritte;
+    private long righeRifiutate;
+    private long transazioni;
+    private long durataNanos;
+    private final List<Scarto> scarti = new ArrayList<>();
+
+    EsitoImportazione(long offsetIniziale) {
+        this.offsetIniziale = offsetIniziale;
+        this.offsetConfermato = offsetIniziale;
+    }
+
+    void contaLetta() {
+        righeLette++;
+    }
+
+    void aggiungiScarto(String riferimento, String motivo) {
+        righeRifiutate++;
+        if (scarti.size() < MASSIMO_SCARTI_CONSERVATI) {
+            scarti.add(new Scarto(riferimento, motivo));
+        }
+    }
+
+    /**
+     * Registra l'esito di una transazione confermata e sposta in avanti l'offset di ripresa.
+     */
+    void conferma(EsitoBatch esito, long offset) {
+        righeScritte += esito.getRigheScritte();
+        for (EsitoBatch.Errore errore : esito.getErrori()) {
+            aggiungiScarto("codice " + errore.getChiave(), errore.getMessaggio());
+        }
+        transazioni++;
+        offsetConfermato = offset;
+    }
+
+    void setDurataNanos(long durataNanos) {
+        this.durataNanos = durataNanos;
+    }
+
+    public long getOffsetIniziale() { return offsetIniziale; }
+    public long getOffsetConfermato() { return offsetConfermato; }
+    public long getRigheLette() { return righeLette; }
+    public long getRigheScritte() { return righeScritte; }
+    public long getRigheRifiutate() { return righeRifiutate; }
+    public long getTransazioni() { return transazioni; }
+    public List<Scarto> getScarti() { return Collections.unmodifiableList(scarti); }
+
+    public double getDurataMs() { return durataNanos / 1_000_000.0; }
+
+    /**
+     * @return Righe elaborate (scritte o scartate) al secondo.
+     */
+    public double getRighePerSecondo() {
+        return durataNanos == 0 ? 0.0 : righeLette * 1_000_000_000.0 / durataNanos;
+    }
+
+    /**
+     * @return MiB del file elaborati al secondo.
+     */
+    public double getMiBPerSecondo() {
+        return durataNanos == 0 ? 0.0
+                : (offsetConfermato - offsetIniziale) / (1024.0 * 1024.0) * 1_000_000_000.0 / durataNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lette=%d, scritte=%d, rifiutate=%d, transazioni=%d, durata=%.1f ms, %.0f righe/s, %.1f MiB/s, offset=%d",
+                righeLette, righeScritte, righeRifiutate, transazioni, getDurataMs(),
+                getRighePerSecondo(), getMiBPerSecondo(), offsetConfermato);
+    }
+
+    /**
+     * Riga scartata: riferimento (offset della riga nel file o codice) e motivo.
+     */
+    public static class Scarto {
+        private final String riferimento;
+        private final String motivo;
+
+        Scarto(String riferimento, String motivo) {
+            this.riferimento = riferimento;
+            this.motivo = motivo;
+        }
+
+        public String getRiferimento() { return riferimento; }
+        public String getMotivo() { return motivo; }
+
+        @Override
+        public String toString() {
+            return riferimento + ": " + motivo;
+        }
+    }
+}
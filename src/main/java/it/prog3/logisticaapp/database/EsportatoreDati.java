@@ -0,0 +1,477 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.EventoTracking;
+import it.prog3.logisticaapp.model.StatoCollo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Esportazione in streaming dello storico spostamenti e dei colli (dump giornalieri per fatturazione e analisi).
+ * <p>
+ * Le righe vengono lette con un cursore forward-only (una connessione in sola lettura del pool)
+ * e scritte subito in un {@link ByteBuffer} di grandi dimensioni, svuotato su un {@link FileChannel}:
+ * la memoria occupata non dipende dal numero di righe. Le tabelle di archivio vengono esportate
+ * dopo quelle attive, nella stessa transazione di lettura: il dump è un unico snapshot coerente
+ * e contiene anche i colli già archiviati.
+ * Il file viene scritto con un nome temporaneo e rinominato solo a esportazione completata.
+ * </p>
+ * <p>
+ * Formato {@link Formato#BINARIO} (compatto, interi in varint little-endian a 7 bit):
+ * <pre>
+ * intestazione: "LGEX" | versione (1 byte) | contenuto (1 = storico, 2 = colli)
+ * storico:      1 | id | delta timestamp (zigzag) | tipo (1 byte) | collo | luogo
+ * colli:        1 | codice | peso (double, 8 byte) | stato (1 byte) | mittente | destinatario | veicolo
+ * fine:         0 | numero di record
+ * stringa:      lunghezza UTF-8 + 1 (0 = null) | byte
+ * </pre>
+ * </p>
+ */
+public class EsportatoreDati {
+
+    private static final byte[] MAGIA = {'L', 'G', 'E', 'X'};
+    private static final int VERSIONE_BINARIO = 1;
+    private static final int CONTENUTO_STORICO = 1;
+    private static final int CONTENUTO_COLLI = 2;
+
+    // Filtro per azienda: il vettore è il luogo dell'evento SPEDITO (vale anche per i colli consegnati,
+    // che non sono più associati a un veicolo). L'evento si sposta in archivio insieme al collo.
+    private static final String SELECT_STORICO =
+            "SELECT s.id, s.collo_codice, s.timestamp, s.tipo, s.luogo FROM storico_spostamenti s " +
+            "WHERE s.timestamp >= ? AND s.timestamp < ?";
+    private static final String FILTRO_AZIENDA_STORICO =
+            " AND EXISTS (SELECT 1 FROM storico_spostamenti p WHERE p.collo_codice = s.collo_codice AND p.tipo = ? AND p.luogo = ?)";
+    // Indice su timestamp (migrazione v8): nessun ordinamento in memoria
+    private static final String ORDINE_STORICO = " ORDER BY s.timestamp, s.id";
+
+    private static final String SELECT_COLLI =
+            "SELECT c.codice, c.peso, c.stato, c.mittente, c.destinatario, c.veicolo_codice FROM colli c WHERE 1 = 1";
+    private static final String SELECT_COLLI_ARCHIVIO =
+            "SELECT c.codice, c.peso, c.stato, c.mittente, c.destinatario, NULL AS veicolo_codice FROM colli_archivio c WHERE 1 = 1";
+    // Colli con almeno un evento nel periodo (indice collo_codice, timestamp)
+    private static final String FILTRO_PERIODO_COLLI =
+            " AND EXISTS (SELECT 1 FROM storico_spostamenti s WHERE s.collo_codice = c.codice AND s.timestamp >= ? AND s.timestamp < ?)";
+    private static final String FILTRO_AZIENDA_COLLI =
+            " AND EXISTS (SELECT 1 FROM storico_spostamenti p WHERE p.collo_codice = c.codice AND p.tipo = ? AND p.luogo = ?)";
+
+    /**
+     * Formato del file prodotto.
+     */
+    public enum Formato { CSV, BINARIO }
+
+    /**
+     * Filtro dell'esportazione: intervallo [da, a) in millisecondi epoch e, facoltativamente, un'azienda.
+     */
+    public static class Filtro {
+        private final long daMs;
+        private final long aMs;
+        private final String azienda;
+
+        /**
+         * @param daMs    Inizio incluso (Long.MIN_VALUE per nessun limite).
+         * @param aMs     Fine esclusa (Long.MAX_VALUE per nessun limite).
+         * @param azienda Nome del vettore, oppure null per tutte le aziende.
+         */
+        public Filtro(long daMs, long aMs, String azienda) {
+            if (daMs > aMs) {
+                throw new IllegalArgumentException("Intervallo non valido: inizio dopo la fine.");
+            }
+            this.daMs = daMs;
+            this.aMs = aMs;
+            this.azienda = azienda;
+        }
+
+        public static Filtro tutto() {
+            return new Filtro(Long.MIN_VALUE, Long.MAX_VALUE, null);
+        }
+
+        /**
+         * Un giorno intero nel fuso orario di sistema.
+         */
+        public static Filtro giorno(LocalDate giorno, String azienda) {
+            ZoneId zona = ZoneId.systemDefault();
+            return new Filtro(giorno.atStartOfDay(zona).toInstant().toEpochMilli(),
+                    giorno.plusDays(1).atStartOfDay(zona).toInstant().toEpochMilli(), azienda);
+        }
+
+        boolean isPeriodoLimitato() {
+            return daMs != Long.MIN_VALUE || aMs != Long.MAX_VALUE;
+        }
+
+        public long getDaMs() { return daMs; }
+        public long getAMs() { return aMs; }
+        public String getAzienda() { return azienda; }
+    }
+
+    /**
+     * Righe e byte (dimensione del file, compresso se richiesto) prodotti da un'esportazione.
+     */
+    public static class Esito {
+        private long righe;
+        private long byteScritti;
+        private long durataNanos;
+
+        public long getRighe() { return righe; }
+        public long getByteScritti() { return byteScritti; }
+        public double getDurataMs() { return durataNanos / 1_000_000.0; }
+
+        public double getRighePerSecondo() {
+            return durataNanos == 0 ? 0.0 : righe * 1_000_000_000.0 / durataNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("righe=%d, byte=%d, durata=%.1f ms, %.0f righe/s",
+                    righe, byteScritti, getDurataMs(), getRighePerSecondo());
+        }
+    }
+
+    private final int fetchSize;
+    private final int dimensioneBuffer;
+
+    /**
+     * @param fetchSize        Righe richieste al driver per volta.
+     * @param dimensioneBuffer Byte accumulati prima di ogni scrittura sul file.
+     */
+    public EsportatoreDati(int fetchSize, int dimensioneBuffer) {
+        if (fetchSize <= 0 || dimensioneBuffer < 4096) {
+            throw new IllegalArgumentException("Fetch size positivo e buffer di almeno 4096 byte richiesti.");
+        }
+        this.fetchSize = fetchSize;
+        this.dimensioneBuffer = dimensioneBuffer;
+    }
+
+    public EsportatoreDati() {
+        this(1000, 1024 * 1024);
+    }
+
+    // =========================================================================
+    // API
+    // =========================================================================
+
+    /**
+     * Esporta gli eventi di storico del periodo (ordinati per timestamp), prima attivi poi archiviati.
+     */
+    public Esito esportaStorico(Path destinazione, Filtro filtro, Formato formato, boolean gzip) throws IOException {
+        List<Object> parametri = new ArrayList<>();
+        parametri.add(filtro.daMs);
+        parametri.add(filtro.aMs);
+        String sql = SELECT_STORICO;
+        if (filtro.azienda != null) {
+            sql += FILTRO_AZIENDA_STORICO;
+            parametri.add(EventoTracking.Tipo.SPEDITO.getCodice());
+            parametri.add(filtro.azienda);
+        }
+        sql += ORDINE_STORICO;
+
+        String[] query = {sql, sql.replace("storico_spostamenti", "storico_archivio")};
+        return esporta(destinazione, formato, gzip, CONTENUTO_STORICO,
+                "id,collo,timestamp_ms,istante_utc,tipo,luogo", query, parametri, new ScrittoreStorico());
+    }
+
+    /**
+     * Esporta i colli (attivi e archiviati) con almeno un evento nel periodo, se il periodo è limitato.
+     */
+    public Esito esportaColli(Path destinazione, Filtro filtro, Formato formato, boolean gzip) throws IOException {
+        List<Object> parametri = new ArrayList<>();
+        String filtri = "";
+        if (filtro.isPeriodoLimitato()) {
+            filtri += FILTRO_PERIODO_COLLI;
+            parametri.add(filtro.daMs);
+            parametri.add(filtro.aMs);
+        }
+        if (filtro.azienda != null) {
+            filtri += FILTRO_AZIENDA_COLLI;
+            parametri.add(EventoTracking.Tipo.SPEDITO.getCodice());
+            parametri.add(filtro.azienda);
+        }
+
+        String[] query = {SELECT_COLLI + filtri,
+                SELECT_COLLI_ARCHIVIO + filtri.replace("storico_spostamenti", "storico_archivio")};
+        return esporta(destinazione, formato, gzip, CONTENUTO_COLLI,
+                "codice,peso,stato,mittente,destinatario,veicolo", query, parametri, new ScrittoreColli());
+    }
+
+    // =========================================================================
+    // MOTORE COMUNE
+    // =========================================================================
+
+    private Esito esporta(Path destinazione, Formato formato, boolean gzip, int contenuto, String intestazioneCsv,
+                          String[] query, List<Object> parametri, ScrittoreRiga scrittoreRiga) throws IOException {
+        Esito esito = new Esito();
+        long inizio = System.nanoTime();
+        Path parziale = Paths.get(destinazione + ".parziale");
+        boolean binario = formato == Formato.BINARIO;
+
+        try {
+            try (Uscita uscita = new Uscita(parziale, dimensioneBuffer, gzip);
+                 Connection conn = ConnessioneDB.getInstance().getConnection()) {
+
+                // Una sola transazione di lettura per tutte le query: tabelle attive e archivio vengono lette
+                // dallo stesso snapshot, un lotto archiviato nel frattempo non compare né due volte né mai
+                // (in caso di errore la transazione viene annullata dal pool alla restituzione)
+                conn.setAutoCommit(false);
+
+                if (binario) {
+                    uscita.scrivi(MAGIA);
+                    uscita.scriviByte(VERSIONE_BINARIO);
+                    uscita.scriviByte(contenuto);
+                } else {
+                    uscita.scrivi((intestazioneCsv + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+
+                for (String sql : query) {
+                    try (PreparedStatement st = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                        st.setFetchSize(fetchSize);
+                        for (int i = 0; i < parametri.size(); i++) {
+                            st.setObject(i + 1, parametri.get(i));
+                        }
+                        try (ResultSet rs = st.executeQuery()) {
+                            while (rs.next()) {
+                                if (binario) {
+                                    uscita.scriviByte(1);
+                                    scrittoreRiga.binario(rs, uscita);
+                                } else {
+                                    uscita.scrivi(scrittoreRiga.csv(rs).getBytes(StandardCharsets.UTF_8));
+                                }
+                                esito.righe++;
+                            }
+                        }
+                    }
+                }
+                conn.commit();
+
+                if (binario) {
+                    uscita.scriviByte(0);
+                    uscita.scriviVarint(esito.righe);
+                }
+                uscita.svuota();
+            }
+            esito.byteScritti = Files.size(parziale);
+            Files.move(parziale, destinazione, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (SQLException e) {
+            Files.deleteIfExists(parziale);
+            throw new RuntimeException("Errore DB durante l'esportazione: " + e.getMessage(), e);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(parziale);
+            throw e;
+        }
+
+        esito.durataNanos = System.nanoTime() - inizio;
+        System.out.println("[Esportazione] " + destinazione.getFileName() + ": " + esito);
+        return esito;
+    }
+
+    /**
+     * Conversione di una riga del ResultSet nei due formati.
+     */
+    private interface ScrittoreRiga {
+        String csv(ResultSet rs) throws SQLException;
+        void binario(ResultSet rs, Uscita uscita) throws SQLException, IOException;
+    }
+
+    private static class ScrittoreStorico implements ScrittoreRiga {
+        // Il binario salva la differenza dal timestamp precedente: righe ordinate -> delta piccoli
+        private long ultimoTimestamp = 0;
+
+        @Override
+        public String csv(ResultSet rs) throws SQLException {
+            long timestamp = rs.getLong(3);
+            return rs.getLong(1) + "," + campoCsv(rs.getString(2)) + "," + timestamp + "," + Instant.ofEpochMilli(timestamp)
+                    + "," + EventoTracking.Tipo.daCodice(rs.getInt(4)) + "," + campoCsv(rs.getString(5)) + "\n";
+        }
+
+        @Override
+        public void binario(ResultSet rs, Uscita uscita) throws SQLException, IOException {
+            long timestamp = rs.getLong(3);
+            long delta = timestamp - ultimoTimestamp;
+            ultimoTimestamp = timestamp;
+
+            uscita.scriviVarint(rs.getLong(1));
+            uscita.scriviVarint((delta << 1) ^ (delta >> 63)); // zigzag: il delta torna negativo tra attivo e archivio
+            uscita.scriviByte(rs.getInt(4));
+            uscita.scriviStringa(rs.getString(2));
+            uscita.scriviStringa(rs.getString(5));
+        }
+    }
+
+    private static class ScrittoreColli implements ScrittoreRiga {
+        @Override
+        public String csv(ResultSet rs) throws SQLException {
+            return campoCsv(rs.getString(1)) + "," + rs.getDouble(2) + "," + StatoCollo.daCodice(rs.getInt(3)) + ","
+                    + campoCsv(rs.getString(4)) + "," + campoCsv(rs.getString(5)) + "," + campoCsv(rs.getString(6)) + "\n";
+        }
+
+        @Override
+        public void binario(ResultSet rs, Uscita uscita) throws SQLException, IOException {
+            uscita.scriviStringa(rs.getString(1));
+            uscita.scriviDouble(rs.getDouble(2));
+            uscita.scriviByte(rs.getInt(3));
+            uscita.scriviStringa(rs.getString(4));
+            uscita.scriviStringa(rs.getString(5));
+            uscita.scriviStringa(rs.getString(6));
+        }
+    }
+
+    /**
+     * Campo CSV: tra doppi apici solo se contiene separatori, apici o a capo.
+     */
+    static String campoCsv(String valore) {
+        if (valore == null) return "";
+        if (valore.indexOf(',') < 0 && valore.indexOf('"') < 0 && valore.indexOf('\n') < 0 && valore.indexOf('\r') < 0) {
+            return valore;
+        }
+        return "\"" + valore.replace("\"", "\"\"") + "\"";
+    }
+
+    // =========================================================================
+    // SCRITTURA BUFFERIZZATA
+    // =========================================================================
+
+    /**
+     * Buffer di uscita svuotato sul FileChannel (direttamente, o attraverso GZIP).
+     */
+    private static final class Uscita implements AutoCloseable {
+        private final FileChannel canale;
+        private final ByteBuffer buffer;
+        private final GZIPOutputStream gzip;
+
+        Uscita(Path file, int dimensione, boolean compresso) throws IOException {
+            this.canale = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            if (compresso) {
+                // GZIP lavora su array: buffer su heap, stream del canale con lo stesso blocco
+                this.buffer = ByteBuffer.allocate(dimensione);
+                OutputStream stream = Channels.newOutputStream(canale);
+                this.gzip = new GZIPOutputStream(stream, dimensione);
+            } else {
+                // Senza compressione il canale scrive direttamente dalla memoria nativa
+                this.buffer = ByteBuffer.allocateDirect(dimensione);
+                this.gzip = null;
+            }
+        }
+
+        void scrivi(byte[] dati) throws IOException {
+            if (dati.length > buffer.remaining()) {
+                svuota();
+                if (dati.length > buffer.capacity()) {
+                    scriviBlocco(ByteBuffer.wrap(dati));
+                    return;
+                }
+            }
+            buffer.put(dati);
+        }
+
+        void scriviByte(int valore) throws IOException {
+            if (!buffer.hasRemaining()) svuota();
+            buffer.put((byte) valore);
+        }
+
+        void scriviVarint(long valore) throws IOException {
+            if (buffer.remaining() < 10) svuota();
+            while ((valore & ~0x7FL) != 0) {
+                buffer.put((byte) ((valore & 0x7F) | 0x80));
+                valore >>>= 7;
+            }
+            buffer.put((byte) valore);
+        }
+
+        void scriviDouble(double valore) throws IOException {
+            if (buffer.remaining() < 8) svuota();
+            buffer.putDouble(valore);
+        }
+
+        void scriviStringa(String valore) throws IOException {
+            if (valore == null) {
+                scriviVarint(0);
+                return;
+            }
+            byte[] utf8 = valore.getBytes(StandardCharsets.UTF_8);
+            scriviVarint(utf8.length + 1L);
+            scrivi(utf8);
+        }
+
+        void svuota() throws IOException {
+            buffer.flip();
+            scriviBlocco(buffer);
+            buffer.clear();
+        }
+
+        private void scriviBlocco(ByteBuffer blocco) throws IOException {
+            if (gzip != null) {
+                gzip.write(blocco.array(), blocco.arrayOffset() + blocco.position(), blocco.remaining());
+                blocco.position(blocco.limit());
+            } else {
+                while (blocco.hasRemaining()) {
+                    canale.write(blocco);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (gzip != null) {
+                    gzip.close(); // chiude anche il canale
+                }
+            } finally {
+                canale.close();
+            }
+        }
+    }
+
+    // =========================================================================
+    // AVVIO DA RIGA DI COMANDO
+    // =========================================================================
+
+    /**
+     * Uso: {@code EsportatoreDati storico|colli <file> [--binario] [--gzip] [--giorno=AAAA-MM-GG] [--azienda=NOME]}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !("storico".equals(args[0]) || "colli".equals(args[0]))) {
+            System.err.println("Uso: EsportatoreDati storico|colli <file> [--binario] [--gzip] [--giorno=AAAA-MM-GG] [--azienda=NOME]");
+            return;
+        }
+        Formato formato = Formato.CSV;
+        boolean gzip = false;
+        LocalDate giorno = null;
+        String azienda = null;
+        for (int i = 2; i < args.length; i++) {
+            if ("--binario".equals(args[i])) formato = Formato.BINARIO;
+            else if ("--gzip".equals(args[i])) gzip = true;
+            else if (args[i].startsWith("--giorno=")) giorno = LocalDate.parse(args[i].substring(9));
+            else if (args[i].startsWith("--azienda=")) azienda = args[i].substring(10);
+            else throw new IllegalArgumentException("Opzione sconosciuta: " + args[i]);
+        }
+
+        Filtro filtro = giorno != null ? Filtro.giorno(giorno, azienda)
+                : new Filtro(Long.MIN_VALUE, Long.MAX_VALUE, azienda);
+        EsportatoreDati esportatore = new EsportatoreDati();
+        Path destinazione = Paths.get(args[1]);
+        if ("storico".equals(args[0])) {
+            esportatore.esportaStorico(destinazione, filtro, formato, gzip);
+        } else {
+            esportatore.esportaColli(destinazione, filtro, formato, gzip);
+        }
+        ConnessioneDB.getInstance().chiudi();
+    }
+}
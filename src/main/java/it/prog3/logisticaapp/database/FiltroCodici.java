@@ -0,0 +1,454 @@
+package it.prog3.logisticaapp.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtro di Bloom sui codici dei colli esistenti (attivi e archiviati).
+ * <p>
+ * Serve a respingere in memoria le ricerche di codici inesistenti (errori di battitura, tentativi
+ * a caso) senza prendere una connessione né interrogare l'indice. Un Bloom filter non ha falsi
+ * negativi: se risponde "assente" il codice non esiste; se risponde "forse" si interroga il DB,
+ * e quando il DB non lo trova si conta un falso positivo.
+ * </p>
+ * <p>
+ * Ciclo di vita:
+ * <ul>
+ *     <li>viene costruito in background all'avvio leggendo tutti i codici; finché non è pronto
+ *     risponde sempre "forse";</li>
+ *     <li>gli inserimenti di questo processo vi aggiungono i codici dentro la transazione dello
+ *     scrittore, prima del COMMIT (un inserimento annullato lascia al più un falso positivo);</li>
+ *     <li>il contatore atteso avanza solo <b>dopo</b> il COMMIT confermato; se il COMMIT fallisce
+ *     o il suo esito è ignoto il filtro viene sospeso fino alla ricostruzione;</li>
+ *     <li>il contatore {@code versione_dati.colli} (migrazione v11) rivela gli inserimenti fatti
+ *     da altri processi: alla verifica periodica, se non coincide con quello atteso, il filtro
+ *     viene sospeso e ricostruito.</li>
+ * </ul>
+ * Tra un inserimento esterno e la verifica successiva ({@code logistica.filtro.verificaSec})
+ * un codice appena importato da un altro processo può risultare assente.
+ * Costruzione e verifiche del filtro dell'applicazione ({@link #getDefault()}) girano su un suo thread.
+ * </p>
+ */
+public class FiltroCodici {
+
+    private static FiltroCodici istanzaDefault;
+
+    private static final String SELECT_VERSIONE_COLLI = "SELECT versione FROM versione_dati WHERE chiave = 'colli'";
+    private static final String COUNT_CODICI =
+            "SELECT (SELECT COUNT(*) FROM colli) + (SELECT COUNT(*) FROM colli_archivio)";
+    private static final String SELECT_CODICI =
+            "SELECT codice FROM colli UNION ALL SELECT codice FROM colli_archivio";
+
+    private static final int CAPACITA_MINIMA = 1024;
+
+    private final ScrittoreDB scrittore;
+    private final double probabilitaFalsiPositivi;
+    private ScheduledExecutorService pianificatore;
+
+    // Stato protetto da "this"; il filtro corrente è volatile per le letture senza lock
+    private volatile Bloom corrente;
+    private volatile boolean affidabile = false;
+    private Bloom inCostruzione;
+    private long versioneNota = -1;
+    private List<long[]> registrazioniInCostruzione;
+
+    // Statistiche
+    private final AtomicLong controlli = new AtomicLong();
+    private final AtomicLong respinti = new AtomicLong();
+    private final AtomicLong falsiPositivi = new AtomicLong();
+    private final AtomicLong ricostruzioni = new AtomicLong();
+    private volatile long nanosUltimaCostruzione;
+
+    /**
+     * @param scrittore                Scrittore del DB (usato per sincronizzare l'inizio delle ricostruzioni).
+     * @param probabilitaFalsiPositivi Tasso di falsi positivi atteso a capacità piena (es. 0.01).
+     */
+    public FiltroCodici(ScrittoreDB scrittore, double probabilitaFalsiPositivi) {
+        if (!(probabilitaFalsiPositivi > 0 && probabilitaFalsiPositivi < 1)) {
+            throw new IllegalArgumentException("La probabilità di falsi positivi deve essere tra 0 e 1.");
+        }
+        this.scrittore = scrittore;
+        this.probabilitaFalsiPositivi = probabilitaFalsiPositivi;
+    }
+
+    /**
+     * Filtro dell'applicazione (su SQLite), configurabile con proprietà di sistema:
+     * <ul>
+     *     <li>{@code logistica.filtro.fpp}: tasso di falsi positivi (default 0.01);</li>
+     *     <li>{@code logistica.filtro.verificaSec}: secondi tra due verifiche, 0 per disattivarlo (default 5).</li>
+     * </ul>
+     * Alla prima chiamata avvia la costruzione e le verifiche periodiche; finché non è pronto risponde "forse".
+     */
+    public static synchronized FiltroCodici getDefault() {
+        if (istanzaDefault == null) {
+            final FiltroCodici filtro = new FiltroCodici(ConnessioneDB.getInstance().getScrittore(),
+                    Double.parseDouble(System.getProperty("logistica.filtro.fpp", "0.01")));
+
+            long verificaSec = Long.getLong("logistica.filtro.verificaSec", 5L);
+            if (verificaSec > 0) {
+                filtro.pianificaVerifica(verificaSec, TimeUnit.SECONDS);
+                ConnessioneDB.getInstance().registraAllaChiusura(new Runnable() {
+                    @Override
+                    public void run() {
+                        filtro.ferma();
+                    }
+                });
+            }
+            istanzaDefault = filtro;
+        }
+        return istanzaDefault;
+    }
+
+    /**
+     * Costruisce subito il filtro e poi lo verifica periodicamente (una connessione in lettura del pool
+     * per ogni verifica), su un thread in background dedicato.
+     */
+    public synchronized void pianificaVerifica(long intervallo, TimeUnit unita) {
+        if (pianificatore != null) return;
+        pianificatore = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "filtro-codici");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pianificatore.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try (Connection conn = ConnessioneDB.getInstance().getConnection()) {
+                    verifica(conn);
+                } catch (SQLException | RuntimeException e) {
+                    System.err.println("[FiltroCodici] Verifica del filtro dei codici fallita: " + e.getMessage());
+                }
+            }
+        }, 0, intervallo, unita);
+    }
+
+    /**
+     * Ferma le verifiche periodiche.
+     */
+    public synchronized void ferma() {
+        if (pianificatore != null) {
+            pianificatore.shutdownNow();
+            pianificatore = null;
+        }
+    }
+
+    // =========================================================================
+    // INTERROGAZIONE
+    // =========================================================================
+
+    /**
+     * @return false solo se il codice sicuramente non esiste; true se va cercato nel DB.
+     */
+    public boolean puoEsistere(String codice) {
+        Bloom filtro = corrente;
+        if (filtro == null || !affidabile) return true;
+
+        controlli.incrementAndGet();
+        if (filtro.contiene(codice)) return true;
+        respinti.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Il DB non ha trovato un codice che il filtro dava come possibile.
+     */
+    public void segnalaAssente(String codice) {
+        if (corrente != null && affidabile) {
+            falsiPositivi.incrementAndGet();
+        }
+    }
+
+    // =========================================================================
+    // AGGIORNAMENTO
+    // =========================================================================
+
+    /**
+     * Aggiunge i codici che questo processo sta inserendo. Va chiamato dallo scrittore, dentro
+     * la transazione e prima del COMMIT: nessun lettore può vedere il collo prima del filtro.
+     */
+    public synchronized void aggiungi(Collection<String> codici) {
+        for (String codice : codici) {
+            if (codice == null) continue;
+            if (corrente != null) corrente.aggiungi(codice);
+            if (inCostruzione != null) inCostruzione.aggiungi(codice);
+        }
+    }
+
+    /**
+     * Fa avanzare il contatore atteso dopo il COMMIT confermato di un inserimento,
+     * con i valori del contatore letti nella transazione prima e dopo l'inserimento.
+     */
+    public synchronized void confermaInserimento(long versionePrima, long versioneDopo) {
+        if (registrazioniInCostruzione != null) {
+            registrazioniInCostruzione.add(new long[]{versionePrima, versioneDopo});
+        }
+        avanza(versionePrima, versioneDopo);
+    }
+
+    /**
+     * Un inserimento è fallito dopo aver toccato il contatore, o il suo esito è ignoto:
+     * il contatore atteso non è più affidabile, il filtro risponde "forse" fino alla ricostruzione.
+     */
+    public synchronized void segnalaDisallineamento() {
+        affidabile = false;
+        if (registrazioniInCostruzione != null) {
+            // La ricostruzione in corso potrebbe aver letto il DB prima o dopo: va ripetuta
+            registrazioniInCostruzione.add(new long[]{-1, Long.MAX_VALUE});
+        }
+    }
+
+    private void avanza(long versionePrima, long versioneDopo) {
+        if (versioneDopo <= versioneNota) return;
+        if (versionePrima == versioneNota) {
+            versioneNota = versioneDopo;
+        } else {
+            // Qualcun altro ha inserito colli nel frattempo: il filtro non è più completo
+            affidabile = false;
+        }
+    }
+
+    /**
+     * Verifica periodica: se il contatore del DB non coincide con quello atteso (inserimenti esterni,
+     * COMMIT falliti) o il filtro ha superato la capienza prevista, lo ricostruisce.
+     *
+     * @param conn Connessione in lettura.
+     */
+    public void verifica(Connection conn) throws SQLException {
+        long versione = leggiVersione(conn);
+        boolean daRicostruire;
+        synchronized (this) {
+            // Qualsiasi differenza, in più o in meno, rende il filtro inaffidabile: meglio una ricostruzione
+            // superflua (es. COMMIT appena confermato ma non ancora registrato) che un falso negativo
+            daRicostruire = corrente == null || !affidabile || versione != versioneNota || corrente.isSaturo();
+            if (versione != versioneNota) affidabile = false;
+        }
+        if (daRicostruire) {
+            ricostruisci(conn);
+        }
+    }
+
+    /**
+     * Scarta il filtro (es. dopo un reset del DB): fino alla prossima ricostruzione risponde sempre "forse".
+     */
+    public synchronized void invalida() {
+        affidabile = false;
+        corrente = null;
+        versioneNota = -1;
+    }
+
+    /**
+     * Ricostruisce il filtro leggendo tutti i codici in un'unica transazione di lettura.
+     * <p>
+     * Il nuovo filtro viene agganciato da una scrittura in esclusiva: tutte le transazioni registrate
+     * prima sono già confermate (e quindi visibili alla lettura che segue), quelle successive
+     * aggiungono i codici anche al nuovo filtro. Nessun inserimento può cadere nel mezzo.
+     * </p>
+     */
+    public void ricostruisci(Connection conn) throws SQLException {
+        long inizio = System.nanoTime();
+        long numero;
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(COUNT_CODICI)) {
+            numero = rs.next() ? rs.getLong(1) : 0;
+        }
+
+        final Bloom nuovo = new Bloom(Math.max(CAPACITA_MINIMA, 2 * numero), probabilitaFalsiPositivi);
+        scrittore.eseguiInEsclusiva(new ScrittoreDB.Scrittura<Void>() {
+            @Override
+            public Void esegui(Connection c) {
+                synchronized (FiltroCodici.this) {
+                    inCostruzione = nuovo;
+                    registrazioniInCostruzione = new ArrayList<>();
+                }
+                return null;
+            }
+        });
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            long versione;
+            try {
+                versione = leggiVersione(conn);
+                try (Statement st = conn.createStatement();
+                     ResultSet rs = st.executeQuery(SELECT_CODICI)) {
+                    while (rs.next()) {
+                        nuovo.aggiungi(rs.getString(1));
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                synchronized (this) {
+                    inCostruzione = null;
+                    registrazioniInCostruzione = null;
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                // Riallinea la versione con gli inserimenti registrati durante la lettura
+                List<long[]> registrazioni = registrazioniInCostruzione;
+                corrente = nuovo;
+                inCostruzione = null;
+                registrazioniInCostruzione = null;
+                versioneNota = versione;
+                affidabile = true;
+                for (long[] r : registrazioni) {
+                    avanza(r[0], r[1]);
+                }
+            }
+        } finally {
+            conn.commit();
+            conn.setAutoCommit(autoCommit);
+        }
+        ricostruzioni.incrementAndGet();
+        nanosUltimaCostruzione = System.nanoTime() - inizio;
+    }
+
+    private static long leggiVersione(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(SELECT_VERSIONE_COLLI)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // =========================================================================
+    // STATISTICHE
+    // =========================================================================
+
+    public boolean isPronto() { return corrente != null && affidabile; }
+    public long getControlli() { return controlli.get(); }
+    public long getRespinti() { return respinti.get(); }
+    public long getFalsiPositivi() { return falsiPositivi.get(); }
+    public long getRicostruzioni() { return ricostruzioni.get(); }
+
+    /**
+     * Tasso di falsi positivi osservato: tra le ricerche di codici inesistenti, quante sono arrivate al DB.
+     */
+    public double getTassoFalsiPositivi() {
+        long fp = falsiPositivi.get();
+        long totale = fp + respinti.get();
+        return totale == 0 ? 0.0 : (double) fp / totale;
+    }
+
+    /**
+     * Tasso di falsi positivi teorico con il riempimento attuale: (bit a 1 / bit totali) ^ k.
+     */
+    public double getTassoFalsiPositiviStimato() {
+        Bloom filtro = corrente;
+        return filtro == null ? 1.0 : filtro.stimaFalsiPositivi();
+    }
+
+    public String getStatistiche() {
+        Bloom filtro = corrente;
+        return String.format("pronto=%s, elementi=%d, bit=%d, hash=%d, controlli=%d, respinti=%d, falsi positivi=%d, " +
+                        "tasso osservato=%.3f%%, tasso stimato=%.3f%%, ricostruzioni=%d (ultima %.1f ms)",
+                isPronto(), filtro == null ? 0 : filtro.getElementi(), filtro == null ? 0 : filtro.getBit(),
+                filtro == null ? 0 : filtro.getHash(), controlli.get(), respinti.get(), falsiPositivi.get(),
+                getTassoFalsiPositivi() * 100, getTassoFalsiPositiviStimato() * 100,
+                ricostruzioni.get(), nanosUltimaCostruzione / 1_000_000.0);
+    }
+
+    // =========================================================================
+    // FILTRO DI BLOOM
+    // =========================================================================
+
+    /**
+     * Bit array di dimensione fissa con k funzioni hash ottenute da un unico hash a 64 bit
+     * (doppio hashing: h1 + i * h2). Lettura e scrittura senza lock tramite {@link AtomicLongArray}.
+     */
+    static final class Bloom {
+        private final AtomicLongArray parole;
+        private final long bit;
+        private final int hash;
+        private final long capacita;
+        private final AtomicLong elementi = new AtomicLong();
+
+        Bloom(long capacita, double probabilita) {
+            // Dimensionamento ottimo: m = -n ln p / (ln 2)^2, k = m/n ln 2
+            long m = (long) Math.ceil(-capacita * Math.log(probabilita) / (Math.log(2) * Math.log(2)));
+            m = Math.max(64, (m + 63) / 64 * 64);
+            if (m / 64 > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Filtro troppo grande per " + capacita + " elementi.");
+            }
+            this.parole = new AtomicLongArray((int) (m / 64));
+            this.bit = m;
+            this.hash = Math.max(1, (int) Math.round((double) m / capacita * Math.log(2)));
+            this.capacita = capacita;
+        }
+
+        void aggiungi(String codice) {
+            long h = hash64(codice);
+            long h1 = h;
+            long h2 = (h >>> 32) | 1L;
+            for (int i = 0; i < hash; i++) {
+                long posizione = Math.floorMod(h1 + i * h2, bit);
+                int indice = (int) (posizione >>> 6);
+                long maschera = 1L << posizione;
+                long parola;
+                do {
+                    parola = parole.get(indice);
+                    if ((parola & maschera) != 0) break;
+                } while (!parole.compareAndSet(indice, parola, parola | maschera));
+            }
+            elementi.incrementAndGet();
+        }
+
+        boolean contiene(String codice) {
+            long h = hash64(codice);
+            long h1 = h;
+            long h2 = (h >>> 32) | 1L;
+            for (int i = 0; i < hash; i++) {
+                long posizione = Math.floorMod(h1 + i * h2, bit);
+                if ((parole.get((int) (posizione >>> 6)) & (1L << posizione)) == 0) return false;
+            }
+            return true;
+        }
+
+        boolean isSaturo() {
+            return elementi.get() > capacita;
+        }
+
+        double stimaFalsiPositivi() {
+            long accesi = 0;
+            for (int i = 0; i < parole.length(); i++) {
+                accesi += Long.bitCount(parole.get(i));
+            }
+            return Math.pow((double) accesi / bit, hash);
+        }
+
+        long getElementi() { return elementi.get(); }
+        long getBit() { return bit; }
+        int getHash() { return hash; }
+
+        /**
+         * FNV-1a a 64 bit sui caratteri, seguito dal rimescolamento finale di MurmurHash3.
+         */
+        private static long hash64(String s) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
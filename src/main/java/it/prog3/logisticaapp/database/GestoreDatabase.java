@@ -3,33 +3,114 @@ package it.prog3.logisticaapp.database;
 import it.prog3.logisticaapp.model.*;
 
 import java.sql.*;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Data Access Object (DAO) che implementa le operazioni CRUD.
- * Gestisce la persistenza di Veicoli, Colli e Storico.
+ * Gestisce la persistenza di Veicoli, Colli e Storico su SQLite.
+ * <p>
+ * Le letture usano le connessioni in sola lettura del pool; tutte le modifiche vengono
+ * inviate allo {@link ScrittoreDB}, che le esegue su un unico thread raggruppandole in transazioni.
+ * </p>
  */
-public class GestoreDatabase {
+public class GestoreDatabase implements IPersistenza {
 
     // Query SQL
-    private static final String SELECT_COLLI_PREPARAZIONE = "SELECT codice, stato FROM colli WHERE stato = 'IN_PREPARAZIONE'";
+    // Lo stato è salvato come codice intero (StatoCollo.getCodice())
+    private static final int IN_PREPARAZIONE = StatoCollo.IN_PREPARAZIONE.getCodice();
+    private static final String SELECT_COLLI_PREPARAZIONE = "SELECT codice, stato FROM colli WHERE stato = " + IN_PREPARAZIONE + " ORDER BY codice";
+    private static final String SELECT_COLLI_PREPARAZIONE_PAGINA = "SELECT codice, stato FROM colli WHERE stato = " + IN_PREPARAZIONE + " AND codice > ? ORDER BY codice LIMIT ?";
+    private static final String COUNT_COLLI_PREPARAZIONE = "SELECT COUNT(*) FROM colli WHERE stato = " + IN_PREPARAZIONE;
     private static final String SELECT_COLLO_BASE = "SELECT codice, stato FROM colli WHERE codice = ?";
     private static final String SELECT_COLLO_FULL = "SELECT * FROM colli WHERE codice = ?";
-    private static final String SELECT_STORICO = "SELECT descrizione, timestamp FROM storico_spostamenti WHERE collo_codice = ? ORDER BY timestamp DESC";
+    // timestamp = millisecondi epoch (INTEGER), tipo = EventoTracking.Tipo.getCodice()
+    private static final String SELECT_STORICO = "SELECT timestamp, tipo, luogo FROM storico_spostamenti WHERE collo_codice = ? ORDER BY timestamp DESC, id DESC";
+    private static final String SELECT_STORICO_PRIMA_PAGINA =
+            "SELECT id, timestamp, tipo, luogo FROM storico_spostamenti WHERE collo_codice = ? " +
+            "ORDER BY timestamp DESC, id DESC LIMIT ?";
+    private static final String SELECT_STORICO_PAGINA =
+            "SELECT id, timestamp, tipo, luogo FROM storico_spostamenti WHERE collo_codice = ? " +
+            "AND (timestamp, id) < (?, ?) ORDER BY timestamp DESC, id DESC LIMIT ?";
+    private static final String COUNT_STORICO = "SELECT COUNT(*) FROM storico_spostamenti WHERE collo_codice = ?";
+
+    // Stesse letture sulle tabelle di archivio (fallback per i colli chiusi e archiviati)
+    private static final String SELECT_COLLO_BASE_ARCHIVIO = "SELECT codice, stato FROM colli_archivio WHERE codice = ?";
+    // Riepilogo denormalizzato (migrazione v12): copre colli attivi e archiviati
+    private static final String SELECT_RIEPILOGO_TRACKING =
+            "SELECT stato, eventi, ultimo_timestamp, ultimo_tipo, ultimo_luogo FROM stato_tracking WHERE collo_codice = ?";
+    private static final String SELECT_COLLO_FULL_ARCHIVIO = "SELECT * FROM colli_archivio WHERE codice = ?";
+    private static final String SELECT_STORICO_ARCHIVIO = SELECT_STORICO.replace("storico_spostamenti", "storico_archivio");
+    private static final String SELECT_STORICO_PRIMA_PAGINA_ARCHIVIO = SELECT_STORICO_PRIMA_PAGINA.replace("storico_spostamenti", "storico_archivio");
+    private static final String SELECT_STORICO_PAGINA_ARCHIVIO = SELECT_STORICO_PAGINA.replace("storico_spostamenti", "storico_archivio");
+    private static final String COUNT_STORICO_ARCHIVIO = COUNT_STORICO.replace("storico_spostamenti", "storico_archivio");
+    // Idratazione in blocco (GruppoColli): prefissi a cui si aggiunge la lista IN
+    private static final int DIMENSIONE_LISTA_IN = GruppoColli.DIMENSIONE_MASSIMA;
+    private static final String SELECT_COLLI_FULL_IN = "SELECT * FROM colli WHERE codice IN ";
+    private static final String SELECT_STORICO_IN =
+            "SELECT collo_codice, timestamp, tipo, luogo FROM storico_spostamenti WHERE collo_codice IN %s " +
+            "ORDER BY collo_codice DESC, timestamp DESC, id DESC";
+    private static final String SELECT_COLLI_FULL_IN_ARCHIVIO = SELECT_COLLI_FULL_IN.replace("colli", "colli_archivio");
+    private static final String SELECT_STORICO_IN_ARCHIVIO = SELECT_STORICO_IN.replace("storico_spostamenti", "storico_archivio");
     private static final String INSERT_COLLO = "INSERT INTO colli (codice, stato, peso, mittente, destinatario) VALUES (?, ?, ?, ?, ?)";
 
-    private static final String SELECT_VEICOLI_AZIENDA = "SELECT * FROM veicoli WHERE azienda = ?";
-    private static final String SELECT_VEICOLI_ALL = "SELECT * FROM veicoli ORDER BY azienda, codice";
+    // Flotta + carico in un solo passaggio (una riga per collo, veicoli vuoti inclusi)
+    private static final String SELECT_FLOTTA_CON_CARICO =
+            "SELECT v.codice, v.tipo, v.azienda, c.codice AS collo_codice, c.stato AS collo_stato " +
+            "FROM veicoli v LEFT JOIN colli c ON c.veicolo_codice = v.codice " +
+            "ORDER BY v.azienda, v.codice, c.rowid";
+    private static final String SELECT_FLOTTA_AZIENDA_CON_CARICO =
+            "SELECT v.codice, v.tipo, v.azienda, c.codice AS collo_codice, c.stato AS collo_stato " +
+            "FROM veicoli v LEFT JOIN colli c ON c.veicolo_codice = v.codice " +
+            "WHERE v.azienda = ? ORDER BY v.codice, c.rowid";
+    // Aggiornamento incrementale (registro della migrazione v10)
+    private static final String SELECT_VERSIONE_COLLI = "SELECT versione FROM versione_dati WHERE chiave = 'colli'";
+    private static final String SELECT_VERSIONE_FLOTTA =
+            "SELECT chiave, versione FROM versione_dati WHERE chiave IN ('epoca', 'flotta')";
+    private static final String SELECT_INIZIO_REGISTRO_FLOTTA = "SELECT MIN(versione) FROM modifiche_flotta";
+    private static final String SELECT_VEICOLI_MODIFICATI =
+            "SELECT DISTINCT veicolo_codice FROM modifiche_flotta WHERE versione > ?";
+    private static final String SELECT_FLOTTA_MODIFICATA_CON_CARICO =
+            "SELECT v.codice, v.tipo, v.azienda, c.codice AS collo_codice, c.stato AS collo_stato " +
+            "FROM veicoli v LEFT JOIN colli c ON c.veicolo_codice = v.codice " +
+            "WHERE v.codice IN (SELECT veicolo_codice FROM modifiche_flotta WHERE versione > ?) " +
+            "ORDER BY v.azienda, v.codice, c.rowid";
     private static final String INSERT_VEICOLO = "INSERT INTO veicoli (codice, tipo, capienza, azienda) VALUES (?, ?, ?, ?)";
 
     private static final String UPDATE_STATO_COLLO = "UPDATE colli SET stato = ? WHERE codice = ?";
-    private static final String INSERT_STORICO = "INSERT INTO storico_spostamenti (collo_codice, descrizione) VALUES (?, ?)";
+    private static final String INSERT_STORICO = "INSERT INTO storico_spostamenti (collo_codice, timestamp, tipo, luogo) VALUES (?, ?, ?, ?)";
 
     private static final String UPDATE_COLLO_CARICATO = "UPDATE colli SET stato = ?, veicolo_codice = ? WHERE codice = ?";
     private static final String SELECT_COLLI_PER_VEICOLO = "SELECT * FROM colli WHERE veicolo_codice = ?";
 
-    public GestoreDatabase() {}
+    // Righe lette per round-trip dai cursori in streaming
+    private static final int FETCH_SIZE_DEFAULT = 500;
+
+    // Righe per executeBatch negli inserimenti massivi
+    private int dimensioneBatch = 500;
+
+    static {
+        // Le statistiche delle query usano come nome quello delle costanti SQL qui sopra
+        StatisticheQuery.getInstance().registraNomi(GestoreDatabase.class);
+    }
+
+    public GestoreDatabase() {
+        // Archiviazione dei colli consegnati, potatura del registro della flotta e filtro dei codici
+        // si avviano (una sola volta) con il primo gestore del DB
+        ArchiviatoreColli.getDefault();
+        ModificheFlotta.avviaPotaturaRegistro();
+        FiltroCodici.getDefault();
+    }
 
     // =================================================================================
     // SEZIONE 1: MANAGER & FLOTTA (Lettura)
@@ -38,64 +119,168 @@ public class GestoreDatabase {
     /**
      * Metodo per il MANAGER: Recupera l'intera flotta dal DB raggruppata per Azienda.
      * Serve per popolare la GUI che mostra l'albero Azienda -> Veicoli.
-     * * @return Lista di oggetti Azienda, ciascuno con la propria flotta popolata.
+     * <p>
+     * Veicoli e colli caricati arrivano con un'unica LEFT JOIN (niente query per veicolo).
+     * </p>
+     * @return Lista di oggetti Azienda, ciascuno con la propria flotta popolata.
      */
+    @Override
     public List<Azienda> getFlottaAll() {
-        List<Azienda> listaAziende = new ArrayList<>();
+        // Se lo snapshot binario è aggiornato si evita la join (vedi SnapshotFlotta)
+        SnapshotFlotta snapshot = SnapshotFlotta.getDefault();
+        if (snapshot != null) {
+            return snapshot.carica(this);
+        }
 
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(SELECT_VEICOLI_ALL)) {
+        try (Connection conn = connessione()) {
+            return leggiFlotta(conn);
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore caricamento flotta", e);
+        }
+    }
 
-            while (rs.next()) {
-                String nomeAzienda = rs.getString("azienda");
-                String codiceVeicolo = rs.getString("codice");
-                String tipo = rs.getString("tipo");
-
-                // 1. Gestione Azienda
-                Azienda aziendaCorrente = null;
-                for (Azienda a : listaAziende) {
-                    if (a.getNome().equalsIgnoreCase(nomeAzienda)) {
-                        aziendaCorrente = a;
-                        break;
-                    }
+    /**
+     * Lettura SQL della flotta completa sulla connessione indicata.
+     */
+    List<Azienda> leggiFlotta(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(SELECT_FLOTTA_CON_CARICO)) {
+            return costruisciFlotta(rs);
+        }
+    }
+
+    /**
+     * Costruisce il grafo Azienda -> Veicoli -> Colli scorrendo una sola volta il ResultSet
+     * della join (righe ordinate per azienda e veicolo, una riga per collo caricato).
+     */
+    private List<Azienda> costruisciFlotta(ResultSet rs) throws SQLException {
+        // Lookup O(1) per nome azienda (case-insensitive) e per codice veicolo
+        Map<String, Azienda> aziende = new LinkedHashMap<>();
+        Map<String, IVeicolo> veicoli = new HashMap<>();
+        Set<String> veicoliScartati = new HashSet<>();
+
+        while (rs.next()) {
+            String nomeAzienda = rs.getString("azienda");
+            String codiceVeicolo = rs.getString("codice");
+
+            // 1. Gestione Azienda
+            String chiaveAzienda = nomeAzienda.toLowerCase();
+            Azienda aziendaCorrente = aziende.get(chiaveAzienda);
+            if (aziendaCorrente == null) {
+                aziendaCorrente = new AziendaConcreta(nomeAzienda);
+                aziende.put(chiaveAzienda, aziendaCorrente);
+            }
+
+            // 2. Creazione Veicolo (solo alla prima riga che lo riguarda)
+            IVeicolo v = veicoli.get(codiceVeicolo);
+            if (v == null) {
+                if (veicoliScartati.contains(codiceVeicolo)) continue;
+                try {
+                    v = aziendaCorrente.createVeicolo(rs.getString("tipo"), codiceVeicolo);
+                } catch (IllegalArgumentException e) {
+                    v = null;
                 }
-                if (aziendaCorrente == null) {
-                    aziendaCorrente = new AziendaConcreta(nomeAzienda);
-                    listaAziende.add(aziendaCorrente);
+                if (v == null) {
+                    System.err.println("Skip veicolo: " + codiceVeicolo);
+                    veicoliScartati.add(codiceVeicolo);
+                    continue;
                 }
+                veicoli.put(codiceVeicolo, v);
+                aziendaCorrente.aggiungiVeicoloEsistente(v);
+            }
 
-                // 2. Creazione Veicolo
-                try {
-                    IVeicolo v = aziendaCorrente.createVeicolo(tipo, codiceVeicolo);
-                    if (v != null) {
-                        // === NOVITÀ: CARICAMENTO DEI COLLI DAL DB ===
-                        // Recuperiamo i colli che risultano caricati su questo veicolo
-                        List<ICollo> colliCaricati = getColliPerVeicolo(codiceVeicolo);
-
-                        // Li aggiungiamo manualmente al veicolo in memoria
-                        for (ICollo c : colliCaricati) {
-                            v.caricaCollo(c);
-                        }
+            // 3. Collo caricato (null se il veicolo è vuoto, per via della LEFT JOIN)
+            String codiceCollo = rs.getString("collo_codice");
+            if (codiceCollo != null) {
+                v.caricaCollo(ColloProxy.interna(codiceCollo, StatoCollo.daCodice(rs.getInt("collo_stato")), this));
+            }
+        }
 
-                        aziendaCorrente.aggiungiVeicoloEsistente(v);
+        // Il carico di ogni veicolo si idrata in blocco al primo accesso ai dettagli
+        for (IVeicolo v : veicoli.values()) {
+            GruppoColli.raggruppa(v.getCarico());
+        }
+        return new ArrayList<>(aziende.values());
+    }
+
+    /**
+     * Legge dal registro {@code modifiche_flotta} solo i veicoli cambiati dopo la versione indicata.
+     * <p>
+     * La versione viene letta <b>prima</b> dei veicoli: una modifica che arriva nel mezzo può
+     * comparire sia ora sia alla chiamata successiva, ma non può andare persa. Ricaricare
+     * due volte lo stesso veicolo è innocuo.
+     * </p>
+     */
+    @Override
+    public ModificheFlotta getModificheFlotta(VersioneFlotta da) {
+        VersioneFlotta versione;
+        try (Connection conn = connessione()) {
+            versione = leggiVersioneFlotta(conn);
+
+            if (versione.seguiva(da) && registroCopre(conn, da.getContatore(), versione.getContatore())) {
+                if (versione.getContatore() == da.getContatore()) {
+                    return ModificheFlotta.incrementale(versione, Collections.<String>emptySet(), Collections.<Azienda>emptyList());
+                }
+
+                Set<String> modificati = new HashSet<>();
+                try (PreparedStatement st = conn.prepareStatement(SELECT_VEICOLI_MODIFICATI)) {
+                    st.setLong(1, da.getContatore());
+                    try (ResultSet rs = st.executeQuery()) {
+                        while (rs.next()) modificati.add(rs.getString(1));
+                    }
+                }
+                try (PreparedStatement st = conn.prepareStatement(SELECT_FLOTTA_MODIFICATA_CON_CARICO)) {
+                    st.setLong(1, da.getContatore());
+                    try (ResultSet rs = st.executeQuery()) {
+                        return ModificheFlotta.incrementale(versione, modificati, costruisciFlotta(rs));
                     }
-                } catch (IllegalArgumentException e) {
-                    System.err.println("Skip veicolo: " + codiceVeicolo);
                 }
             }
         } catch (SQLException e) {
-            throw new RuntimeException("Errore caricamento flotta", e);
+            throw new RuntimeException("Errore DB in getModificheFlotta da " + da, e);
+        }
+
+        // Prima lettura, DB ricreato o registro potato: flotta completa (anche dallo snapshot)
+        return ModificheFlotta.completa(versione, getFlottaAll());
+    }
+
+    private static VersioneFlotta leggiVersioneFlotta(Connection conn) throws SQLException {
+        long epoca = 0;
+        long contatore = 0;
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(SELECT_VERSIONE_FLOTTA)) {
+            while (rs.next()) {
+                if ("epoca".equals(rs.getString(1))) {
+                    epoca = rs.getLong(2);
+                } else {
+                    contatore = rs.getLong(2);
+                }
+            }
+        }
+        return new VersioneFlotta(epoca, contatore);
+    }
+
+    /**
+     * Ogni versione lascia almeno una riga nel registro: se la più vecchia rimasta è oltre
+     * {@code da + 1}, le modifiche intermedie sono state potate e serve una lettura completa.
+     */
+    private static boolean registroCopre(Connection conn, long da, long a) throws SQLException {
+        if (a == da) return true;
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(SELECT_INIZIO_REGISTRO_FLOTTA)) {
+            if (!rs.next()) return false;
+            long inizio = rs.getLong(1);
+            return !rs.wasNull() && inizio <= da + 1;
         }
-        return listaAziende;
     }
 
     /**
      * Recupera i colli associati a un veicolo specifico.
      */
+    @Override
     public List<ICollo> getColliPerVeicolo(String codiceVeicolo) {
         List<ICollo> lista = new ArrayList<>();
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
+        try (Connection conn = connessione();
              PreparedStatement ps = conn.prepareStatement(SELECT_COLLI_PER_VEICOLO)) {
 
             ps.setString(1, codiceVeicolo);
@@ -103,48 +288,36 @@ public class GestoreDatabase {
                 while(rs.next()) {
                     // Creiamo il proxy o il reale (qui va bene reale leggero o proxy)
                     // Dato che sono già caricati, usiamo ColloProxy per coerenza
-                    lista.add(new ColloProxy(rs.getString("codice"), rs.getString("stato")));
+                    lista.add(ColloProxy.interna(rs.getString("codice"), StatoCollo.daCodice(rs.getInt("stato")), this));
                 }
             }
         } catch (SQLException e) {
             e.printStackTrace();
         }
+        GruppoColli.raggruppa(lista);
         return lista;
     }
 
     /**
-     * Recupera la lista dei veicoli di una specifica azienda.
+     * Recupera la lista dei veicoli di una specifica azienda (con il relativo carico).
      */
+    @Override
     public List<IVeicolo> getFlottaAzienda(String nomeAzienda) {
-        List<IVeicolo> flotta = new ArrayList<>();
-        // Usiamo un'istanza helper solo per accedere al factory method
-        AziendaConcreta factoryHelper = new AziendaConcreta(nomeAzienda);
-
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             PreparedStatement st = conn.prepareStatement(SELECT_VEICOLI_AZIENDA)) {
+        try (Connection conn = connessione();
+             PreparedStatement st = conn.prepareStatement(SELECT_FLOTTA_AZIENDA_CON_CARICO)) {
 
             st.setString(1, nomeAzienda);
 
             try (ResultSet rs = st.executeQuery()) {
-                while (rs.next()) {
-                    String tipo = rs.getString("tipo");
-                    String codice = rs.getString("codice");
-
-                    IVeicolo v = factoryHelper.createVeicolo(tipo, codice);
-
-                    if (v != null) {
-                        List<ICollo> colliCaricati = getColliPerVeicolo(codice);
-                        for (ICollo c : colliCaricati) {
-                            v.caricaCollo(c);
-                        }
-                        flotta.add(v);
-                    }
+                List<IVeicolo> flotta = new ArrayList<>();
+                for (Azienda az : costruisciFlotta(rs)) {
+                    flotta.addAll(az.getFlotta());
                 }
+                return flotta;
             }
         } catch (SQLException e) {
             throw new RuntimeException("Errore DB in getFlottaAzienda per " + nomeAzienda, e);
         }
-        return flotta;
     }
 
     // =================================================================================
@@ -153,42 +326,76 @@ public class GestoreDatabase {
 
     /**
      * Inserisce un nuovo collo nel DB.
-     * Utile per il Setup/Tester iniziale.
+     * Utile per il Setup/Tester iniziale (per grandi quantità usare {@link #inserisciColli}).
      */
+    @Override
     public void inserisciCollo(ICollo c) {
-
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             PreparedStatement ps = conn.prepareStatement(INSERT_COLLO)) {
-
-            ps.setString(1, c.getCodice());
-            ps.setString(2, c.getStato());
-            ps.setDouble(3, c.getPeso());
-            ps.setString(4, c.getMittente());
-            ps.setString(5, c.getDestinatario());
-
-            ps.executeUpdate();
+        EsitoBatch esito = inserisciColli(Collections.singletonList(c));
+        if (esito.isCompleto()) {
             System.out.println("[DB] Inserito collo: " + c.getCodice());
-
-        } catch (SQLException e) {
-            System.err.println("Errore inserimento collo " + c.getCodice() + ": " + e.getMessage());
+        } else {
+            System.err.println("Errore inserimento collo " + esito.getErrori().get(0));
         }
     }
 
     /**
-     * Aggiorna il collo salvando il nuovo stato E il veicolo su cui è stato caricato.
+     * Inserimento massivo di colli.
+     * <p>
+     * Usa il batching JDBC dentro un'unica transazione, spezzata in blocchi da
+     * {@link #getDimensioneBatch()} righe. Le righe rifiutate (es. codice duplicato)
+     * vengono riportate nell'esito senza interrompere il resto del batch.
+     * </p>
      */
-    public void associaColloVeicolo(ICollo c, String codiceVeicolo) {
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             PreparedStatement ps = conn.prepareStatement(UPDATE_COLLO_CARICATO)) {
-
-            ps.setString(1, c.getStato());        // Es. "CARICATO"
-            ps.setString(2, codiceVeicolo);       // Es. "V01"
-            ps.setString(3, c.getCodice());       // Es. "C01"
+    @Override
+    public EsitoBatch inserisciColli(Collection<? extends ICollo> colli) {
+        return eseguiBatch(INSERT_COLLO, colli, FiltroCodici.getDefault(), new LegatoreRiga<ICollo>() {
+            @Override
+            public String chiave(ICollo c) {
+                return c.getCodice();
+            }
 
-            ps.executeUpdate();
+            @Override
+            public void lega(PreparedStatement ps, ICollo c) throws SQLException {
+                if (c.getCodice() == null || c.getCodice().trim().isEmpty()) {
+                    throw new IllegalArgumentException("Codice collo mancante.");
+                }
+                if (c.getStato() == null) {
+                    throw new IllegalArgumentException("Stato collo mancante.");
+                }
+                ps.setString(1, c.getCodice());
+                ps.setInt(2, c.getStato().getCodice());
+                ps.setDouble(3, c.getPeso());
+                ps.setString(4, c.getMittente());
+                ps.setString(5, c.getDestinatario());
+            }
+        });
+    }
 
+    /**
+     * Aggiorna il collo salvando il nuovo stato E il veicolo su cui è stato caricato.
+     */
+    @Override
+    public void associaColloVeicolo(ICollo c, final String codiceVeicolo) {
+        // Valori letti nel thread chiamante: lo scrittore li userà così come sono ora
+        final StatoCollo stato = c.getStato();
+        final String codice = c.getCodice();
+
+        try {
+            scrivi(new ScrittoreDB.Scrittura<Integer>() {
+                @Override
+                public Integer esegui(Connection conn) throws SQLException {
+                    try (PreparedStatement ps = conn.prepareStatement(UPDATE_COLLO_CARICATO)) {
+                        ps.setInt(1, stato.getCodice());  // Es. CARICATO
+                        ps.setString(2, codiceVeicolo);   // Es. "V01"
+                        ps.setString(3, codice);          // Es. "C01"
+                        return ps.executeUpdate();
+                    }
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Errore associazione collo-veicolo: " + e.getMessage(), e);
+        } finally {
+            CacheColli.getInstance().invalida(codice);
         }
     }
 
@@ -196,135 +403,644 @@ public class GestoreDatabase {
      * Inserisce un'intera azienda e tutta la sua flotta nel DB.
      * Utile per il Setup/Tester iniziale (popola il DB partendo dagli oggetti Java).
      */
-    public void inserisciAzienda(Azienda azienda) {
-        if (azienda == null) return;
-
-        // Salviamo ogni veicolo della flotta
-        for (IVeicolo v : azienda.getFlotta()) {
-            inserisciVeicolo(v, azienda.getNome());
+    @Override
+    public EsitoBatch inserisciAzienda(Azienda azienda) {
+        if (azienda == null) return new EsitoBatch();
+
+        EsitoBatch esito = inserisciVeicoli(azienda.getFlotta(), azienda.getNome());
+        System.out.println("[DB] Inserita flotta di " + azienda.getNome() + ": " + esito);
+        for (EsitoBatch.Errore errore : esito.getErrori()) {
+            System.err.println("Errore inserimento veicolo " + errore);
         }
+        return esito;
     }
 
     /**
      * Inserisce un singolo veicolo nel DB.
      * Prende i dati dall'oggetto Java.
      */
+    @Override
     public void inserisciVeicolo(IVeicolo v, String nomeAzienda) {
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             PreparedStatement ps = conn.prepareStatement(INSERT_VEICOLO)) {
+        EsitoBatch esito = inserisciVeicoli(Collections.singletonList(v), nomeAzienda);
+        if (esito.isCompleto()) {
+            System.out.println("[DB] Inserito veicolo: " + v.getCodice() + " per " + nomeAzienda);
+        } else {
+            System.err.println("Errore inserimento veicolo " + esito.getErrori().get(0));
+        }
+    }
 
-            ps.setString(1, v.getCodice());
-            ps.setString(2, v.getTipo());
-            ps.setInt(3, v.getCapienza());
-            ps.setString(4, nomeAzienda);
-            //ps.setString(5, "DISPONIBILE");
+    /**
+     * Inserimento massivo dei veicoli di un'azienda (stesse regole di {@link #inserisciColli}).
+     */
+    @Override
+    public EsitoBatch inserisciVeicoli(Collection<? extends IVeicolo> veicoli, String nomeAzienda) {
+        return inserisciVeicoli(Collections.singletonMap(nomeAzienda, veicoli));
+    }
 
-            ps.executeUpdate();
-            System.out.println("[DB] Inserito veicolo: " + v.getCodice() + " per " + nomeAzienda);
+    /**
+     * Inserimento massivo dei veicoli di più aziende: una sola scrittura (un solo COMMIT) per tutte.
+     */
+    @Override
+    public EsitoBatch inserisciVeicoli(Map<String, ? extends Collection<? extends IVeicolo>> veicoliPerAzienda) {
+        // Coppie (azienda, veicolo) nell'ordine di arrivo
+        List<Map.Entry<String, IVeicolo>> righe = new ArrayList<>();
+        for (Map.Entry<String, ? extends Collection<? extends IVeicolo>> e : veicoliPerAzienda.entrySet()) {
+            if (e.getValue() == null) continue;
+            for (IVeicolo v : e.getValue()) {
+                righe.add(new AbstractMap.SimpleImmutableEntry<String, IVeicolo>(e.getKey(), v));
+            }
+        }
+
+        return eseguiBatch(INSERT_VEICOLO, righe, null, new LegatoreRiga<Map.Entry<String, IVeicolo>>() {
+            @Override
+            public String chiave(Map.Entry<String, IVeicolo> riga) {
+                return riga.getValue().getCodice();
+            }
+
+            @Override
+            public void lega(PreparedStatement ps, Map.Entry<String, IVeicolo> riga) throws SQLException {
+                IVeicolo v = riga.getValue();
+                ps.setString(1, v.getCodice());
+                ps.setString(2, v.getTipo());
+                ps.setInt(3, v.getCapienza());
+                ps.setString(4, riga.getKey());
+            }
+        });
+    }
 
+    public int getDimensioneBatch() { return dimensioneBatch; }
+
+    /**
+     * Imposta quante righe inviare al driver per ogni executeBatch.
+     */
+    public void setDimensioneBatch(int dimensioneBatch) {
+        if (dimensioneBatch <= 0) {
+            throw new IllegalArgumentException("La dimensione del batch deve essere maggiore di zero.");
+        }
+        this.dimensioneBatch = dimensioneBatch;
+    }
+
+    /**
+     * Motore comune degli inserimenti massivi.
+     * <p>
+     * Ogni blocco è protetto da un SAVEPOINT: se il driver rifiuta il batch, il blocco viene
+     * annullato e rieseguito riga per riga, così solo le righe davvero errate vengono scartate.
+     * L'intera operazione è una sola scrittura dello {@link ScrittoreDB}: un solo COMMIT
+     * (un solo fsync), condiviso con le altre scritture accodate nello stesso momento.
+     * </p>
+     *
+     * @param filtro Filtro dei codici a cui registrare le chiavi inserite (null per le tabelle che non ne hanno).
+     */
+    private <T> EsitoBatch eseguiBatch(final String sql, final Collection<? extends T> righe,
+                                       final FiltroCodici filtro, final LegatoreRiga<T> legatore) {
+        final EsitoBatch esito = new EsitoBatch();
+        if (righe == null || righe.isEmpty()) return esito;
+
+        long inizio = System.nanoTime();
+        final int dimensione = dimensioneBatch;
+        // Contatore dei colli prima e dopo l'inserimento (null finché i codici non sono nel filtro)
+        final long[] versioni = new long[2];
+        final boolean[] registrati = new boolean[1];
+        boolean confermato = false;
+
+        try {
+            scrivi(new ScrittoreDB.Scrittura<Void>() {
+                @Override
+                public Void esegui(Connection conn) throws SQLException {
+                    long versionePrima = filtro != null ? leggiVersioneColli(conn) : 0;
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        List<T> blocco = new ArrayList<>(Math.min(dimensione, righe.size()));
+                        for (T riga : righe) {
+                            blocco.add(riga);
+                            if (blocco.size() == dimensione) {
+                                scriviBlocco(conn, ps, blocco, legatore, esito);
+                                blocco.clear();
+                            }
+                        }
+                        if (!blocco.isEmpty()) {
+                            scriviBlocco(conn, ps, blocco, legatore, esito);
+                        }
+                    }
+                    if (filtro != null) {
+                        // Dentro la transazione, prima del COMMIT: nessun lettore vede il collo prima del filtro
+                        List<String> codici = new ArrayList<>(righe.size());
+                        for (T riga : righe) {
+                            codici.add(chiaveSicura(legatore, riga));
+                        }
+                        filtro.aggiungi(codici);
+                        versioni[0] = versionePrima;
+                        versioni[1] = leggiVersioneColli(conn);
+                        registrati[0] = true;
+                    }
+                    return null;
+                }
+            });
+            confermato = true;
         } catch (SQLException e) {
-            System.err.println("Errore inserimento veicolo " + v.getCodice() + ": " + e.getMessage());
+            throw new RuntimeException("Errore DB durante l'inserimento massivo: " + e.getMessage(), e);
+        } finally {
+            if (registrati[0]) {
+                // Il contatore atteso avanza solo dopo il COMMIT; se l'esito è fallito o ignoto il filtro va ricostruito
+                if (confermato) {
+                    filtro.confermaInserimento(versioni[0], versioni[1]);
+                } else {
+                    filtro.segnalaDisallineamento();
+                }
+            }
+        }
+
+        esito.setDurataNanos(System.nanoTime() - inizio);
+        return esito;
+    }
+
+    private <T> void scriviBlocco(Connection conn, PreparedStatement ps, List<T> blocco,
+                                  LegatoreRiga<T> legatore, EsitoBatch esito) throws SQLException {
+        Savepoint savepoint = conn.setSavepoint();
+        List<T> accodate = new ArrayList<>(blocco.size());
+
+        for (T riga : blocco) {
+            try {
+                legatore.lega(ps, riga);
+                ps.addBatch();
+                accodate.add(riga);
+            } catch (RuntimeException e) {
+                esito.aggiungiErrore(chiaveSicura(legatore, riga), e.getMessage());
+                ps.clearParameters();
+            }
+        }
+
+        try {
+            ps.executeBatch();
+            conn.releaseSavepoint(savepoint);
+            esito.aggiungiScritte(accodate.size());
+            return;
+        } catch (BatchUpdateException e) {
+            ps.clearBatch();
+            conn.rollback(savepoint);
+        }
+
+        // Fallback: il blocco conteneva almeno una riga errata, la isoliamo riga per riga
+        for (T riga : accodate) {
+            try {
+                legatore.lega(ps, riga);
+                ps.executeUpdate();
+                esito.aggiungiScritte(1);
+            } catch (SQLException e) {
+                esito.aggiungiErrore(chiaveSicura(legatore, riga), e.getMessage());
+            }
+        }
+        conn.releaseSavepoint(savepoint);
+    }
+
+    private static long leggiVersioneColli(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(SELECT_VERSIONE_COLLI)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private <T> String chiaveSicura(LegatoreRiga<T> legatore, T riga) {
+        try {
+            return legatore.chiave(riga);
+        } catch (RuntimeException e) {
+            return String.valueOf(riga);
         }
     }
 
+    /**
+     * Strategia di mappatura oggetto -> parametri del PreparedStatement per gli inserimenti massivi.
+     */
+    private interface LegatoreRiga<T> {
+        String chiave(T riga);
+        void lega(PreparedStatement ps, T riga) throws SQLException;
+    }
+
     // =================================================================================
     // SEZIONE 3: COLLI (Lettura Proxy & Real)
     // =================================================================================
 
     /**
-     * Recupera la lista di tutti i colli in stato 'IN_PREPARAZIONE'.
+     * Recupera la lista di tutti i colli in stato {@link StatoCollo#IN_PREPARAZIONE}.
      * Restituisce oggetti Proxy leggeri.
+     * <p>
+     * Materializza tutto il backlog in memoria: per grandi volumi usare
+     * {@link #getColliInPreparazione(String, int)} oppure {@link #apriCursoreColliInPreparazione(int)}.
+     * </p>
      */
+    @Override
     public List<ICollo> getColliInPreparazione() {
         List<ICollo> lista = new ArrayList<>();
 
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             Statement st = conn.createStatement();
-             ResultSet rs = st.executeQuery(SELECT_COLLI_PREPARAZIONE)) {
+        try (CursoreColli cursore = apriCursoreColliInPreparazione(FETCH_SIZE_DEFAULT)) {
+            while (cursore.hasNext()) {
+                lista.add(cursore.next());
+            }
+        }
+        GruppoColli.raggruppa(lista);
+        return lista;
+    }
 
-            while (rs.next()) {
-                lista.add(new ColloProxy(rs.getString("codice"), rs.getString("stato")));
+    /**
+     * Paginazione keyset dei colli in preparazione, ordinati per codice.
+     * <p>
+     * A differenza di OFFSET, il costo di ogni pagina non cresce con la posizione:
+     * si riparte direttamente dall'ultimo codice visto (indice su stato, codice).
+     * </p>
+     *
+     * @param dopoCodice Ultimo codice della pagina precedente (null per la prima pagina).
+     * @param limite     Numero massimo di colli da restituire.
+     */
+    @Override
+    public List<ICollo> getColliInPreparazione(String dopoCodice, int limite) {
+        List<ICollo> pagina = new ArrayList<>();
+        if (limite <= 0) return pagina;
+
+        try (Connection conn = connessione();
+             PreparedStatement st = conn.prepareStatement(SELECT_COLLI_PREPARAZIONE_PAGINA)) {
+
+            st.setString(1, dopoCodice == null ? "" : dopoCodice);
+            st.setInt(2, limite);
+
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    pagina.add(ColloProxy.interna(rs.getString("codice"), StatoCollo.daCodice(rs.getInt("stato")), this));
+                }
             }
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in getColliInPreparazione (pagina dopo " + dopoCodice + ")", e);
+        }
+        GruppoColli.raggruppa(pagina);
+        return pagina;
+    }
 
+    /**
+     * Apre un cursore in streaming sui colli in preparazione (ordinati per codice).
+     *
+     * @param fetchSize Righe lette dal driver per ogni round-trip.
+     * @return Il cursore: va chiuso dal chiamante (try-with-resources).
+     */
+    @Override
+    public CursoreColli apriCursoreColliInPreparazione(int fetchSize) {
+        Connection conn = null;
+        try {
+            conn = connessione();
+            PreparedStatement st = conn.prepareStatement(SELECT_COLLI_PREPARAZIONE,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            st.setFetchSize(fetchSize);
+            return new CursoreColliJdbc(conn, st, st.executeQuery(), this);
         } catch (SQLException e) {
-            throw new RuntimeException("Errore DB in getColliInPreparazione", e);
+            chiudiSilenziosamente(conn);
+            throw new RuntimeException("Errore DB in apriCursoreColliInPreparazione", e);
+        }
+    }
+
+    /**
+     * Conta i colli in preparazione senza caricarli.
+     */
+    @Override
+    public int contaColliInPreparazione() {
+        try (Connection conn = connessione();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(COUNT_COLLI_PREPARAZIONE)) {
+
+            return rs.next() ? rs.getInt(1) : 0;
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in contaColliInPreparazione", e);
         }
-        return lista;
     }
 
     /**
      * Cerca un singolo collo tramite il codice (Proxy).
+     * Se il collo non è tra quelli attivi viene cercato nell'archivio.
+     * I codici che il {@link FiltroCodici} esclude vengono respinti senza interrogare il DB.
      */
+    @Override
     public ICollo getColloProxy(String codice) {
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             PreparedStatement st = conn.prepareStatement(SELECT_COLLO_BASE)) {
+        FiltroCodici filtro = FiltroCodici.getDefault();
+        if (!filtro.puoEsistere(codice)) return null;
+
+        try (Connection conn = connessione()) {
+            ICollo collo = cercaColloBase(conn, SELECT_COLLO_BASE, codice);
+            if (collo == null) collo = cercaColloBase(conn, SELECT_COLLO_BASE_ARCHIVIO, codice);
+            if (collo == null) filtro.segnalaAssente(codice);
+            return collo;
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in getColloProxy. Ricerca collo " + codice, e);
+        }
+    }
 
+    /**
+     * Riepilogo del tracking con una sola lettura per chiave primaria su {@code stato_tracking}.
+     */
+    @Override
+    public RiepilogoTracking getRiepilogoTracking(String codice) {
+        FiltroCodici filtro = FiltroCodici.getDefault();
+        if (!filtro.puoEsistere(codice)) return null;
+
+        try (Connection conn = connessione();
+             PreparedStatement st = conn.prepareStatement(SELECT_RIEPILOGO_TRACKING)) {
             st.setString(1, codice);
+            try (ResultSet rs = st.executeQuery()) {
+                if (!rs.next()) {
+                    filtro.segnalaAssente(codice);
+                    return null;
+                }
+                long timestamp = rs.getLong("ultimo_timestamp");
+                EventoTracking ultimo = rs.wasNull() ? null : new EventoTracking(timestamp,
+                        EventoTracking.Tipo.daCodice(rs.getInt("ultimo_tipo")), rs.getString("ultimo_luogo"));
+                return new RiepilogoTracking(codice, StatoCollo.daCodice(rs.getInt("stato")), rs.getInt("eventi"), ultimo);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in getRiepilogoTracking. Ricerca collo " + codice, e);
+        }
+    }
 
+    private ICollo cercaColloBase(Connection conn, String sql, String codice) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(sql)) {
+            st.setString(1, codice);
             try (ResultSet rs = st.executeQuery()) {
                 if (rs.next()) {
-                    return new ColloProxy(rs.getString("codice"), rs.getString("stato"));
+                    return ColloProxy.interna(rs.getString("codice"), StatoCollo.daCodice(rs.getInt("stato")), this);
                 }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Errore DB in getColloProxy. Ricerca collo " + codice, e);
         }
         return null;
     }
 
     /**
-     * Recupera l'oggetto Reale completo (Dati collo + Storico).
+     * Recupera l'oggetto Reale completo (Dati collo + Storico), anche se archiviato.
      * Chiamato dal Proxy quando serve caricare i dettagli.
      */
+    @Override
     public ColloReale getColloRealeCompleto(String codice) {
-        ColloReale reale = null;
-
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             PreparedStatement st = conn.prepareStatement(SELECT_COLLO_FULL)) {
+        // Prima la cache condivisa: i colli "caldi" non toccano SQLite
+        CacheColli cache = CacheColli.getInstance();
+        ColloReale inCache = cache.cerca(codice);
+        if (inCache != null) return inCache;
+
+        // Letta PRIMA del caricamento: se nel frattempo arriva una scrittura, il risultato non va in cache
+        long generazione = cache.getGenerazione();
+        try (Connection conn = connessione()) {
+            ColloReale reale = leggiColloReale(conn, SELECT_COLLO_FULL, codice);
+            if (reale == null) {
+                reale = leggiColloReale(conn, SELECT_COLLO_FULL_ARCHIVIO, codice);
+            }
+            if (reale != null) {
+                // Popola la lista complessa (relazione one-to-many)
+                reale.setStorico(getStoricoPerCollo(codice));
+                reale = cache.inserisci(codice, reale, generazione);
+            }
+            return reale;
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in getColloRealeCompleto. Caricamento completo collo " + codice, e);
+        }
+    }
 
+    private ColloReale leggiColloReale(Connection conn, String sql, String codice) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(sql)) {
             st.setString(1, codice);
-
             try (ResultSet rs = st.executeQuery()) {
-                if (rs.next()) {
-                    // Mappatura JavaBean (tabella -> oggetto)
-                    reale = new ColloReale();
-                    reale.setCodice(rs.getString("codice"));
-                    reale.setStato(rs.getString("stato"));
-                    reale.setPeso(rs.getDouble("peso"));
-                    reale.setMittente(rs.getString("mittente"));
-                    reale.setDestinatario(rs.getString("destinatario"));
-
-                    // Popola la lista complessa (relazione one-to-many)
-                    reale.setStorico(getStoricoPerCollo(codice));
-                }
+                if (!rs.next()) return null;
+                return mappaColloReale(rs);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Errore DB in getColloRealeCompleto. Caricamento completo collo " + codice, e);
         }
+    }
+
+    /**
+     * Mappatura JavaBean (tabella -> oggetto) della riga corrente.
+     */
+    private static ColloReale mappaColloReale(ResultSet rs) throws SQLException {
+        ColloReale reale = new ColloReale();
+        reale.setCodice(rs.getString("codice"));
+        reale.setStato(StatoCollo.daCodice(rs.getInt("stato")));
+        reale.setPeso(rs.getDouble("peso"));
+        reale.setMittente(rs.getString("mittente"));
+        reale.setDestinatario(rs.getString("destinatario"));
         return reale;
     }
 
     /**
-     * Metodo ausiliario privato per recuperare lo storico spostamenti.
+     * Carica insieme gli oggetti reali di più colli: una query IN per i dettagli e una per lo storico
+     * (per blocchi di {@link #DIMENSIONE_LISTA_IN} codici), raggruppate in memoria.
+     * I colli già nella {@link CacheColli} non vengono riletti; quelli non trovati si cercano in archivio.
      */
-    private List<String> getStoricoPerCollo(String codiceCollo) {
-        List<String> storico = new ArrayList<>();
+    @Override
+    public Map<String, ColloReale> getColliRealiCompleti(Collection<String> codici) {
+        Map<String, ColloReale> reali = new HashMap<>();
+        CacheColli cache = CacheColli.getInstance();
+
+        List<String> mancanti = new ArrayList<>();
+        for (String codice : new LinkedHashSet<>(codici)) {
+            ColloReale inCache = cache.cerca(codice);
+            if (inCache != null) {
+                reali.put(codice, inCache);
+            } else {
+                mancanti.add(codice);
+            }
+        }
+        if (mancanti.isEmpty()) return reali;
 
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             PreparedStatement st = conn.prepareStatement(SELECT_STORICO)) {
+        long generazione = cache.getGenerazione();
+        try (Connection conn = connessione()) {
+            Map<String, ColloReale> letti = new HashMap<>();
+            leggiColliReali(conn, SELECT_COLLI_FULL_IN, SELECT_STORICO_IN, mancanti, letti);
 
-            st.setString(1, codiceCollo);
-            try (ResultSet rs = st.executeQuery()) {
-                while(rs.next()) {
-                    storico.add(rs.getString("timestamp") + " - " + rs.getString("descrizione"));
+            if (letti.size() < mancanti.size()) {
+                List<String> daArchivio = new ArrayList<>();
+                for (String codice : mancanti) {
+                    if (!letti.containsKey(codice)) daArchivio.add(codice);
+                }
+                leggiColliReali(conn, SELECT_COLLI_FULL_IN_ARCHIVIO, SELECT_STORICO_IN_ARCHIVIO, daArchivio, letti);
+            }
+
+            for (Map.Entry<String, ColloReale> e : letti.entrySet()) {
+                reali.put(e.getKey(), cache.inserisci(e.getKey(), e.getValue(), generazione));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in getColliRealiCompleti (" + mancanti.size() + " colli)", e);
+        }
+        return reali;
+    }
+
+    private void leggiColliReali(Connection conn, String sqlColli, String sqlStorico,
+                                 List<String> codici, Map<String, ColloReale> letti) throws SQLException {
+        for (int da = 0; da < codici.size(); da += DIMENSIONE_LISTA_IN) {
+            List<String> blocco = codici.subList(da, Math.min(codici.size(), da + DIMENSIONE_LISTA_IN));
+            String segnaposto = listaSegnaposto(blocco.size());
+
+            List<String> trovati = new ArrayList<>();
+            try (PreparedStatement st = conn.prepareStatement(sqlColli + segnaposto)) {
+                legaCodici(st, blocco);
+                try (ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        ColloReale reale = mappaColloReale(rs);
+                        letti.put(reale.getCodice(), reale);
+                        trovati.add(reale.getCodice());
+                    }
+                }
+            }
+            if (trovati.isEmpty()) continue;
+
+            // Righe ordinate per collo e dal più recente: basta accodarle allo storico del proprio collo
+            Map<String, List<EventoTracking>> storici = new HashMap<>();
+            try (PreparedStatement st = conn.prepareStatement(String.format(sqlStorico, listaSegnaposto(trovati.size())))) {
+                legaCodici(st, trovati);
+                try (ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        String codice = rs.getString("collo_codice");
+                        List<EventoTracking> eventi = storici.get(codice);
+                        if (eventi == null) {
+                            eventi = new ArrayList<>();
+                            storici.put(codice, eventi);
+                        }
+                        eventi.add(leggiEvento(rs));
+                    }
                 }
             }
+            for (Map.Entry<String, List<EventoTracking>> e : storici.entrySet()) {
+                letti.get(e.getKey()).setStorico(e.getValue());
+            }
+        }
+    }
+
+    private static String listaSegnaposto(int n) {
+        StringBuilder sb = new StringBuilder(2 * n + 1).append('(');
+        for (int i = 0; i < n; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.append(')').toString();
+    }
+
+    private static void legaCodici(PreparedStatement st, List<String> codici) throws SQLException {
+        for (int i = 0; i < codici.size(); i++) {
+            st.setString(i + 1, codici.get(i));
+        }
+    }
+
+    /**
+     * Recupera lo storico spostamenti completo di un collo (dal più recente).
+     * Per collo con molti eventi preferire {@link #getStoricoPagina(String, String, int)}.
+     * <p>
+     * Lo storico si sposta in archivio insieme al collo: se la tabella attiva non ha eventi
+     * per il codice, la lettura passa a quella di archivio.
+     * </p>
+     */
+    @Override
+    public List<EventoTracking> getStoricoPerCollo(String codiceCollo) {
+        try (Connection conn = connessione()) {
+            List<EventoTracking> storico = leggiStorico(conn, SELECT_STORICO, codiceCollo);
+            return storico.isEmpty() ? leggiStorico(conn, SELECT_STORICO_ARCHIVIO, codiceCollo) : storico;
         } catch (SQLException e) {
             throw new RuntimeException("Errore DB in getStoricoPerCollo per " + codiceCollo, e);
         }
+    }
+
+    private List<EventoTracking> leggiStorico(Connection conn, String sql, String codiceCollo) throws SQLException {
+        List<EventoTracking> storico = new ArrayList<>();
+        try (PreparedStatement st = conn.prepareStatement(sql)) {
+            st.setString(1, codiceCollo);
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    storico.add(leggiEvento(rs));
+                }
+            }
+        }
         return storico;
     }
 
+    /**
+     * Paginazione keyset dello storico: eventi dal più recente al più vecchio.
+     * <p>
+     * Il token codifica la posizione (timestamp, id) dell'ultimo evento restituito:
+     * la pagina successiva riparte da lì tramite l'indice, senza OFFSET.
+     * Un token viene emesso solo se esistono altri eventi nella stessa tabella, quindi una pagina
+     * vuota sulla tabella attiva significa che lo storico (se esiste) è in archivio.
+     * </p>
+     *
+     * @param codiceCollo Codice del collo.
+     * @param token       Token della pagina precedente (null per la prima pagina).
+     * @param dimensione  Numero massimo di eventi da restituire.
+     */
+    @Override
+    public PaginaStorico getStoricoPagina(String codiceCollo, String token, int dimensione) {
+        if (dimensione <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere maggiore di zero.");
+        }
+
+        try (Connection conn = connessione()) {
+            PaginaStorico pagina = leggiPaginaStorico(conn, SELECT_STORICO_PRIMA_PAGINA, SELECT_STORICO_PAGINA,
+                    codiceCollo, token, dimensione);
+            if (pagina.getEventi().isEmpty()) {
+                pagina = leggiPaginaStorico(conn, SELECT_STORICO_PRIMA_PAGINA_ARCHIVIO, SELECT_STORICO_PAGINA_ARCHIVIO,
+                        codiceCollo, token, dimensione);
+            }
+            return pagina;
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in getStoricoPagina per " + codiceCollo, e);
+        }
+    }
+
+    private PaginaStorico leggiPaginaStorico(Connection conn, String sqlPrimaPagina, String sqlPagina,
+                                             String codiceCollo, String token, int dimensione) throws SQLException {
+        List<EventoTracking> eventi = new ArrayList<>();
+        long ultimoTimestamp = 0;
+        long ultimoId = 0;
+        boolean altri = false;
+
+        try (PreparedStatement st = conn.prepareStatement(token == null ? sqlPrimaPagina : sqlPagina)) {
+            int i = 1;
+            st.setString(i++, codiceCollo);
+            if (token != null) {
+                int sep = token.lastIndexOf('|');
+                if (sep < 0) {
+                    throw new IllegalArgumentException("Token di paginazione non valido: " + token);
+                }
+                st.setLong(i++, Long.parseLong(token.substring(0, sep)));
+                st.setLong(i++, Long.parseLong(token.substring(sep + 1)));
+            }
+            // Una riga in più per sapere se esiste una pagina successiva
+            st.setInt(i, dimensione + 1);
+
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    if (eventi.size() == dimensione) {
+                        altri = true;
+                        break;
+                    }
+                    EventoTracking evento = leggiEvento(rs);
+                    ultimoTimestamp = evento.getIstante();
+                    ultimoId = rs.getLong("id");
+                    eventi.add(evento);
+                }
+            }
+        }
+
+        return new PaginaStorico(eventi, altri ? ultimoTimestamp + "|" + ultimoId : null);
+    }
+
+    /**
+     * Conta gli eventi di storico di un collo (solo indice, nessuna riga caricata).
+     */
+    @Override
+    public int contaEventiStorico(String codiceCollo) {
+        try (Connection conn = connessione()) {
+            int eventi = contaStorico(conn, COUNT_STORICO, codiceCollo);
+            return eventi > 0 ? eventi : contaStorico(conn, COUNT_STORICO_ARCHIVIO, codiceCollo);
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in contaEventiStorico per " + codiceCollo, e);
+        }
+    }
+
+    private int contaStorico(Connection conn, String sql, String codiceCollo) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(sql)) {
+            st.setString(1, codiceCollo);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
 
     // =================================================================================
     // SEZIONE 4: AGGIORNAMENTI (Update)
@@ -333,48 +1049,259 @@ public class GestoreDatabase {
     /**
      * Aggiorna lo stato di un collo esistente.
      */
+    @Override
     public void salvaCollo(ICollo c) {
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             PreparedStatement st = conn.prepareStatement(UPDATE_STATO_COLLO)) {
-
-            st.setString(1, c.getStato());
-            st.setString(2, c.getCodice());
-
-            st.executeUpdate();
-
+        final StatoCollo stato = c.getStato();
+        final String codice = c.getCodice();
+
+        try {
+            scrivi(new ScrittoreDB.Scrittura<Integer>() {
+                @Override
+                public Integer esegui(Connection conn) throws SQLException {
+                    try (PreparedStatement st = conn.prepareStatement(UPDATE_STATO_COLLO)) {
+                        st.setInt(1, stato.getCodice());
+                        st.setString(2, codice);
+                        return st.executeUpdate();
+                    }
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Errore DB in salvaCollo " + c.getCodice(), e);
+        } finally {
+            CacheColli.getInstance().invalida(codice);
         }
     }
 
     /**
      * Inserisce una nuova riga nella tabella storico.
      */
-    public void aggiornaTracking(String codiceCollo, String descrizione) {
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             PreparedStatement st = conn.prepareStatement(INSERT_STORICO)) {
+    @Override
+    public void aggiornaTracking(final String codiceCollo, final EventoTracking evento) {
+        try {
+            scrivi(new ScrittoreDB.Scrittura<Integer>() {
+                @Override
+                public Integer esegui(Connection conn) throws SQLException {
+                    try (PreparedStatement st = conn.prepareStatement(INSERT_STORICO)) {
+                        legaEvento(st, codiceCollo, evento);
+                        return st.executeUpdate();
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in aggiornaTracking per " + codiceCollo, e);
+        } finally {
+            CacheColli.getInstance().invalida(codiceCollo);
+        }
+    }
 
-            st.setString(1, codiceCollo);
-            st.setString(2, descrizione);
+    /**
+     * Rende persistente un'intera {@link UnitaDiLavoro} in un'unica transazione.
+     * <p>
+     * Aggiornamenti dei colli e righe di storico vengono inviati come statement batch
+     * dentro una sola scrittura dello {@link ScrittoreDB}. Se qualcosa fallisce viene annullata
+     * l'intera unità: il DB non resta mai caricato a metà.
+     * </p>
+     *
+     * @return Esito con il numero di righe scritte e la durata della fase di commit.
+     * @throws RuntimeException Se la transazione fallisce (nessuna modifica viene applicata).
+     */
+    @Override
+    public EsitoBatch eseguiUnitaDiLavoro(final UnitaDiLavoro unita) {
+        EsitoBatch esito = new EsitoBatch();
+        if (unita == null || unita.isVuota()) return esito;
+
+        long inizio = System.nanoTime();
+        final int dimensione = dimensioneBatch;
+
+        try {
+            scrivi(new ScrittoreDB.Scrittura<Void>() {
+                @Override
+                public Void esegui(Connection conn) throws SQLException {
+                    try (PreparedStatement psColli = conn.prepareStatement(UPDATE_COLLO_CARICATO);
+                         PreparedStatement psStorico = conn.prepareStatement(INSERT_STORICO)) {
+
+                        int inCoda = 0;
+                        for (UnitaDiLavoro.Associazione a : unita.getAssociazioni()) {
+                            psColli.setInt(1, a.getStato().getCodice());
+                            psColli.setString(2, a.getCodiceVeicolo());
+                            psColli.setString(3, a.getCodiceCollo());
+                            psColli.addBatch();
+                            if (++inCoda == dimensione) {
+                                psColli.executeBatch();
+                                inCoda = 0;
+                            }
+                        }
+                        psColli.executeBatch();
+
+                        inCoda = 0;
+                        for (UnitaDiLavoro.RigaStorico r : unita.getEventi()) {
+                            legaEvento(psStorico, r.getCodiceCollo(), r.getEvento());
+                            psStorico.addBatch();
+                            if (++inCoda == dimensione) {
+                                psStorico.executeBatch();
+                                inCoda = 0;
+                            }
+                        }
+                        psStorico.executeBatch();
+                    }
+                    return null;
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore DB in eseguiUnitaDiLavoro (rollback eseguito): " + e.getMessage(), e);
+        } finally {
+            // Anche in caso di errore: l'esito di una scrittura interrotta potrebbe non essere noto
+            CacheColli.getInstance().invalida(codiciToccati(unita));
+        }
 
-            st.executeUpdate();
+        esito.aggiungiScritte(unita.getNumeroOperazioni());
+        esito.setDurataNanos(System.nanoTime() - inizio);
+        return esito;
+    }
 
-        } catch (SQLException e) {
-            throw new RuntimeException("Errore DB in aggiornaTracking per " + codiceCollo, e);
+    /**
+     * Codici dei colli su cui un'unità di lavoro scrive (da togliere dalla cache).
+     */
+    private static Set<String> codiciToccati(UnitaDiLavoro unita) {
+        Set<String> codici = new HashSet<>();
+        for (UnitaDiLavoro.Associazione a : unita.getAssociazioni()) {
+            codici.add(a.getCodiceCollo());
         }
+        for (UnitaDiLavoro.RigaStorico r : unita.getEventi()) {
+            codici.add(r.getCodiceCollo());
+        }
+        return codici;
     }
 
     /**
      * Utility per pulire le tabelle (utile nei test).
      */
+    @Override
     public void resetTabelle() {
-        try (Connection conn = ConnessioneDB.getInstance().getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.executeUpdate("DELETE FROM veicoli");
-            // stmt.executeUpdate("DELETE FROM colli"); // Decommentare se necessario
+        try {
+            scrivi(new ScrittoreDB.Scrittura<Integer>() {
+                @Override
+                public Integer esegui(Connection conn) throws SQLException {
+                    try (Statement stmt = conn.createStatement()) {
+                        // stmt.executeUpdate("DELETE FROM colli"); // Decommentare se necessario
+                        return stmt.executeUpdate("DELETE FROM veicoli");
+                    }
+                }
+            });
+            CacheColli.getInstance().svuota();
             System.out.println("[DB] Tabelle veicoli resettata.");
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Ricostruisce l'evento dalla riga corrente (colonne timestamp, tipo, luogo).
+     */
+    private static EventoTracking leggiEvento(ResultSet rs) throws SQLException {
+        return new EventoTracking(rs.getLong("timestamp"),
+                EventoTracking.Tipo.daCodice(rs.getInt("tipo")),
+                rs.getString("luogo"));
+    }
+
+    /**
+     * Imposta i parametri di {@link #INSERT_STORICO}.
+     */
+    private static void legaEvento(PreparedStatement ps, String codiceCollo, EventoTracking evento) throws SQLException {
+        if (evento == null) {
+            throw new IllegalArgumentException("Evento di tracking mancante per " + codiceCollo);
+        }
+        ps.setString(1, codiceCollo);
+        ps.setLong(2, evento.getIstante());
+        ps.setInt(3, evento.getTipo().getCodice());
+        ps.setString(4, evento.getLuogo());
+    }
+
+    /**
+     * Invia una modifica all'unico scrittore del database e ne attende la conferma.
+     */
+    private static <T> T scrivi(final ScrittoreDB.Scrittura<T> scrittura) throws SQLException {
+        return ConnessioneDB.getInstance().getScrittore().esegui(new ScrittoreDB.Scrittura<T>() {
+            @Override
+            public T esegui(Connection conn) throws SQLException {
+                return scrittura.esegui(StatisticheQuery.getInstance().strumenta(conn));
+            }
+        });
+    }
+
+    /**
+     * Connessione in lettura dal pool, con le query misurate da {@link StatisticheQuery}.
+     */
+    private static Connection connessione() throws SQLException {
+        return StatisticheQuery.getInstance().strumenta(ConnessioneDB.getInstance().getConnection());
+    }
+
+    private static void chiudiSilenziosamente(AutoCloseable risorsa) {
+        if (risorsa == null) return;
+        try {
+            risorsa.close();
+        } catch (Exception e) {
+            // Già in fase di errore: la chiusura è "best effort"
+        }
+    }
+
+    /**
+     * Implementazione JDBC di {@link CursoreColli}: converte una riga alla volta in {@link ColloProxy}.
+     */
+    private static class CursoreColliJdbc implements CursoreColli {
+
+        private final Connection conn;
+        private final Statement st;
+        private final ResultSet rs;
+        private final IPersistenza persistenza;
+        private Boolean haProssimo = null;
+        private boolean chiuso = false;
+
+        CursoreColliJdbc(Connection conn, Statement st, ResultSet rs, IPersistenza persistenza) {
+            this.conn = conn;
+            this.st = st;
+            this.rs = rs;
+            this.persistenza = persistenza;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (chiuso) return false;
+            if (haProssimo == null) {
+                try {
+                    haProssimo = rs.next();
+                } catch (SQLException e) {
+                    close();
+                    throw new RuntimeException("Errore DB durante la lettura del cursore colli", e);
+                }
+                if (!haProssimo) {
+                    close(); // fine dei dati: liberiamo subito la connessione
+                }
+            }
+            return haProssimo;
+        }
+
+        @Override
+        public ICollo next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            haProssimo = null;
+            try {
+                return ColloProxy.interna(rs.getString("codice"), StatoCollo.daCodice(rs.getInt("stato")), persistenza);
+            } catch (SQLException e) {
+                close();
+                throw new RuntimeException("Errore DB durante la lettura del cursore colli", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (chiuso) return;
+            chiuso = true;
+            chiudiSilenziosamente(rs);
+            chiudiSilenziosamente(st);
+            chiudiSilenziosamente(conn);
+        }
+    }
+}
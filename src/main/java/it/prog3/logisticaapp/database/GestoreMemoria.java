@@ -0,0 +1,765 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Motore di persistenza interamente in memoria (nessun I/O).
+ * <p>
+ * Pensato per test, benchmark del packing e prove di capacità su milioni di righe.
+ * Riproduce la semantica di {@link GestoreDatabase}: stessi ordinamenti, stessa paginazione
+ * keyset, stessi esiti per le righe rifiutate.
+ * </p>
+ * <p>
+ * Struttura:
+ * <ul>
+ *     <li>Tabelle primarie in {@link ConcurrentHashMap} (lookup per codice senza lock);
+ *     le righe sono immutabili e vengono sostituite ad ogni aggiornamento.</li>
+ *     <li>Indici secondari per stato e per veicolo, ordinati per codice.</li>
+ *     <li>Un lock lettura/scrittura mantiene indici e storico coerenti: le letture procedono
+ *     in parallelo, le scritture (e le unit of work) sono atomiche.</li>
+ *     <li>Un registro delle modifiche della flotta (versione -> veicoli toccati), come la tabella
+ *     {@code modifiche_flotta} del DB, per gli aggiornamenti incrementali.</li>
+ * </ul>
+ * </p>
+ */
+public class GestoreMemoria implements IPersistenza {
+
+    // Tabelle primarie (indice hash sul codice)
+    private final ConcurrentMap<String, RigaVeicolo> veicoli = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RigaCollo> colli = new ConcurrentHashMap<>();
+
+    // Indici secondari e storico (protetti dal lock)
+    private final Map<StatoCollo, NavigableSet<String>> colliPerStato = new EnumMap<>(StatoCollo.class);
+    private final Map<String, NavigableSet<String>> colliPerVeicolo = new HashMap<>();
+    private final Map<String, List<RigaStorico>> storico = new HashMap<>();
+
+    // Registro delle modifiche della flotta (protetto dal lock), potato oltre MAX_REGISTRO_FLOTTA versioni
+    private static final int MAX_REGISTRO_FLOTTA = 10000;
+    private final TreeMap<Long, Set<String>> registroFlotta = new TreeMap<>();
+    private long epocaFlotta = System.nanoTime();
+    private long versioneFlotta = 0;
+
+    private final AtomicLong sequenzaStorico = new AtomicLong();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public GestoreMemoria() {}
+
+    // =================================================================================
+    // SEZIONE 1: FLOTTA (Lettura)
+    // =================================================================================
+
+    @Override
+    public List<Azienda> getFlottaAll() {
+        return costruisciFlotta(null, null);
+    }
+
+    @Override
+    public List<IVeicolo> getFlottaAzienda(String nomeAzienda) {
+        List<IVeicolo> flotta = new ArrayList<>();
+        for (Azienda az : costruisciFlotta(nomeAzienda, null)) {
+            flotta.addAll(az.getFlotta());
+        }
+        return flotta;
+    }
+
+    /**
+     * Come la versione SQL: la versione viene letta prima dei veicoli, quindi una modifica
+     * concorrente può essere riportata due volte ma mai persa.
+     */
+    @Override
+    public ModificheFlotta getModificheFlotta(VersioneFlotta da) {
+        VersioneFlotta versione;
+        Set<String> modificati = new HashSet<>();
+        boolean completa;
+
+        lock.readLock().lock();
+        try {
+            versione = new VersioneFlotta(epocaFlotta, versioneFlotta);
+            completa = !versione.seguiva(da);
+            if (!completa && versioneFlotta > da.getContatore()) {
+                // Ogni versione ha una voce: se manca la prima successiva a "da", il registro è stato potato
+                completa = registroFlotta.isEmpty() || registroFlotta.firstKey() > da.getContatore() + 1;
+                if (!completa) {
+                    for (Set<String> codici : registroFlotta.tailMap(da.getContatore(), false).values()) {
+                        modificati.addAll(codici);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (completa) {
+            return ModificheFlotta.completa(versione, costruisciFlotta(null, null));
+        }
+        if (modificati.isEmpty()) {
+            return ModificheFlotta.incrementale(versione, modificati, Collections.<Azienda>emptyList());
+        }
+        return ModificheFlotta.incrementale(versione, modificati, costruisciFlotta(null, modificati));
+    }
+
+    /**
+     * Ricostruisce il grafo Azienda -> Veicoli -> Colli (ordinato per azienda e codice veicolo).
+     *
+     * @param filtroAzienda Nome dell'azienda da includere, oppure null per tutte.
+     * @param filtroVeicoli Codici dei veicoli da includere, oppure null per tutti.
+     */
+    private List<Azienda> costruisciFlotta(String filtroAzienda, Set<String> filtroVeicoli) {
+        List<RigaVeicolo> righe = new ArrayList<>();
+        for (RigaVeicolo r : veicoli.values()) {
+            if ((filtroAzienda == null || filtroAzienda.equals(r.azienda))
+                    && (filtroVeicoli == null || filtroVeicoli.contains(r.codice))) {
+                righe.add(r);
+            }
+        }
+        Collections.sort(righe, new Comparator<RigaVeicolo>() {
+            @Override
+            public int compare(RigaVeicolo a, RigaVeicolo b) {
+                int c = a.azienda.compareTo(b.azienda);
+                return c != 0 ? c : a.codice.compareTo(b.codice);
+            }
+        });
+
+        Map<String, Azienda> aziende = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            for (RigaVeicolo r : righe) {
+                String chiave = r.azienda.toLowerCase();
+                Azienda az = aziende.get(chiave);
+                if (az == null) {
+                    az = new AziendaConcreta(r.azienda);
+                    aziende.put(chiave, az);
+                }
+
+                IVeicolo v;
+                try {
+                    v = az.createVeicolo(r.tipo, r.codice);
+                } catch (IllegalArgumentException e) {
+                    v = null;
+                }
+                if (v == null) {
+                    System.err.println("Skip veicolo: " + r.codice);
+                    continue;
+                }
+
+                for (ICollo c : proxyDaCodici(colliPerVeicolo.get(r.codice))) {
+                    v.caricaCollo(c);
+                }
+                az.aggiungiVeicoloEsistente(v);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new ArrayList<>(aziende.values());
+    }
+
+    @Override
+    public List<ICollo> getColliPerVeicolo(String codiceVeicolo) {
+        lock.readLock().lock();
+        try {
+            return proxyDaCodici(colliPerVeicolo.get(codiceVeicolo));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // =================================================================================
+    // SEZIONE 2: INSERIMENTI
+    // =================================================================================
+
+    @Override
+    public void inserisciCollo(ICollo c) {
+        EsitoBatch esito = inserisciColli(Collections.singletonList(c));
+        if (!esito.isCompleto()) {
+            System.err.println("Errore inserimento collo " + esito.getErrori().get(0));
+        }
+    }
+
+    @Override
+    public EsitoBatch inserisciColli(Collection<? extends ICollo> nuovi) {
+        EsitoBatch esito = new EsitoBatch();
+        if (nuovi == null || nuovi.isEmpty()) return esito;
+        long inizio = System.nanoTime();
+
+        lock.writeLock().lock();
+        try {
+            for (ICollo c : nuovi) {
+                String codice = null;
+                try {
+                    codice = c.getCodice();
+                    if (codice == null || codice.trim().isEmpty()) {
+                        throw new IllegalArgumentException("Codice collo mancante.");
+                    }
+                    if (c.getStato() == null) {
+                        throw new IllegalArgumentException("Stato collo mancante.");
+                    }
+                    if (colli.containsKey(codice)) {
+                        throw new IllegalArgumentException("UNIQUE constraint failed: colli.codice");
+                    }
+                    RigaCollo riga = new RigaCollo(codice, c.getPeso(), c.getStato(),
+                            c.getMittente(), c.getDestinatario(), null);
+                    colli.put(codice, riga);
+                    aggiungiAIndice(colliPerStato, riga.stato, codice);
+                    esito.aggiungiScritte(1);
+                } catch (RuntimeException e) {
+                    esito.aggiungiErrore(codice != null ? codice : String.valueOf(c), e.getMessage());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        esito.setDurataNanos(System.nanoTime() - inizio);
+        return esito;
+    }
+
+    @Override
+    public void inserisciVeicolo(IVeicolo v, String nomeAzienda) {
+        EsitoBatch esito = inserisciVeicoli(Collections.singletonList(v), nomeAzienda);
+        if (!esito.isCompleto()) {
+            System.err.println("Errore inserimento veicolo " + esito.getErrori().get(0));
+        }
+    }
+
+    @Override
+    public EsitoBatch inserisciVeicoli(Collection<? extends IVeicolo> nuovi, String nomeAzienda) {
+        return inserisciVeicoli(Collections.singletonMap(nomeAzienda, nuovi));
+    }
+
+    @Override
+    public EsitoBatch inserisciVeicoli(Map<String, ? extends Collection<? extends IVeicolo>> veicoliPerAzienda) {
+        EsitoBatch esito = new EsitoBatch();
+        if (veicoliPerAzienda == null || veicoliPerAzienda.isEmpty()) return esito;
+        long inizio = System.nanoTime();
+
+        // Un solo lock di scrittura per tutte le aziende: come la transazione unica su SQLite
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, ? extends Collection<? extends IVeicolo>> e : veicoliPerAzienda.entrySet()) {
+                if (e.getValue() == null) continue;
+                String nomeAzienda = e.getKey();
+                for (IVeicolo v : e.getValue()) {
+                    String codice = v.getCodice();
+                    if (nomeAzienda == null) {
+                        esito.aggiungiErrore(codice, "NOT NULL constraint failed: veicoli.azienda");
+                    } else if (veicoli.putIfAbsent(codice, new RigaVeicolo(codice, v.getTipo(), v.getCapienza(), nomeAzienda)) != null) {
+                        esito.aggiungiErrore(codice, "UNIQUE constraint failed: veicoli.codice");
+                    } else {
+                        registraModificaFlotta(codice, null);
+                        esito.aggiungiScritte(1);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        esito.setDurataNanos(System.nanoTime() - inizio);
+        return esito;
+    }
+
+    @Override
+    public EsitoBatch inserisciAzienda(Azienda azienda) {
+        if (azienda == null) return new EsitoBatch();
+        return inserisciVeicoli(azienda.getFlotta(), azienda.getNome());
+    }
+
+    // =================================================================================
+    // SEZIONE 3: COLLI (Lettura Proxy & Real)
+    // =================================================================================
+
+    @Override
+    public List<ICollo> getColliInPreparazione() {
+        lock.readLock().lock();
+        try {
+            return proxyDaCodici(colliPerStato.get(StatoCollo.IN_PREPARAZIONE));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ICollo> getColliInPreparazione(String dopoCodice, int limite) {
+        List<ICollo> pagina = new ArrayList<>();
+        if (limite <= 0) return pagina;
+
+        lock.readLock().lock();
+        try {
+            NavigableSet<String> indice = colliPerStato.get(StatoCollo.IN_PREPARAZIONE);
+            if (indice == null) return pagina;
+
+            NavigableSet<String> coda = (dopoCodice == null) ? indice : indice.tailSet(dopoCodice, false);
+            for (String codice : coda) {
+                if (pagina.size() == limite) break;
+                pagina.add(ColloProxy.interna(codice, colli.get(codice).stato, this));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return pagina;
+    }
+
+    /**
+     * Il cursore legge l'indice a blocchi di {@code fetchSize} codici (keyset),
+     * senza tenere il lock tra un blocco e l'altro.
+     */
+    @Override
+    public CursoreColli apriCursoreColliInPreparazione(int fetchSize) {
+        return new CursoreMemoria(Math.max(1, fetchSize));
+    }
+
+    @Override
+    public int contaColliInPreparazione() {
+        lock.readLock().lock();
+        try {
+            NavigableSet<String> indice = colliPerStato.get(StatoCollo.IN_PREPARAZIONE);
+            return indice == null ? 0 : indice.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ICollo getColloProxy(String codice) {
+        if (codice == null) return null;
+        RigaCollo riga = colli.get(codice);
+        return riga == null ? null : ColloProxy.interna(riga.codice, riga.stato, this);
+    }
+
+    @Override
+    public RiepilogoTracking getRiepilogoTracking(String codice) {
+        if (codice == null) return null;
+        lock.readLock().lock();
+        try {
+            RigaCollo riga = colli.get(codice);
+            if (riga == null) return null;
+            List<RigaStorico> eventi = storico.get(codice);
+            if (eventi == null || eventi.isEmpty()) {
+                return new RiepilogoTracking(riga.codice, riga.stato, 0, null);
+            }
+            // La lista è ordinata per (istante, id): l'ultimo elemento è il più recente
+            return new RiepilogoTracking(riga.codice, riga.stato, eventi.size(), eventi.get(eventi.size() - 1).evento);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ColloReale getColloRealeCompleto(String codice) {
+        if (codice == null) return null;
+        RigaCollo riga = colli.get(codice);
+        if (riga == null) return null;
+
+        ColloReale reale = new ColloReale();
+        reale.setCodice(riga.codice);
+        reale.setStato(riga.stato);
+        reale.setPeso(riga.peso);
+        reale.setMittente(riga.mittente);
+        reale.setDestinatario(riga.destinatario);
+        reale.setStorico(getStoricoPerCollo(codice));
+        return reale;
+    }
+
+    @Override
+    public Map<String, ColloReale> getColliRealiCompleti(Collection<String> codici) {
+        // In memoria non ci sono round trip da risparmiare: basta il caricamento singolo
+        Map<String, ColloReale> reali = new HashMap<>();
+        for (String codice : codici) {
+            ColloReale reale = getColloRealeCompleto(codice);
+            if (reale != null) reali.put(codice, reale);
+        }
+        return reali;
+    }
+
+    // =================================================================================
+    // SEZIONE 4: STORICO
+    // =================================================================================
+
+    @Override
+    public List<EventoTracking> getStoricoPerCollo(String codiceCollo) {
+        List<EventoTracking> risultato = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            List<RigaStorico> eventi = storico.get(codiceCollo);
+            if (eventi != null) {
+                for (int i = eventi.size() - 1; i >= 0; i--) {
+                    risultato.add(eventi.get(i).evento);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return risultato;
+    }
+
+    @Override
+    public PaginaStorico getStoricoPagina(String codiceCollo, String token, int dimensione) {
+        if (dimensione <= 0) {
+            throw new IllegalArgumentException("La dimensione della pagina deve essere maggiore di zero.");
+        }
+
+        List<EventoTracking> pagina = new ArrayList<>();
+        String tokenSuccessivo = null;
+
+        lock.readLock().lock();
+        try {
+            List<RigaStorico> eventi = storico.get(codiceCollo);
+            if (eventi == null) return new PaginaStorico(pagina, null);
+
+            // Posizione di partenza: l'evento subito più vecchio di quello indicato dal token
+            int i = eventi.size() - 1;
+            if (token != null) {
+                int sep = token.lastIndexOf('|');
+                if (sep < 0) {
+                    throw new IllegalArgumentException("Token di paginazione non valido: " + token);
+                }
+                i = cercaPrimoPrecedente(eventi, Long.parseLong(token.substring(0, sep)),
+                        Long.parseLong(token.substring(sep + 1)));
+            }
+
+            for (; i >= 0 && pagina.size() < dimensione; i--) {
+                pagina.add(eventi.get(i).evento);
+            }
+            if (i >= 0) {
+                RigaStorico ultimo = eventi.get(i + 1);
+                tokenSuccessivo = ultimo.evento.getIstante() + "|" + ultimo.id;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new PaginaStorico(pagina, tokenSuccessivo);
+    }
+
+    /**
+     * Ricerca binaria sull'ordine (istante, id), lo stesso dell'indice SQL.
+     *
+     * @return Indice dell'ultimo evento che precede (istante, id), oppure -1.
+     */
+    private int cercaPrimoPrecedente(List<RigaStorico> eventi, long istante, long id) {
+        int basso = 0;
+        int alto = eventi.size() - 1;
+        int risultato = -1;
+        while (basso <= alto) {
+            int medio = (basso + alto) >>> 1;
+            if (eventi.get(medio).precede(istante, id)) {
+                risultato = medio;
+                basso = medio + 1;
+            } else {
+                alto = medio - 1;
+            }
+        }
+        return risultato;
+    }
+
+    @Override
+    public int contaEventiStorico(String codiceCollo) {
+        lock.readLock().lock();
+        try {
+            List<RigaStorico> eventi = storico.get(codiceCollo);
+            return eventi == null ? 0 : eventi.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // =================================================================================
+    // SEZIONE 5: AGGIORNAMENTI
+    // =================================================================================
+
+    @Override
+    public void salvaCollo(ICollo c) {
+        lock.writeLock().lock();
+        try {
+            aggiornaRiga(c.getCodice(), c.getStato(), false, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void associaColloVeicolo(ICollo c, String codiceVeicolo) {
+        lock.writeLock().lock();
+        try {
+            aggiornaRiga(c.getCodice(), c.getStato(), true, codiceVeicolo);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void aggiornaTracking(String codiceCollo, EventoTracking evento) {
+        lock.writeLock().lock();
+        try {
+            aggiungiStorico(codiceCollo, evento);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tutte le operazioni vengono applicate sotto un unico lock di scrittura:
+     * nessun lettore può osservare la unit of work applicata a metà.
+     */
+    @Override
+    public EsitoBatch eseguiUnitaDiLavoro(UnitaDiLavoro unita) {
+        EsitoBatch esito = new EsitoBatch();
+        if (unita == null || unita.isVuota()) return esito;
+        long inizio = System.nanoTime();
+
+        lock.writeLock().lock();
+        try {
+            for (UnitaDiLavoro.Associazione a : unita.getAssociazioni()) {
+                aggiornaRiga(a.getCodiceCollo(), a.getStato(), true, a.getCodiceVeicolo());
+            }
+            for (UnitaDiLavoro.RigaStorico r : unita.getEventi()) {
+                aggiungiStorico(r.getCodiceCollo(), r.getEvento());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        esito.aggiungiScritte(unita.getNumeroOperazioni());
+        esito.setDurataNanos(System.nanoTime() - inizio);
+        return esito;
+    }
+
+    @Override
+    public void resetTabelle() {
+        lock.writeLock().lock();
+        try {
+            veicoli.clear();
+            // Come un DB ricreato: le versioni precedenti non sono più confrontabili
+            epocaFlotta = System.nanoTime();
+            versioneFlotta = 0;
+            registroFlotta.clear();
+            System.out.println("[Memoria] Tabelle veicoli resettata.");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // =================================================================================
+    // METODI DI SUPPORTO (chiamati con il lock già acquisito)
+    // =================================================================================
+
+    /**
+     * Sostituisce la riga del collo aggiornando gli indici. Come un UPDATE SQL,
+     * se il codice non esiste non fa nulla.
+     */
+    private void aggiornaRiga(String codice, StatoCollo nuovoStato, boolean cambiaVeicolo, String nuovoVeicolo) {
+        RigaCollo vecchia = colli.get(codice);
+        if (vecchia == null) return;
+
+        String veicolo = cambiaVeicolo ? nuovoVeicolo : vecchia.veicolo;
+        RigaCollo nuova = new RigaCollo(codice, vecchia.peso, nuovoStato, vecchia.mittente, vecchia.destinatario, veicolo);
+        colli.put(codice, nuova);
+
+        if (vecchia.stato != nuovoStato) {
+            rimuoviDaIndice(colliPerStato, vecchia.stato, codice);
+            aggiungiAIndice(colliPerStato, nuovoStato, codice);
+        }
+        if (!uguali(vecchia.veicolo, veicolo)) {
+            rimuoviDaIndice(colliPerVeicolo, vecchia.veicolo, codice);
+            aggiungiAIndice(colliPerVeicolo, veicolo, codice);
+        }
+
+        // Stessa condizione del trigger SQL: conta solo ciò che cambia il grafo della flotta
+        if (!uguali(vecchia.veicolo, veicolo) || (veicolo != null && vecchia.stato != nuovoStato)) {
+            registraModificaFlotta(vecchia.veicolo, veicolo);
+        }
+    }
+
+    /**
+     * Nuova versione della flotta con i veicoli toccati (i null vengono ignorati).
+     */
+    private void registraModificaFlotta(String veicolo, String altroVeicolo) {
+        Set<String> codici = new HashSet<>();
+        if (veicolo != null) codici.add(veicolo);
+        if (altroVeicolo != null) codici.add(altroVeicolo);
+        registroFlotta.put(++versioneFlotta, codici);
+        while (registroFlotta.size() > MAX_REGISTRO_FLOTTA) {
+            registroFlotta.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Inserisce l'evento mantenendo la lista ordinata per (istante, id).
+     * Di norma gli eventi arrivano in ordine e l'inserimento è in coda.
+     */
+    private void aggiungiStorico(String codiceCollo, EventoTracking evento) {
+        if (evento == null) {
+            throw new IllegalArgumentException("Evento di tracking mancante per " + codiceCollo);
+        }
+        List<RigaStorico> eventi = storico.get(codiceCollo);
+        if (eventi == null) {
+            eventi = new ArrayList<>();
+            storico.put(codiceCollo, eventi);
+        }
+        RigaStorico riga = new RigaStorico(sequenzaStorico.incrementAndGet(), evento);
+        int posizione = eventi.size();
+        while (posizione > 0 && !eventi.get(posizione - 1).precede(evento.getIstante(), riga.id)) {
+            posizione--;
+        }
+        eventi.add(posizione, riga);
+    }
+
+    private static <K> void aggiungiAIndice(Map<K, NavigableSet<String>> indice, K chiave, String codice) {
+        if (chiave == null) return;
+        NavigableSet<String> codici = indice.get(chiave);
+        if (codici == null) {
+            codici = new TreeSet<>();
+            indice.put(chiave, codici);
+        }
+        codici.add(codice);
+    }
+
+    private static <K> void rimuoviDaIndice(Map<K, NavigableSet<String>> indice, K chiave, String codice) {
+        if (chiave == null) return;
+        NavigableSet<String> codici = indice.get(chiave);
+        if (codici != null) {
+            codici.remove(codice);
+            if (codici.isEmpty()) indice.remove(chiave);
+        }
+    }
+
+    private static boolean uguali(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private List<ICollo> proxyDaCodici(Collection<String> codici) {
+        List<ICollo> lista = new ArrayList<>();
+        if (codici == null) return lista;
+        for (String codice : codici) {
+            RigaCollo riga = colli.get(codice);
+            if (riga != null) {
+                lista.add(ColloProxy.interna(codice, riga.stato, this));
+            }
+        }
+        return lista;
+    }
+
+    // =================================================================================
+    // CLASSI INTERNE
+    // =================================================================================
+
+    /**
+     * Riga (immutabile) della "tabella" colli.
+     */
+    private static class RigaCollo {
+        private final String codice;
+        private final double peso;
+        private final StatoCollo stato;
+        private final String mittente;
+        private final String destinatario;
+        private final String veicolo;
+
+        RigaCollo(String codice, double peso, StatoCollo stato, String mittente, String destinatario, String veicolo) {
+            this.codice = codice;
+            this.peso = peso;
+            this.stato = stato;
+            this.mittente = mittente;
+            this.destinatario = destinatario;
+            this.veicolo = veicolo;
+        }
+    }
+
+    /**
+     * Riga (immutabile) della "tabella" veicoli.
+     */
+    private static class RigaVeicolo {
+        private final String codice;
+        private final String tipo;
+        private final int capienza;
+        private final String azienda;
+
+        RigaVeicolo(String codice, String tipo, int capienza, String azienda) {
+            this.codice = codice;
+            this.tipo = tipo;
+            this.capienza = capienza;
+            this.azienda = azienda;
+        }
+    }
+
+    /**
+     * Evento di storico (immutabile).
+     */
+    private static class RigaStorico {
+        private final long id;
+        private final EventoTracking evento;
+
+        RigaStorico(long id, EventoTracking evento) {
+            this.id = id;
+            this.evento = evento;
+        }
+
+        /**
+         * @return true se questa riga viene prima di (istante, id).
+         */
+        boolean precede(long istante, long altroId) {
+            long mio = evento.getIstante();
+            return mio < istante || (mio == istante && id < altroId);
+        }
+    }
+
+    /**
+     * Cursore keyset sull'indice dei colli in preparazione.
+     */
+    private class CursoreMemoria implements CursoreColli {
+
+        private final int fetchSize;
+        private List<ICollo> blocco = new ArrayList<>();
+        private int posizione = 0;
+        private String ultimoCodice = null;
+        private boolean finito = false;
+
+        CursoreMemoria(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (posizione < blocco.size()) return true;
+            if (finito) return false;
+
+            blocco = getColliInPreparazione(ultimoCodice, fetchSize);
+            posizione = 0;
+            if (blocco.size() < fetchSize) finito = true;
+            if (!blocco.isEmpty()) ultimoCodice = blocco.get(blocco.size() - 1).getCodice();
+            return !blocco.isEmpty();
+        }
+
+        @Override
+        public ICollo next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return blocco.get(posizione++);
+        }
+
+        @Override
+        public void close() {
+            finito = true;
+            blocco = Collections.emptyList();
+        }
+    }
+}
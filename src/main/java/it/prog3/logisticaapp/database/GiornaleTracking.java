@@ -0,0 +1,418 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.EventoTracking;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Giornale "write-behind" degli eventi di tracking.
+ * <p>
+ * I chiamanti (es. il corriere che registra una tappa) accodano gli eventi in una coda limitata;
+ * un unico thread scrittore li raccoglie in micro-lotti (per numero o per tempo) e li salva
+ * con una sola transazione batch ({@link IPersistenza#eseguiUnitaDiLavoro}).
+ * Così i writer non si serializzano più sul lock di SQLite una riga alla volta.
+ * </p>
+ * <p>
+ * Una tappa entra in coda come <b>una sola voce</b> con tutti i suoi colli: o è accodata per intero
+ * o viene rifiutata, e finisce sempre in un unico lotto (quindi in un'unica transazione).
+ * </p>
+ * <p>
+ * Politiche di durabilità:
+ * <ul>
+ *     <li>{@link Durabilita#ACK_COMMIT}: il chiamante attende il commit dei propri eventi (default).</li>
+ *     <li>{@link Durabilita#ACK_ACCODAMENTO}: il chiamante riparte appena l'evento è in coda;
+ *     gli errori di scrittura vengono solo registrati nel log.</li>
+ * </ul>
+ * Se la coda è piena il chiamante viene rallentato (backpressure) fino al timeout di accodamento.
+ * Alla chiusura dell'applicazione la coda viene svuotata su DB.
+ * </p>
+ * <p>
+ * I lotti li scrive solo il thread dedicato. Accodamento e chiusura si escludono a vicenda
+ * (lock lettura/scrittura): dopo {@link #chiudi()} nessun evento può entrare in coda, quindi
+ * l'ultimo svuotamento del thread li comprende tutti. Le attese dei chiamanti sono limitate
+ * e, se il thread scrittore termina per un errore, le ricevute ancora aperte falliscono subito.
+ * </p>
+ */
+public class GiornaleTracking {
+
+    public enum Durabilita {
+        ACK_ACCODAMENTO,
+        ACK_COMMIT
+    }
+
+    private static GiornaleTracking istanzaDefault;
+
+    private final IPersistenza persistenza;
+    private final BlockingQueue<Voce> coda;
+    private final int dimensioneLotto;
+    private final long attesaLottoMs;
+    private final long timeoutAccodamentoMs;
+    private final long attesaCommitMs;
+    private final Durabilita durabilita;
+    private final Thread scrittore;
+    private volatile boolean chiuso = false;
+
+    // Lettura: accodamento (anche in parallelo). Scrittura: chiusura (nessun accodamento in corso)
+    private final ReadWriteLock accesso = new ReentrantReadWriteLock();
+
+    // Statistiche
+    private final AtomicLong eventiAccodati = new AtomicLong();
+    private final AtomicLong eventiScritti = new AtomicLong();
+    private final AtomicLong lottiScritti = new AtomicLong();
+    private final AtomicLong eventiPersi = new AtomicLong();
+    private final AtomicLong attesePerCodaPiena = new AtomicLong();
+
+    /**
+     * @param persistenza          DAO usato per la scrittura dei lotti.
+     * @param capacitaCoda         Numero massimo di voci (tappe o eventi singoli) in attesa di scrittura.
+     * @param dimensioneLotto      Eventi dopo i quali il lotto si chiude; una tappa non viene mai divisa,
+     *                             quindi un lotto può superarlo al più di una tappa.
+     * @param attesaLottoMs        Tempo massimo di attesa per riempire un lotto.
+     * @param timeoutAccodamentoMs Attesa massima del chiamante quando la coda è piena.
+     * @param attesaCommitMs       Attesa massima della conferma di scrittura (ACK_COMMIT e flush).
+     * @param durabilita           Momento in cui il chiamante riceve conferma.
+     */
+    public GiornaleTracking(IPersistenza persistenza, int capacitaCoda, int dimensioneLotto,
+                            long attesaLottoMs, long timeoutAccodamentoMs, long attesaCommitMs,
+                            Durabilita durabilita) {
+        if (capacitaCoda <= 0 || dimensioneLotto <= 0) {
+            throw new IllegalArgumentException("Capacità della coda e dimensione del lotto devono essere maggiori di zero.");
+        }
+        if (attesaCommitMs <= 0) {
+            throw new IllegalArgumentException("L'attesa della conferma deve essere maggiore di zero.");
+        }
+        if (durabilita == null) {
+            throw new IllegalArgumentException("La politica di durabilità non può essere null.");
+        }
+        this.persistenza = persistenza;
+        this.coda = new ArrayBlockingQueue<>(capacitaCoda);
+        this.dimensioneLotto = dimensioneLotto;
+        this.attesaLottoMs = attesaLottoMs;
+        this.timeoutAccodamentoMs = timeoutAccodamentoMs;
+        this.attesaCommitMs = attesaCommitMs;
+        this.durabilita = durabilita;
+
+        this.scrittore = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cicloScrittura();
+                } finally {
+                    // Uscita normale (coda vuota) o anomala: nessuna ricevuta deve restare in attesa
+                    rifiutaInCoda("thread scrittore del giornale terminato");
+                }
+            }
+        }, "giornale-tracking");
+        this.scrittore.setDaemon(true);
+        this.scrittore.start();
+    }
+
+    /**
+     * Giornale condiviso dall'applicazione (su SQLite), configurabile con proprietà di sistema:
+     * {@code logistica.tracking.coda}, {@code .lotto}, {@code .attesaMs},
+     * {@code .timeoutMs}, {@code .attesaCommitMs} e {@code .durabilita} (ACK_COMMIT / ACK_ACCODAMENTO).
+     */
+    public static synchronized GiornaleTracking getDefault() {
+        if (istanzaDefault == null) {
+            final GiornaleTracking giornale = new GiornaleTracking(new GestoreDatabase(),
+                    Integer.getInteger("logistica.tracking.coda", 10000),
+                    Integer.getInteger("logistica.tracking.lotto", 500),
+                    Long.getLong("logistica.tracking.attesaMs", 20L),
+                    Long.getLong("logistica.tracking.timeoutMs", 5000L),
+                    Long.getLong("logistica.tracking.attesaCommitMs", 60000L),
+                    Durabilita.valueOf(System.getProperty("logistica.tracking.durabilita", Durabilita.ACK_COMMIT.name())));
+
+            // Flush degli eventi in coda prima che il pool venga chiuso
+            ConnessioneDB.getInstance().registraAllaChiusura(new Runnable() {
+                @Override
+                public void run() {
+                    giornale.chiudi();
+                }
+            });
+            istanzaDefault = giornale;
+        }
+        return istanzaDefault;
+    }
+
+    // =========================================================================
+    // ACCODAMENTO (lato chiamante)
+    // =========================================================================
+
+    /**
+     * Registra un evento di tracking per un singolo collo.
+     */
+    public void registra(String codiceCollo, EventoTracking evento) {
+        registraTappa(Collections.singletonList(codiceCollo), evento);
+    }
+
+    /**
+     * Registra lo stesso evento (es. arrivo a un hub) per un gruppo di colli.
+     * <p>
+     * Con {@link Durabilita#ACK_COMMIT} ritorna solo quando tutti gli eventi sono su DB.
+     * </p>
+     *
+     * @throws IllegalStateException Se il giornale è chiuso, la coda resta piena oltre il timeout
+     *                               o la conferma non arriva entro l'attesa massima.
+     * @throws RuntimeException      Se la scrittura fallisce (solo con ACK_COMMIT).
+     */
+    public void registraTappa(Collection<String> codiciColli, EventoTracking evento) {
+        if (codiciColli == null || codiciColli.isEmpty()) return;
+
+        // Una sola voce per tutta la tappa: nessun accodamento parziale se la coda è piena o il giornale si chiude
+        Ricevuta ricevuta = new Ricevuta();
+        accoda(new Voce(new ArrayList<>(codiciColli), evento, ricevuta));
+
+        if (durabilita == Durabilita.ACK_COMMIT) {
+            attendi(ricevuta);
+        }
+    }
+
+    /**
+     * Attende che tutti gli eventi accodati fino a questo momento siano stati scritti.
+     */
+    public void flush() {
+        if (chiuso) return;
+        Ricevuta ricevuta = new Ricevuta();
+        accoda(new Voce(Collections.<String>emptyList(), null, ricevuta));
+        attendi(ricevuta);
+    }
+
+    private void accoda(Voce voce) {
+        // Il controllo di "chiuso" e l'inserimento in coda sono atomici rispetto a chiudi()
+        accesso.readLock().lock();
+        try {
+            if (chiuso) {
+                throw new IllegalStateException("Giornale tracking chiuso: evento non accettato.");
+            }
+            if (!scrittore.isAlive()) {
+                throw new IllegalStateException("Giornale tracking non disponibile: thread scrittore terminato.");
+            }
+            if (!coda.offer(voce)) {
+                // Backpressure: la coda è piena, il chiamante aspetta lo scrittore
+                attesePerCodaPiena.incrementAndGet();
+                if (!coda.offer(voce, timeoutAccodamentoMs, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("Coda tracking piena: " + voce.codiciColli.size()
+                            + " eventi rifiutati dopo " + timeoutAccodamentoMs + " ms.");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Accodamento evento tracking interrotto.", e);
+        } finally {
+            accesso.readLock().unlock();
+        }
+        eventiAccodati.addAndGet(voce.codiciColli.size());
+        // Il thread può essere terminato subito dopo l'offer: la voce non verrebbe più presa
+        if (!scrittore.isAlive()) {
+            rifiutaInCoda("thread scrittore del giornale terminato");
+        }
+    }
+
+    /**
+     * Attende la ricevuta al massimo per {@code attesaCommitMs}, smettendo prima se il thread scrittore non c'è più.
+     */
+    private void attendi(Ricevuta ricevuta) {
+        long scadenza = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(attesaCommitMs);
+        try {
+            while (!ricevuta.mancanti.await(Math.min(1000, attesaCommitMs), TimeUnit.MILLISECONDS)) {
+                if (!scrittore.isAlive()) {
+                    rifiutaInCoda("thread scrittore del giornale terminato");
+                } else if (System.nanoTime() - scadenza >= 0) {
+                    throw new IllegalStateException("Nessuna conferma di scrittura del tracking dopo "
+                            + attesaCommitMs + " ms (l'esito non è noto).");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Attesa del commit tracking interrotta.", e);
+        }
+        ricevuta.verifica();
+    }
+
+    /**
+     * Fa fallire le ricevute degli eventi rimasti in coda (solo quando nessuno li scriverà più).
+     */
+    private void rifiutaInCoda(String motivo) {
+        List<Voce> rimaste = new ArrayList<>();
+        coda.drainTo(rimaste);
+        if (rimaste.isEmpty()) return;
+
+        IllegalStateException errore = new IllegalStateException("Evento di tracking non scritto: " + motivo + ".");
+        for (Voce v : rimaste) {
+            eventiPersi.addAndGet(v.codiciColli.size());
+            v.ricevuta.conferma(errore);
+        }
+        System.err.println("[GiornaleTracking] " + rimaste.size() + " voci in coda rifiutate: " + motivo);
+    }
+
+    // =========================================================================
+    // SCRITTURA (thread dedicato)
+    // =========================================================================
+
+    private void cicloScrittura() {
+        List<Voce> lotto = new ArrayList<>();
+
+        while (!chiuso || !coda.isEmpty()) {
+            try {
+                Voce prima = coda.poll(100, TimeUnit.MILLISECONDS);
+                if (prima == null) continue;
+                lotto.add(prima);
+                int eventi = prima.codiciColli.size();
+
+                // Riempiamo il lotto finché c'è spazio e non scade il tempo massimo.
+                // Si aggiungono voci intere: una tappa non viene mai divisa tra due transazioni.
+                long scadenza = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(attesaLottoMs);
+                while (eventi < dimensioneLotto) {
+                    Voce altra = coda.poll();
+                    if (altra == null) {
+                        long residuo = scadenza - System.nanoTime();
+                        if (residuo <= 0) break;
+                        altra = coda.poll(residuo, TimeUnit.NANOSECONDS);
+                        if (altra == null) break;
+                    }
+                    lotto.add(altra);
+                    eventi += altra.codiciColli.size();
+                }
+            } catch (InterruptedException e) {
+                // Chiusura forzata: scriviamo comunque ciò che abbiamo già raccolto
+                coda.drainTo(lotto);
+            }
+
+            scriviLotto(lotto);
+            lotto.clear();
+        }
+    }
+
+    private void scriviLotto(List<Voce> lotto) {
+        if (lotto.isEmpty()) return;
+
+        UnitaDiLavoro unita = new UnitaDiLavoro();
+        for (Voce v : lotto) {
+            for (String codice : v.codiciColli) {
+                unita.aggiornaTracking(codice, v.evento);
+            }
+        }
+
+        RuntimeException errore = null;
+        try {
+            persistenza.eseguiUnitaDiLavoro(unita);
+            if (!unita.isVuota()) {
+                eventiScritti.addAndGet(unita.getNumeroOperazioni());
+                lottiScritti.incrementAndGet();
+            }
+        } catch (Throwable e) {
+            // Anche un Error (es. OutOfMemoryError) diventa l'esito del lotto: il thread non deve morire
+            errore = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e.toString(), e);
+            eventiPersi.addAndGet(unita.getNumeroOperazioni());
+            System.err.println("[GiornaleTracking] Scrittura lotto fallita (" + unita.getNumeroOperazioni()
+                    + " eventi): " + e.getMessage());
+        } finally {
+            for (Voce v : lotto) {
+                v.ricevuta.conferma(errore);
+            }
+        }
+    }
+
+    /**
+     * Smette di accettare eventi e attende che il thread scrittore svuoti la coda.
+     * <p>
+     * I lotti restano scritti dal solo thread dedicato: se dopo l'attesa è ancora al lavoro
+     * (DB lento) continua da solo, altrimenti le eventuali voci rimaste vengono rifiutate.
+     * </p>
+     */
+    public void chiudi() {
+        accesso.writeLock().lock();
+        try {
+            if (chiuso) return;
+            // Da qui in poi nessun accoda() può riuscire: la coda contiene già tutto ciò che va scritto
+            chiuso = true;
+        } finally {
+            accesso.writeLock().unlock();
+        }
+
+        try {
+            scrittore.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (scrittore.isAlive()) {
+            System.err.println("[GiornaleTracking] Scrittura ancora in corso alla chiusura: "
+                    + coda.size() + " voci in coda.");
+        } else {
+            rifiutaInCoda("giornale chiuso");
+        }
+        System.out.println("[GiornaleTracking] Chiuso. " + getStatistiche());
+    }
+
+    // =========================================================================
+    // STATISTICHE
+    // =========================================================================
+
+    public Durabilita getDurabilita() { return durabilita; }
+    public int getVociInCoda() { return coda.size(); }
+    public long getEventiAccodati() { return eventiAccodati.get(); }
+    public long getEventiScritti() { return eventiScritti.get(); }
+    public long getLottiScritti() { return lottiScritti.get(); }
+    public long getEventiPersi() { return eventiPersi.get(); }
+    public long getAttesePerCodaPiena() { return attesePerCodaPiena.get(); }
+
+    public String getStatistiche() {
+        long lotti = lottiScritti.get();
+        return String.format("accodati=%d, scritti=%d in %d lotti (media %.1f/lotto), persi=%d, vociInCoda=%d, backpressure=%d",
+                getEventiAccodati(), getEventiScritti(), lotti, lotti == 0 ? 0.0 : (double) getEventiScritti() / lotti,
+                getEventiPersi(), getVociInCoda(), getAttesePerCodaPiena());
+    }
+
+    // =========================================================================
+    // CLASSI INTERNE
+    // =========================================================================
+
+    /**
+     * Voce in coda: lo stesso evento per uno o più colli (una tappa). Senza colli è un marcatore di flush.
+     */
+    private static class Voce {
+        private final List<String> codiciColli;
+        private final EventoTracking evento;
+        private final Ricevuta ricevuta;
+
+        Voce(List<String> codiciColli, EventoTracking evento, Ricevuta ricevuta) {
+            this.codiciColli = codiciColli;
+            this.evento = evento;
+            this.ricevuta = ricevuta;
+        }
+    }
+
+    /**
+     * Conferma della voce accodata da una chiamata: si sblocca quando il suo lotto è stato scritto (o è fallito).
+     */
+    private static class Ricevuta {
+        private final CountDownLatch mancanti = new CountDownLatch(1);
+        private volatile RuntimeException errore;
+
+        void conferma(RuntimeException e) {
+            if (e != null && errore == null) {
+                errore = e;
+            }
+            mancanti.countDown();
+        }
+
+        /**
+         * Da chiamare dopo che tutti gli eventi sono stati confermati.
+         */
+        void verifica() {
+            if (errore != null) {
+                throw new RuntimeException("Errore DB nella scrittura del tracking: " + errore.getMessage(), errore);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.Azienda;
+import it.prog3.logisticaapp.model.ColloReale;
+import it.prog3.logisticaapp.model.EventoTracking;
+import it.prog3.logisticaapp.model.ICollo;
+import it.prog3.logisticaapp.model.IVeicolo;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Contratto del livello di persistenza (DAO).
+ * <p>
+ * Facade e Proxy dipendono solo da questa interfaccia e ricevono l'implementazione
+ * per iniezione: {@link GestoreDatabase} salva su SQLite, {@link GestoreMemoria}
+ * tiene tutto in RAM (test, benchmark e prove di capacità senza I/O).
+ * </p>
+ */
+public interface IPersistenza {
+
+    // --- Flotta (Lettura) ---
+
+    /**
+     * @return Lista di aziende, ciascuna con la propria flotta e il carico dei veicoli.
+     */
+    List<Azienda> getFlottaAll();
+
+    List<IVeicolo> getFlottaAzienda(String nomeAzienda);
+
+    List<ICollo> getColliPerVeicolo(String codiceVeicolo);
+
+    /**
+     * Modifiche della flotta successive a una versione già letta.
+     *
+     * @param da Versione restituita dalla chiamata precedente (null per leggere tutta la flotta).
+     * @return Solo i veicoli cambiati, oppure la flotta completa se il registro non copre più l'intervallo.
+     */
+    ModificheFlotta getModificheFlotta(VersioneFlotta da);
+
+    // --- Inserimenti ---
+
+    void inserisciCollo(ICollo c);
+
+    /**
+     * Inserimento massivo: le righe rifiutate sono riportate nell'esito senza interrompere il resto.
+     */
+    EsitoBatch inserisciColli(Collection<? extends ICollo> colli);
+
+    void inserisciVeicolo(IVeicolo v, String nomeAzienda);
+
+    EsitoBatch inserisciVeicoli(Collection<? extends IVeicolo> veicoli, String nomeAzienda);
+
+    /**
+     * Inserimento massivo dei veicoli di più aziende (nome azienda -> veicoli) in un'unica transazione.
+     */
+    EsitoBatch inserisciVeicoli(Map<String, ? extends Collection<? extends IVeicolo>> veicoliPerAzienda);
+
+    EsitoBatch inserisciAzienda(Azienda azienda);
+
+    // --- Colli (Lettura) ---
+
+    List<ICollo> getColliInPreparazione();
+
+    /**
+     * Paginazione keyset dei colli in preparazione, ordinati per codice.
+     */
+    List<ICollo> getColliInPreparazione(String dopoCodice, int limite);
+
+    /**
+     * Cursore in streaming sui colli in preparazione: va chiuso dal chiamante.
+     */
+    CursoreColli apriCursoreColliInPreparazione(int fetchSize);
+
+    int contaColliInPreparazione();
+
+    /**
+     * @return Il Proxy leggero del collo, oppure null se il codice non esiste.
+     */
+    ICollo getColloProxy(String codice);
+
+    /**
+     * Stato e ultimo evento del collo, senza caricare il collo completo né lo storico.
+     *
+     * @return Il riepilogo, oppure null se il codice non esiste.
+     */
+    RiepilogoTracking getRiepilogoTracking(String codice);
+
+    /**
+     * @return L'oggetto reale completo (dati + storico), oppure null se il codice non esiste.
+     */
+    ColloReale getColloRealeCompleto(String codice);
+
+    /**
+     * Caricamento in blocco degli oggetti reali (usato dai gruppi di proxy).
+     *
+     * @return Mappa codice -> oggetto reale; i codici inesistenti sono assenti.
+     */
+    Map<String, ColloReale> getColliRealiCompleti(Collection<String> codici);
+
+    // --- Storico ---
+
+    List<EventoTracking> getStoricoPerCollo(String codiceCollo);
+
+    /**
+     * Pagina dello storico dal più recente; il token è quello della pagina precedente (null all'inizio).
+     */
+    PaginaStorico getStoricoPagina(String codiceCollo, String token, int dimensione);
+
+    int contaEventiStorico(String codiceCollo);
+
+    // --- Aggiornamenti ---
+
+    void salvaCollo(ICollo c);
+
+    void associaColloVeicolo(ICollo c, String codiceVeicolo);
+
+    void aggiornaTracking(String codiceCollo, EventoTracking evento);
+
+    /**
+     * Applica tutte le operazioni della unit of work in modo atomico (tutto o niente).
+     */
+    EsitoBatch eseguiUnitaDiLavoro(UnitaDiLavoro unita);
+
+    void resetTabelle();
+}
@@ -0,0 +1,511 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.Azienda;
+import it.prog3.logisticaapp.model.AziendaConcreta;
+import it.prog3.logisticaapp.model.ColloReale;
+import it.prog3.logisticaapp.model.ICollo;
+import it.prog3.logisticaapp.model.IVeicolo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Importazione massiva di colli e veicoli da file CSV o JSONL (manifesti giornalieri).
+ * <p>
+ * Il file viene letto in streaming da un {@link FileChannel} con un buffer di dimensione fissa:
+ * la memoria occupata dipende solo dal buffer e dal lotto, non dalla dimensione del file.
+ * Ogni riga viene validata costruendo l'oggetto di dominio (stesse regole di
+ * {@link ColloReale#setCodice}/{@link ColloReale#setPeso} e della factory dei veicoli);
+ * le righe valide vengono scritte a lotti, un lotto per transazione.
+ * </p>
+ * <p>
+ * Formati (l'intestazione CSV è facoltativa, i campi CSV possono essere tra doppi apici):
+ * <ul>
+ *     <li>colli: {@code codice,peso,mittente,destinatario} oppure
+ *     {@code {"codice":"C01","peso":1.5,"mittente":"X","destinatario":"Y"}}</li>
+ *     <li>veicoli: {@code codice,tipo,azienda} oppure {@code {"codice":"V01","tipo":"CAMION","azienda":"DHL"}}</li>
+ * </ul>
+ * Dopo ogni transazione confermata l'offset raggiunto viene comunicato all'{@link Avanzamento}:
+ * un'importazione interrotta riparte da quell'offset.
+ * </p>
+ */
+public class ImportatoreManifesto {
+
+    private static final String[] COLONNE_COLLI = {"codice", "peso", "mittente", "destinatario"};
+    private static final String[] COLONNE_VEICOLI = {"codice", "tipo", "azienda"};
+
+    // Factory dei veicoli (Factory Method di Azienda): un'istanza basta per validare tutte le righe
+    private static final Azienda FABBRICA_VEICOLI = new AziendaConcreta("importazione");
+
+    /**
+     * Formato del file, dedotto dall'estensione.
+     */
+    public enum Formato {
+        CSV, JSONL;
+
+        public static Formato daFile(Path file) {
+            String nome = file.getFileName().toString().toLowerCase();
+            if (nome.endsWith(".csv")) return CSV;
+            if (nome.endsWith(".jsonl") || nome.endsWith(".ndjson")) return JSONL;
+            throw new IllegalArgumentException("Formato non riconosciuto (attesi .csv o .jsonl): " + nome);
+        }
+    }
+
+    /**
+     * Notifica dell'avanzamento, chiamata dopo ogni transazione confermata.
+     */
+    public interface Avanzamento {
+        void confermato(long offset, EsitoImportazione parziale);
+    }
+
+    private final IPersistenza persistenza;
+    private final int righePerTransazione;
+    private final int dimensioneBuffer;
+
+    /**
+     * @param persistenza         Motore di persistenza in cui scrivere.
+     * @param righePerTransazione Righe valide scritte per ogni transazione.
+     * @param dimensioneBuffer    Byte letti dal file per volta; è anche la lunghezza massima di una riga.
+     */
+    public ImportatoreManifesto(IPersistenza persistenza, int righePerTransazione, int dimensioneBuffer) {
+        if (righePerTransazione <= 0) {
+            throw new IllegalArgumentException("Le righe per transazione devono essere maggiori di zero.");
+        }
+        if (dimensioneBuffer < 1024) {
+            throw new IllegalArgumentException("Il buffer di lettura deve essere di almeno 1024 byte.");
+        }
+        this.persistenza = persistenza;
+        this.righePerTransazione = righePerTransazione;
+        this.dimensioneBuffer = dimensioneBuffer;
+    }
+
+    public ImportatoreManifesto(IPersistenza persistenza) {
+        this(persistenza, 5000, 64 * 1024);
+    }
+
+    // =========================================================================
+    // API
+    // =========================================================================
+
+    /**
+     * Importa i colli del file partendo dall'offset indicato (0 per l'intero file).
+     */
+    public EsitoImportazione importaColli(Path file, long daOffset, Avanzamento avanzamento) throws IOException {
+        return importa(file, daOffset, COLONNE_COLLI, new LottoColli(), avanzamento);
+    }
+
+    /**
+     * Importa i veicoli del file partendo dall'offset indicato (0 per l'intero file).
+     */
+    public EsitoImportazione importaVeicoli(Path file, long daOffset, Avanzamento avanzamento) throws IOException {
+        return importa(file, daOffset, COLONNE_VEICOLI, new LottoVeicoli(), avanzamento);
+    }
+
+    // =========================================================================
+    // LETTURA IN STREAMING
+    // =========================================================================
+
+    private EsitoImportazione importa(Path file, long daOffset, String[] colonne, Lotto lotto,
+                                      Avanzamento avanzamento) throws IOException {
+        if (daOffset < 0) {
+            throw new IllegalArgumentException("L'offset di partenza non può essere negativo.");
+        }
+        Formato formato = Formato.daFile(file);
+        EsitoImportazione esito = new EsitoImportazione(daOffset);
+        long inizio = System.nanoTime();
+
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+            canale.position(daOffset);
+            ByteBuffer buffer = ByteBuffer.allocate(dimensioneBuffer);
+            byte[] dati = buffer.array();
+
+            // Riga corrente: i byte possono arrivare da due letture diverse del buffer
+            byte[] riga = new byte[dimensioneBuffer];
+            int lunghezza = 0;
+            boolean troppoLunga = false;
+            long posizione = daOffset;
+            long inizioRiga = daOffset;
+
+            int letti;
+            while ((letti = canale.read(buffer)) != -1) {
+                for (int i = 0; i < letti; i++) {
+                    byte b = dati[i];
+                    posizione++;
+                    if (b == '\n') {
+                        elaboraRiga(riga, lunghezza, troppoLunga, inizioRiga, formato, colonne, lotto, esito);
+                        if (lotto.dimensione() >= righePerTransazione) {
+                            confermaLotto(lotto, posizione, esito, avanzamento);
+                        }
+                        lunghezza = 0;
+                        troppoLunga = false;
+                        inizioRiga = posizione;
+                    } else if (lunghezza < riga.length) {
+                        riga[lunghezza++] = b;
+                    } else {
+                        troppoLunga = true;
+                    }
+                }
+                buffer.clear();
+            }
+
+            // Ultima riga senza terminatore
+            if (lunghezza > 0 || troppoLunga) {
+                elaboraRiga(riga, lunghezza, troppoLunga, inizioRiga, formato, colonne, lotto, esito);
+            }
+            confermaLotto(lotto, posizione, esito, avanzamento);
+        }
+
+        esito.setDurataNanos(System.nanoTime() - inizio);
+        System.out.println("[Importazione] " + file.getFileName() + ": " + esito);
+        return esito;
+    }
+
+    private void elaboraRiga(byte[] riga, int lunghezza, boolean troppoLunga, long offset, Formato formato,
+                             String[] colonne, Lotto lotto, EsitoImportazione esito) {
+        int inizio = 0;
+        // BOM UTF-8 all'inizio del file
+        if (offset == 0 && lunghezza >= 3 && riga[0] == (byte) 0xEF && riga[1] == (byte) 0xBB && riga[2] == (byte) 0xBF) {
+            inizio = 3;
+        }
+        if (lunghezza > inizio && riga[lunghezza - 1] == '\r') {
+            lunghezza--;
+        }
+        String testo = new String(riga, inizio, lunghezza - inizio, StandardCharsets.UTF_8);
+        if (!troppoLunga && testo.trim().isEmpty()) return;
+
+        if (troppoLunga) {
+            esito.contaLetta();
+            esito.aggiungiScarto("offset " + offset, "Riga più lunga di " + dimensioneBuffer + " byte.");
+            return;
+        }
+
+        try {
+            Map<String, String> campi;
+            if (formato == Formato.CSV) {
+                List<String> valori = dividiCsv(testo);
+                // Intestazione (facoltativa): la riconosciamo dal nome della prima colonna
+                if (colonne[0].equalsIgnoreCase(valori.get(0).trim())) return;
+                esito.contaLetta();
+                if (valori.size() != colonne.length) {
+                    throw new IllegalArgumentException("Attese " + colonne.length + " colonne, trovate " + valori.size() + ".");
+                }
+                campi = new HashMap<>();
+                for (int i = 0; i < colonne.length; i++) {
+                    campi.put(colonne[i], valori.get(i).trim());
+                }
+            } else {
+                esito.contaLetta();
+                campi = leggiOggettoJson(testo);
+            }
+            lotto.aggiungi(campi);
+        } catch (IllegalArgumentException e) {
+            // Include NumberFormatException e le violazioni delle regole del modello
+            esito.aggiungiScarto("offset " + offset, e.getMessage());
+        }
+    }
+
+    private void confermaLotto(Lotto lotto, long offset, EsitoImportazione esito, Avanzamento avanzamento) {
+        // Anche un lotto vuoto conferma l'offset: le righe scartate non vanno rilette alla ripresa
+        if (offset == esito.getOffsetConfermato()) return;
+        esito.conferma(lotto.scrivi(), offset);
+        if (avanzamento != null) {
+            avanzamento.confermato(offset, esito);
+        }
+    }
+
+    // =========================================================================
+    // PARSING
+    // =========================================================================
+
+    /**
+     * Divide una riga CSV (separatore virgola, campi eventualmente tra doppi apici con "" come escape).
+     */
+    static List<String> dividiCsv(String riga) {
+        List<String> valori = new ArrayList<>();
+        StringBuilder campo = new StringBuilder();
+        boolean traApici = false;
+
+        for (int i = 0; i < riga.length(); i++) {
+            char c = riga.charAt(i);
+            if (traApici) {
+                if (c == '"') {
+                    if (i + 1 < riga.length() && riga.charAt(i + 1) == '"') {
+                        campo.append('"');
+                        i++;
+                    } else {
+                        traApici = false;
+                    }
+                } else {
+                    campo.append(c);
+                }
+            } else if (c == '"') {
+                traApici = true;
+            } else if (c == ',') {
+                valori.add(campo.toString());
+                campo.setLength(0);
+            } else {
+                campo.append(c);
+            }
+        }
+        if (traApici) {
+            throw new IllegalArgumentException("Doppi apici non chiusi.");
+        }
+        valori.add(campo.toString());
+        return valori;
+    }
+
+    /**
+     * Legge un oggetto JSON "piatto" (valori stringa, numero, booleano o null) come mappa nome -> testo.
+     */
+    static Map<String, String> leggiOggettoJson(String riga) {
+        Map<String, String> campi = new HashMap<>();
+        int[] pos = {saltaSpazi(riga, 0)};
+
+        atteso(riga, pos, '{');
+        if (carattere(riga, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String nome = leggiStringaJson(riga, pos);
+                atteso(riga, pos, ':');
+                String valore = carattere(riga, pos) == '"' ? leggiStringaJson(riga, pos) : leggiLetteraleJson(riga, pos);
+                campi.put(nome, valore);
+
+                char c = carattere(riga, pos);
+                pos[0]++;
+                if (c == '}') break;
+                if (c != ',') {
+                    throw new IllegalArgumentException("JSON non valido: atteso ',' o '}' alla posizione " + (pos[0] - 1) + ".");
+                }
+                pos[0] = saltaSpazi(riga, pos[0]);
+            }
+        }
+        if (saltaSpazi(riga, pos[0]) != riga.length()) {
+            throw new IllegalArgumentException("JSON non valido: contenuto dopo la fine dell'oggetto.");
+        }
+        return campi;
+    }
+
+    private static String leggiStringaJson(String riga, int[] pos) {
+        atteso(riga, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        int i = pos[0];
+        while (i < riga.length()) {
+            char c = riga.charAt(i++);
+            if (c == '"') {
+                pos[0] = saltaSpazi(riga, i);
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (i >= riga.length()) break;
+            char e = riga.charAt(i++);
+            switch (e) {
+                case '"': case '\\': case '/': sb.append(e); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 > riga.length()) break;
+                    sb.append((char) Integer.parseInt(riga.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default:
+                    throw new IllegalArgumentException("JSON non valido: escape \\" + e + " sconosciuto.");
+            }
+        }
+        throw new IllegalArgumentException("JSON non valido: stringa non chiusa.");
+    }
+
+    private static String leggiLetteraleJson(String riga, int[] pos) {
+        int inizio = pos[0];
+        int i = inizio;
+        while (i < riga.length() && ",} \t".indexOf(riga.charAt(i)) < 0) i++;
+        String valore = riga.substring(inizio, i);
+        if (valore.isEmpty() || valore.equals("{") || valore.startsWith("[")) {
+            throw new IllegalArgumentException("JSON non valido: valore non supportato alla posizione " + inizio + ".");
+        }
+        pos[0] = saltaSpazi(riga, i);
+        return "null".equals(valore) ? null : valore;
+    }
+
+    private static void atteso(String riga, int[] pos, char atteso) {
+        if (carattere(riga, pos) != atteso) {
+            throw new IllegalArgumentException("JSON non valido: atteso '" + atteso + "' alla posizione " + pos[0] + ".");
+        }
+        pos[0] = saltaSpazi(riga, pos[0] + 1);
+    }
+
+    private static char carattere(String riga, int[] pos) {
+        if (pos[0] >= riga.length()) {
+            throw new IllegalArgumentException("JSON non valido: riga troncata.");
+        }
+        return riga.charAt(pos[0]);
+    }
+
+    private static int saltaSpazi(String riga, int i) {
+        while (i < riga.length() && Character.isWhitespace(riga.charAt(i))) i++;
+        return i;
+    }
+
+    private static String obbligatorio(Map<String, String> campi, String nome) {
+        String valore = campi.get(nome);
+        if (valore == null || valore.isEmpty()) {
+            throw new IllegalArgumentException("Campo '" + nome + "' mancante.");
+        }
+        return valore;
+    }
+
+    private static double leggiPeso(String testo) {
+        double peso;
+        try {
+            peso = Double.parseDouble(testo);
+        } catch (NumberFormatException e) {
+            peso = Double.NaN;
+        }
+        if (Double.isNaN(peso) || Double.isInfinite(peso)) {
+            throw new IllegalArgumentException("Peso non numerico: " + testo);
+        }
+        return peso;
+    }
+
+    // =========================================================================
+    // LOTTI
+    // =========================================================================
+
+    /**
+     * Righe valide in attesa della prossima transazione.
+     */
+    private abstract static class Lotto {
+        abstract void aggiungi(Map<String, String> campi);
+        abstract int dimensione();
+        /** Scrive il lotto (una transazione) e lo svuota. */
+        abstract EsitoBatch scrivi();
+    }
+
+    private class LottoColli extends Lotto {
+        private final List<ICollo> colli = new ArrayList<>();
+
+        @Override
+        void aggiungi(Map<String, String> campi) {
+            // Il costruttore valida codice e peso con i setter del modello
+            colli.add(new ColloReale(campi.get("codice"), leggiPeso(obbligatorio(campi, "peso")),
+                    campi.get("mittente"), campi.get("destinatario")));
+        }
+
+        @Override
+        int dimensione() { return colli.size(); }
+
+        @Override
+        EsitoBatch scrivi() {
+            EsitoBatch esito = colli.isEmpty() ? new EsitoBatch() : persistenza.inserisciColli(colli);
+            colli.clear();
+            return esito;
+        }
+    }
+
+    private class LottoVeicoli extends Lotto {
+        // I veicoli si inseriscono per azienda: manteniamo l'ordine di arrivo
+        private final Map<String, List<IVeicolo>> perAzienda = new LinkedHashMap<>();
+        private int dimensione;
+
+        @Override
+        void aggiungi(Map<String, String> campi) {
+            String azienda = obbligatorio(campi, "azienda");
+            String tipo = obbligatorio(campi, "tipo");
+            IVeicolo veicolo = FABBRICA_VEICOLI.createVeicolo(tipo, campi.get("codice"));
+            if (veicolo == null) {
+                throw new IllegalArgumentException("Tipo veicolo sconosciuto: " + tipo);
+            }
+
+            List<IVeicolo> veicoli = perAzienda.get(azienda);
+            if (veicoli == null) {
+                veicoli = new ArrayList<>();
+                perAzienda.put(azienda, veicoli);
+            }
+            veicoli.add(veicolo);
+            dimensione++;
+        }
+
+        @Override
+        int dimensione() { return dimensione; }
+
+        @Override
+        EsitoBatch scrivi() {
+            // Tutte le aziende del lotto in una sola transazione: l'offset confermato copre l'intero lotto
+            EsitoBatch esito = perAzienda.isEmpty() ? new EsitoBatch() : persistenza.inserisciVeicoli(perAzienda);
+            perAzienda.clear();
+            dimensione = 0;
+            return esito;
+        }
+    }
+
+    // =========================================================================
+    // AVVIO DA RIGA DI COMANDO
+    // =========================================================================
+
+    /**
+     * Uso: {@code ImportatoreManifesto colli|veicoli <file> [--da-capo]}.
+     * <p>
+     * L'offset confermato viene salvato accanto al file ({@code <file>.offset}) dopo ogni transazione;
+     * rilanciando il comando l'importazione riprende da lì, a meno di {@code --da-capo}.
+     * </p>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !("colli".equals(args[0]) || "veicoli".equals(args[0]))) {
+            System.err.println("Uso: ImportatoreManifesto colli|veicoli <file.csv|file.jsonl> [--da-capo]");
+            return;
+        }
+        Path file = Paths.get(args[1]);
+        final Path fileOffset = Paths.get(args[1] + ".offset");
+        boolean daCapo = args.length > 2 && "--da-capo".equals(args[2]);
+
+        long offset = 0;
+        if (!daCapo && Files.exists(fileOffset)) {
+            offset = Long.parseLong(new String(Files.readAllBytes(fileOffset), StandardCharsets.US_ASCII).trim());
+            System.out.println("[Importazione] Ripresa dall'offset " + offset);
+        }
+
+        Avanzamento salvaOffset = new Avanzamento() {
+            @Override
+            public void confermato(long offsetConfermato, EsitoImportazione parziale) {
+                try {
+                    // Scrittura atomica: un'interruzione non lascia mai un file di offset troncato
+                    Path temporaneo = Paths.get(fileOffset + ".tmp");
+                    Files.write(temporaneo, String.valueOf(offsetConfermato).getBytes(StandardCharsets.US_ASCII));
+                    Files.move(temporaneo, fileOffset, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new RuntimeException("Impossibile salvare l'offset di ripresa: " + e.getMessage(), e);
+                }
+            }
+        };
+
+        ImportatoreManifesto importatore = new ImportatoreManifesto(new GestoreDatabase(),
+                Integer.getInteger("logistica.import.lotto", 5000),
+                Integer.getInteger("logistica.import.bufferKiB", 64) * 1024);
+        EsitoImportazione esito = "colli".equals(args[0])
+                ? importatore.importaColli(file, offset, salvaOffset)
+                : importatore.importaVeicoli(file, offset, salvaOffset);
+
+        for (EsitoImportazione.Scarto scarto : esito.getScarti()) {
+            System.err.println("Scartata " + scarto);
+        }
+        ConnessioneDB.getInstance().chiudi();
+    }
+}
@@ -0,0 +1,428 @@
+package it.prog3.logisticaapp.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Gestore delle migrazioni incrementali dello schema.
+ * <p>
+ * La versione corrente è salvata nel DB stesso ({@code PRAGMA user_version}).
+ * All'avvio vengono applicate, in ordine, solo le migrazioni con versione maggiore:
+ * ogni passo gira nella propria transazione, quindi i dati esistenti non vengono mai persi
+ * e un errore lascia lo schema alla versione precedente.
+ * </p>
+ */
+public class MigrazioniSchema {
+
+    private static final List<Migrazione> MIGRAZIONI = new ArrayList<>();
+
+    // Corpo comune dei trigger che versionano la flotta (v9)
+    private static final String INCREMENTA_FLOTTA =
+            "BEGIN UPDATE versione_dati SET versione = versione + 1 WHERE chiave = 'flotta'; END";
+
+    // Istante corrente in millisecondi epoch, come i timestamp scritti dall'applicazione (v13)
+    private static final String ADESSO_MS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    // Righe riportate nel messaggio quando il controllo preliminare di un passo fallisce
+    private static final int MAX_RIGHE_VERIFICA = 20;
+
+    static {
+        // v1: schema di partenza (identico a quello creato dal vecchio DbSetup)
+        registra(new Migrazione(1, "Schema iniziale",
+                "CREATE TABLE IF NOT EXISTS veicoli (" +
+                        "codice TEXT PRIMARY KEY, " +
+                        "tipo TEXT NOT NULL, " +
+                        "capienza INTEGER NOT NULL, " +
+                        "azienda TEXT NOT NULL" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS colli (" +
+                        "codice TEXT PRIMARY KEY, " +
+                        "peso REAL, " +
+                        "stato TEXT, " +
+                        "mittente TEXT, " +
+                        "destinatario TEXT," +
+                        "veicolo_codice TEXT" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS storico_spostamenti (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "collo_codice TEXT, " +
+                        "descrizione TEXT, " +
+                        "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP, " +
+                        "FOREIGN KEY(collo_codice) REFERENCES colli(codice)" +
+                        ")"));
+
+        // v2: indici per le query più frequenti (prima erano tutte full table scan)
+        registra(new Migrazione(2, "Indici hot-path su colli e storico",
+                // WHERE stato = 'IN_PREPARAZIONE'
+                "CREATE INDEX IF NOT EXISTS idx_colli_stato ON colli(stato)",
+                // WHERE veicolo_codice = ? e LEFT JOIN della flotta
+                "CREATE INDEX IF NOT EXISTS idx_colli_veicolo ON colli(veicolo_codice)",
+                // WHERE collo_codice = ? ORDER BY timestamp: indice coprente (include descrizione)
+                "CREATE INDEX IF NOT EXISTS idx_storico_collo_timestamp ON storico_spostamenti(collo_codice, timestamp, descrizione)"));
+
+        // v3: paginazione keyset dei colli in attesa (WHERE stato = ? AND codice > ? ORDER BY codice)
+        registra(new Migrazione(3, "Indice composto colli(stato, codice)",
+                "CREATE INDEX IF NOT EXISTS idx_colli_stato_codice ON colli(stato, codice)",
+                "DROP INDEX IF EXISTS idx_colli_stato"));
+
+        // v4: storico paginato (ORDER BY timestamp DESC, id DESC): id esplicito prima di descrizione,
+        // così l'indice resta coprente e fornisce già l'ordinamento completo
+        registra(new Migrazione(4, "Indice storico per paginazione keyset",
+                "CREATE INDEX IF NOT EXISTS idx_storico_collo_ts_id ON storico_spostamenti(collo_codice, timestamp, id, descrizione)",
+                "DROP INDEX IF EXISTS idx_storico_collo_timestamp"));
+
+        // v5: stato come codice intero (StatoCollo). La tabella va ricostruita: con la colonna
+        // dichiarata TEXT, SQLite riconvertirebbe gli interi in testo (type affinity).
+        // Gli stati testuali non riconosciuti (o NULL) non vengono indovinati: la migrazione fallisce
+        // elencando i colli da correggere a mano.
+        registra(new Migrazione(5, "Stato dei colli codificato come intero",
+                "CREATE TABLE colli_nuova (" +
+                        "codice TEXT PRIMARY KEY, " +
+                        "peso REAL, " +
+                        "stato INTEGER NOT NULL DEFAULT 0 CHECK (typeof(stato) = 'integer'), " +
+                        "mittente TEXT, " +
+                        "destinatario TEXT, " +
+                        "veicolo_codice TEXT" +
+                        ")",
+                // ORDER BY rowid: conserva l'ordine di carico usato dalla query della flotta
+                "INSERT INTO colli_nuova (codice, peso, stato, mittente, destinatario, veicolo_codice) " +
+                        "SELECT codice, peso, " +
+                        "CASE UPPER(TRIM(stato)) WHEN 'IN_PREPARAZIONE' THEN 0 WHEN 'CARICATO' THEN 1 " +
+                        "WHEN 'IN_TRANSITO' THEN 2 WHEN 'CONSEGNATO' THEN 3 END, " +
+                        "mittente, destinatario, veicolo_codice FROM colli ORDER BY rowid",
+                "DROP TABLE colli",
+                "ALTER TABLE colli_nuova RENAME TO colli",
+                "CREATE INDEX idx_colli_veicolo ON colli(veicolo_codice)",
+                "CREATE INDEX idx_colli_stato_codice ON colli(stato, codice)")
+                .conVerifica("Stato non riconosciuto per i colli",
+                        "SELECT codice || ' (' || COALESCE(stato, 'NULL') || ')' FROM colli " +
+                                "WHERE stato IS NULL OR UPPER(TRIM(stato)) NOT IN " +
+                                "('IN_PREPARAZIONE', 'CARICATO', 'IN_TRANSITO', 'CONSEGNATO') ORDER BY codice"));
+
+        // v6: storico strutturato (EventoTracking). timestamp diventa millisecondi epoch (INTEGER),
+        // la descrizione testuale viene scomposta in tipo + luogo. I vecchi testi riconosciuti
+        // tornano SPEDITO (0) / ARRIVO_HUB (1), gli altri restano come NOTA (2) con il testo originale.
+        registra(new Migrazione(6, "Storico con timestamp epoch e eventi strutturati",
+                "CREATE TABLE storico_nuovo (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "collo_codice TEXT NOT NULL, " +
+                        "timestamp INTEGER NOT NULL, " +
+                        "tipo INTEGER NOT NULL, " +
+                        "luogo TEXT, " +
+                        "FOREIGN KEY(collo_codice) REFERENCES colli(codice)" +
+                        ")",
+                "INSERT INTO storico_nuovo (id, collo_codice, timestamp, tipo, luogo) " +
+                        "SELECT id, collo_codice, " +
+                        // Il vecchio DEFAULT CURRENT_TIMESTAMP è testo UTC 'YYYY-MM-DD HH:MM:SS'
+                        "COALESCE(CAST(strftime('%s', timestamp) AS INTEGER) * 1000, 0), " +
+                        "CASE WHEN descrizione LIKE 'Spedito con %. Il pacco ha lasciato la struttura del mittente.' THEN 0 " +
+                        "WHEN descrizione LIKE 'Arrivato a centro di smistamento: %' THEN 1 " +
+                        "ELSE 2 END, " +
+                        "CASE WHEN descrizione LIKE 'Spedito con %. Il pacco ha lasciato la struttura del mittente.' " +
+                        "THEN substr(descrizione, 13, length(descrizione) - 12 - 49) " +
+                        "WHEN descrizione LIKE 'Arrivato a centro di smistamento: %' THEN substr(descrizione, 35) " +
+                        "ELSE descrizione END " +
+                        "FROM storico_spostamenti WHERE collo_codice IS NOT NULL ORDER BY id",
+                "DROP TABLE storico_spostamenti",
+                "ALTER TABLE storico_nuovo RENAME TO storico_spostamenti",
+                // Indice coprente per lettura e paginazione (ORDER BY timestamp DESC, id DESC)
+                "CREATE INDEX idx_storico_collo_ts_id ON storico_spostamenti(collo_codice, timestamp, id, tipo, luogo)"));
+
+        // v7: archivio "freddo" dei colli consegnati (ArchiviatoreColli). Stesse colonne delle tabelle
+        // attive, così le letture di GestoreDatabase cambiano solo il nome della tabella.
+        // storico_archivio mantiene gli id originali (niente AUTOINCREMENT): il token di paginazione resta valido.
+        registra(new Migrazione(7, "Tabelle di archivio per colli consegnati",
+                "CREATE TABLE IF NOT EXISTS colli_archivio (" +
+                        "codice TEXT PRIMARY KEY, " +
+                        "peso REAL, " +
+                        "stato INTEGER NOT NULL, " +
+                        "mittente TEXT, " +
+                        "destinatario TEXT, " +
+                        "archiviato_il INTEGER NOT NULL" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS storico_archivio (" +
+                        "id INTEGER PRIMARY KEY, " +
+                        "collo_codice TEXT NOT NULL, " +
+                        "timestamp INTEGER NOT NULL, " +
+                        "tipo INTEGER NOT NULL, " +
+                        "luogo TEXT" +
+                        ")",
+                "CREATE INDEX IF NOT EXISTS idx_storico_archivio_collo_ts_id ON storico_archivio(collo_codice, timestamp, id, tipo, luogo)"));
+
+        // v8: esportazione per periodo (EsportatoreDati): WHERE timestamp BETWEEN .. ORDER BY timestamp, id
+        // senza scansione completa né ordinamento in memoria (l'id è già nell'indice come rowid)
+        registra(new Migrazione(8, "Indici per timestamp per le esportazioni",
+                "CREATE INDEX IF NOT EXISTS idx_storico_timestamp ON storico_spostamenti(timestamp)",
+                "CREATE INDEX IF NOT EXISTS idx_storico_archivio_timestamp ON storico_archivio(timestamp)"));
+
+        // v9: contatore di modifiche della flotta (validità di SnapshotFlotta). I trigger scattano solo per
+        // le modifiche che cambiano il grafo Azienda -> Veicolo -> Collo: i colli non caricati non contano.
+        // L'epoca casuale distingue un DB ricreato da zero (dopo un reset il contatore riparte da 0).
+        registra(new Migrazione(9, "Contatore di modifiche della flotta",
+                "CREATE TABLE IF NOT EXISTS versione_dati (chiave TEXT PRIMARY KEY, versione INTEGER NOT NULL)",
+                "INSERT OR IGNORE INTO versione_dati (chiave, versione) VALUES ('epoca', random()), ('flotta', 0)",
+                "CREATE TRIGGER IF NOT EXISTS trg_flotta_veicoli_ins AFTER INSERT ON veicoli " +
+                        INCREMENTA_FLOTTA,
+                "CREATE TRIGGER IF NOT EXISTS trg_flotta_veicoli_upd AFTER UPDATE ON veicoli " +
+                        INCREMENTA_FLOTTA,
+                "CREATE TRIGGER IF NOT EXISTS trg_flotta_veicoli_del AFTER DELETE ON veicoli " +
+                        INCREMENTA_FLOTTA,
+                "CREATE TRIGGER IF NOT EXISTS trg_flotta_colli_ins AFTER INSERT ON colli " +
+                        "WHEN NEW.veicolo_codice IS NOT NULL " + INCREMENTA_FLOTTA,
+                "CREATE TRIGGER IF NOT EXISTS trg_flotta_colli_upd AFTER UPDATE OF stato, veicolo_codice ON colli " +
+                        "WHEN OLD.veicolo_codice IS NOT NEW.veicolo_codice " +
+                        "OR (NEW.veicolo_codice IS NOT NULL AND OLD.stato IS NOT NEW.stato) " + INCREMENTA_FLOTTA,
+                "CREATE TRIGGER IF NOT EXISTS trg_flotta_colli_del AFTER DELETE ON colli " +
+                        "WHEN OLD.veicolo_codice IS NOT NULL " + INCREMENTA_FLOTTA));
+
+        // v10: registro delle modifiche della flotta (aggiornamento incrementale di CacheFlotta).
+        // I trigger v9 vengono ricreati: oltre a incrementare il contatore annotano i veicoli toccati
+        // con la nuova versione, così chi è fermo alla versione N ricarica solo i veicoli con versione > N.
+        // Ogni versione ha almeno una riga: un "buco" all'inizio del registro indica righe già potate.
+        registra(new Migrazione(10, "Registro delle modifiche della flotta",
+                "CREATE TABLE IF NOT EXISTS modifiche_flotta (" +
+                        "versione INTEGER NOT NULL, " +
+                        "veicolo_codice TEXT NOT NULL, " +
+                        "PRIMARY KEY (versione, veicolo_codice)" +
+                        ") WITHOUT ROWID",
+                "DROP TRIGGER IF EXISTS trg_flotta_veicoli_ins",
+                "DROP TRIGGER IF EXISTS trg_flotta_veicoli_upd",
+                "DROP TRIGGER IF EXISTS trg_flotta_veicoli_del",
+                "DROP TRIGGER IF EXISTS trg_flotta_colli_ins",
+                "DROP TRIGGER IF EXISTS trg_flotta_colli_upd",
+                "DROP TRIGGER IF EXISTS trg_flotta_colli_del",
+                "CREATE TRIGGER trg_flotta_veicoli_ins AFTER INSERT ON veicoli " +
+                        registraModifica("NEW.codice"),
+                "CREATE TRIGGER trg_flotta_veicoli_upd AFTER UPDATE ON veicoli " +
+                        registraModifica("OLD.codice", "NEW.codice"),
+                "CREATE TRIGGER trg_flotta_veicoli_del AFTER DELETE ON veicoli " +
+                        registraModifica("OLD.codice"),
+                "CREATE TRIGGER trg_flotta_colli_ins AFTER INSERT ON colli " +
+                        "WHEN NEW.veicolo_codice IS NOT NULL " + registraModifica("NEW.veicolo_codice"),
+                "CREATE TRIGGER trg_flotta_colli_upd AFTER UPDATE OF stato, veicolo_codice ON colli " +
+                        "WHEN OLD.veicolo_codice IS NOT NEW.veicolo_codice " +
+                        "OR (NEW.veicolo_codice IS NOT NULL AND OLD.stato IS NOT NEW.stato) " +
+                        registraModifica("OLD.veicolo_codice", "NEW.veicolo_codice"),
+                "CREATE TRIGGER trg_flotta_colli_del AFTER DELETE ON colli " +
+                        "WHEN OLD.veicolo_codice IS NOT NULL " + registraModifica("OLD.veicolo_codice")));
+
+        // v11: contatore degli inserimenti di colli (allineamento di FiltroCodici). Se il contatore avanza
+        // per inserimenti non fatti da questo processo (es. un import da riga di comando) il filtro va ricostruito.
+        registra(new Migrazione(11, "Contatore degli inserimenti di colli",
+                "INSERT OR IGNORE INTO versione_dati (chiave, versione) VALUES ('colli', 0)",
+                "CREATE TRIGGER IF NOT EXISTS trg_colli_ins AFTER INSERT ON colli " +
+                        "BEGIN UPDATE versione_dati SET versione = versione + 1 WHERE chiave = 'colli'; END"));
+
+        // v12: riepilogo del tracking per collo (prima schermata del Cliente con una lettura per chiave primaria).
+        // Stato, numero di eventi e ultimo evento sono aggiornati dai trigger nella stessa transazione della
+        // scrittura su colli/storico_spostamenti. Le righe non vengono cancellate dall'archiviazione:
+        // la tabella copre sia i colli attivi sia quelli archiviati.
+        registra(new Migrazione(12, "Riepilogo del tracking per collo",
+                "CREATE TABLE IF NOT EXISTS stato_tracking (" +
+                        "collo_codice TEXT PRIMARY KEY, " +
+                        "stato INTEGER NOT NULL, " +
+                        "eventi INTEGER NOT NULL DEFAULT 0, " +
+                        "ultimo_timestamp INTEGER, " +
+                        "ultimo_tipo INTEGER, " +
+                        "ultimo_luogo TEXT" +
+                        ") WITHOUT ROWID",
+                // Popolamento iniziale: prima l'archivio, poi i colli attivi (in caso di codice doppio vince l'attivo)
+                "INSERT OR REPLACE INTO stato_tracking " +
+                        "SELECT c.codice, c.stato, " + riepilogoStorico("storico_archivio") + " FROM colli_archivio c",
+                "INSERT OR REPLACE INTO stato_tracking " +
+                        "SELECT c.codice, c.stato, " + riepilogoStorico("storico_spostamenti") + " FROM colli c",
+                "CREATE TRIGGER IF NOT EXISTS trg_tracking_colli_ins AFTER INSERT ON colli " +
+                        "BEGIN INSERT OR REPLACE INTO stato_tracking (collo_codice, stato, eventi) " +
+                        "VALUES (NEW.codice, NEW.stato, 0); END",
+                "CREATE TRIGGER IF NOT EXISTS trg_tracking_colli_stato AFTER UPDATE OF stato ON colli " +
+                        "WHEN OLD.stato IS NOT NEW.stato " +
+                        "BEGIN UPDATE stato_tracking SET stato = NEW.stato WHERE collo_codice = NEW.codice; END",
+                // A parità di timestamp vince l'id più alto, come nell'ordinamento dello storico (timestamp, id):
+                // la riga appena inserita ha sempre l'id più alto
+                "CREATE TRIGGER IF NOT EXISTS trg_tracking_storico_ins AFTER INSERT ON storico_spostamenti " +
+                        "BEGIN UPDATE stato_tracking SET eventi = eventi + 1 WHERE collo_codice = NEW.collo_codice; " +
+                        "UPDATE stato_tracking SET ultimo_timestamp = NEW.timestamp, ultimo_tipo = NEW.tipo, " +
+                        "ultimo_luogo = NEW.luogo WHERE collo_codice = NEW.collo_codice " +
+                        "AND (ultimo_timestamp IS NULL OR ultimo_timestamp <= NEW.timestamp); END"));
+
+        // v13: istante di chiusura dei colli (ms epoch), base della conservazione in ArchiviatoreColli.
+        // Lo impostano i trigger quando lo stato diventa CONSEGNATO (codice 3) (e lo azzerano se il collo viene riaperto),
+        // così vale per ogni percorso di scrittura, anche per un collo consegnato senza eventi di storico.
+        // I colli già consegnati prendono l'ultimo evento o, in mancanza, l'istante della migrazione.
+        registra(new Migrazione(13, "Istante di chiusura dei colli consegnati",
+                "ALTER TABLE colli ADD COLUMN chiuso_il INTEGER",
+                "UPDATE colli SET chiuso_il = COALESCE(" +
+                        "(SELECT MAX(s.timestamp) FROM storico_spostamenti s WHERE s.collo_codice = colli.codice), " +
+                        ADESSO_MS + ") WHERE stato = 3",
+                "CREATE INDEX IF NOT EXISTS idx_colli_chiusura ON colli(chiuso_il) WHERE chiuso_il IS NOT NULL",
+                "CREATE TRIGGER IF NOT EXISTS trg_colli_chiusura_ins AFTER INSERT ON colli " +
+                        "WHEN NEW.stato = 3 AND NEW.chiuso_il IS NULL " +
+                        "BEGIN UPDATE colli SET chiuso_il = " + ADESSO_MS + " WHERE codice = NEW.codice; END",
+                "CREATE TRIGGER IF NOT EXISTS trg_colli_chiusura_upd AFTER UPDATE OF stato ON colli " +
+                        "WHEN OLD.stato IS NOT NEW.stato " +
+                        "BEGIN UPDATE colli SET chiuso_il = CASE WHEN NEW.stato = 3 THEN " + ADESSO_MS +
+                        " ELSE NULL END WHERE codice = NEW.codice; END"));
+    }
+
+    /**
+     * Colonne del popolamento v12 (eventi, ultimo timestamp/tipo/luogo) lette dallo storico indicato
+     * per il collo {@code c}; le sottoquery usano l'indice (collo_codice, timestamp, id, tipo, luogo).
+     */
+    private static String riepilogoStorico(String tabella) {
+        String ultimo = "FROM " + tabella + " s WHERE s.collo_codice = c.codice ORDER BY s.timestamp DESC, s.id DESC LIMIT 1)";
+        return "(SELECT COUNT(*) FROM " + tabella + " s WHERE s.collo_codice = c.codice), " +
+                "(SELECT s.timestamp " + ultimo + ", " +
+                "(SELECT s.tipo " + ultimo + ", " +
+                "(SELECT s.luogo " + ultimo;
+    }
+
+    /**
+     * Corpo dei trigger v10: incrementa il contatore della flotta e annota i veicoli indicati
+     * (espressioni su OLD/NEW, i valori null vengono ignorati) con la nuova versione.
+     */
+    private static String registraModifica(String... veicoli) {
+        StringBuilder codici = new StringBuilder();
+        for (String v : veicoli) {
+            if (codici.length() > 0) codici.append(" UNION ");
+            codici.append("SELECT ").append(v).append(" AS codice");
+        }
+        return "BEGIN UPDATE versione_dati SET versione = versione + 1 WHERE chiave = 'flotta'; " +
+                "INSERT OR IGNORE INTO modifiche_flotta (versione, veicolo_codice) " +
+                "SELECT d.versione, m.codice FROM versione_dati d, (" + codici + ") m " +
+                "WHERE d.chiave = 'flotta' AND m.codice IS NOT NULL; END";
+    }
+
+    private MigrazioniSchema() {}
+
+    private static void registra(Migrazione m) {
+        if (!MIGRAZIONI.isEmpty() && MIGRAZIONI.get(MIGRAZIONI.size() - 1).versione >= m.versione) {
+            throw new IllegalStateException("Le migrazioni devono avere versioni crescenti: " + m.versione);
+        }
+        MIGRAZIONI.add(m);
+    }
+
+    /**
+     * @return La versione più recente dello schema conosciuta dall'applicazione.
+     */
+    public static int getVersioneAttesa() {
+        return MIGRAZIONI.isEmpty() ? 0 : MIGRAZIONI.get(MIGRAZIONI.size() - 1).versione;
+    }
+
+    /**
+     * Legge la versione dello schema salvata nel DB.
+     */
+    public static int getVersioneCorrente(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Porta lo schema all'ultima versione applicando solo i passi mancanti.
+     *
+     * @return Il numero di migrazioni applicate.
+     * @throws SQLException Se un passo fallisce (il passo viene annullato).
+     */
+    public static int applica(Connection conn) throws SQLException {
+        int versione = getVersioneCorrente(conn);
+        int applicate = 0;
+
+        for (Migrazione m : MIGRAZIONI) {
+            if (m.versione <= versione) continue;
+
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (Statement st = conn.createStatement()) {
+                if (m.verifica != null) {
+                    verifica(st, m);
+                }
+                for (String sql : m.istruzioni) {
+                    st.executeUpdate(sql);
+                }
+                // user_version fa parte della transazione: in caso di rollback resta invariata
+                st.executeUpdate("PRAGMA user_version = " + m.versione);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw new SQLException("Migrazione v" + m.versione + " (" + m.descrizione + ") fallita: " + e.getMessage(), e);
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+
+            System.out.println("[Migrazioni] Applicata v" + m.versione + ": " + m.descrizione);
+            versione = m.versione;
+            applicate++;
+        }
+        return applicate;
+    }
+
+    /**
+     * Esegue il controllo preliminare del passo: ogni riga restituita è un dato che il passo
+     * non saprebbe convertire, quindi il passo fallisce elencandole (al massimo {@value #MAX_RIGHE_VERIFICA}).
+     */
+    private static void verifica(Statement st, Migrazione m) throws SQLException {
+        List<String> righe = new ArrayList<>();
+        int totale = 0;
+        try (ResultSet rs = st.executeQuery(m.verifica)) {
+            while (rs.next()) {
+                if (totale++ < MAX_RIGHE_VERIFICA) {
+                    righe.add(rs.getString(1));
+                }
+            }
+        }
+        if (totale == 0) return;
+
+        String elenco = String.join(", ", righe) + (totale > righe.size() ? " e altri " + (totale - righe.size()) : "");
+        throw new SQLException(m.messaggioVerifica + " (" + totale + "): " + elenco);
+    }
+
+    /**
+     * Elenco (sola lettura) delle migrazioni registrate.
+     */
+    public static List<Migrazione> getMigrazioni() {
+        return Collections.unmodifiableList(MIGRAZIONI);
+    }
+
+    /**
+     * Singolo passo di migrazione: versione di arrivo e istruzioni DDL/DML da eseguire.
+     */
+    public static class Migrazione {
+        private final int versione;
+        private final String descrizione;
+        private final String[] istruzioni;
+        private String verifica;
+        private String messaggioVerifica;
+
+        public Migrazione(int versione, String descrizione, String... istruzioni) {
+            this.versione = versione;
+            this.descrizione = descrizione;
+            this.istruzioni = istruzioni;
+        }
+
+        /**
+         * Aggiunge un controllo eseguito prima delle istruzioni, nella stessa transazione.
+         *
+         * @param messaggio Descrizione del problema, usata nell'errore.
+         * @param query     SELECT con una sola colonna: ogni riga è un dato che blocca il passo.
+         */
+        public Migrazione conVerifica(String messaggio, String query) {
+            this.messaggioVerifica = messaggio;
+            this.verifica = query;
+            return this;
+        }
+
+        public int getVersione() { return versione; }
+        public String getDescrizione() { return descrizione; }
+
+        @Override
+        public String toString() {
+            return "v" + versione + " - " + descrizione;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.Azienda;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Risultato di {@link IPersistenza#getModificheFlotta}: cosa è cambiato nella flotta da una versione nota.
+ * <p>
+ * Se la modifica è <b>completa</b> (prima lettura, DB ricreato, registro potato) {@link #getAziende()}
+ * contiene l'intera flotta. Altrimenti contiene solo i veicoli modificati, ricaricati con il loro
+ * carico e raggruppati per azienda; i codici in {@link #getVeicoliModificati()} che non compaiono
+ * tra questi sono veicoli eliminati.
+ * </p>
+ * <p>
+ * Il registro {@code modifiche_flotta} da cui vengono lette (migrazione v10) viene potato periodicamente
+ * da {@link #avviaPotaturaRegistro()}: chi resta indietro oltre la finestra conservata rilegge tutto.
+ * </p>
+ */
+public class ModificheFlotta {
+
+    private static final String POTA_REGISTRO =
+            "DELETE FROM modifiche_flotta WHERE versione <= " +
+            "(SELECT versione FROM versione_dati WHERE chiave = 'flotta') - ?";
+
+    private static ScheduledExecutorService potatura;
+
+    private final VersioneFlotta versione;
+    private final boolean completa;
+    private final Set<String> veicoliModificati;
+    private final List<Azienda> aziende;
+
+    private ModificheFlotta(VersioneFlotta versione, boolean completa, Set<String> veicoliModificati, List<Azienda> aziende) {
+        this.versione = versione;
+        this.completa = completa;
+        this.veicoliModificati = Collections.unmodifiableSet(veicoliModificati);
+        this.aziende = Collections.unmodifiableList(aziende);
+    }
+
+    public static ModificheFlotta completa(VersioneFlotta versione, List<Azienda> flotta) {
+        return new ModificheFlotta(versione, true, Collections.<String>emptySet(), flotta);
+    }
+
+    public static ModificheFlotta incrementale(VersioneFlotta versione, Set<String> veicoliModificati, List<Azienda> aggiornati) {
+        return new ModificheFlotta(versione, false, veicoliModificati, aggiornati);
+    }
+
+    /**
+     * @return La versione da ripassare alla prossima richiesta.
+     */
+    public VersioneFlotta getVersione() { return versione; }
+
+    public boolean isCompleta() { return completa; }
+
+    public Set<String> getVeicoliModificati() { return veicoliModificati; }
+
+    public List<Azienda> getAziende() { return aziende; }
+
+    public boolean isVuota() {
+        return !completa && veicoliModificati.isEmpty();
+    }
+
+    // =========================================================================
+    // POTATURA DEL REGISTRO
+    // =========================================================================
+
+    /**
+     * Avvia (una sola volta per processo) la potatura periodica del registro su un thread in background,
+     * configurabile con proprietà di sistema:
+     * <ul>
+     *     <li>{@code logistica.flotta.registro}: versioni conservate nel registro (default 10000);</li>
+     *     <li>{@code logistica.flotta.potaturaMin}: minuti tra due potature, 0 per disattivarla (default 10).</li>
+     * </ul>
+     * Si ferma alla chiusura del database.
+     */
+    static synchronized void avviaPotaturaRegistro() {
+        if (potatura != null) return;
+        final long versioniRegistro = Long.getLong("logistica.flotta.registro", 10000L);
+        long intervalloMin = Long.getLong("logistica.flotta.potaturaMin", 10L);
+        if (intervalloMin <= 0) return;
+
+        final ScrittoreDB scrittore = ConnessioneDB.getInstance().getScrittore();
+        final ScheduledExecutorService pianificatore = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "potatura-flotta");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pianificatore.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    potaRegistro(scrittore, versioniRegistro);
+                } catch (SQLException e) {
+                    System.err.println("[ModificheFlotta] Potatura del registro flotta fallita: " + e.getMessage());
+                }
+            }
+        }, intervalloMin, intervalloMin, TimeUnit.MINUTES);
+        ConnessioneDB.getInstance().registraAllaChiusura(new Runnable() {
+            @Override
+            public void run() {
+                pianificatore.shutdownNow();
+            }
+        });
+        potatura = pianificatore;
+    }
+
+    /**
+     * Elimina dal registro {@code modifiche_flotta} le versioni più vecchie delle ultime {@code daConservare}.
+     *
+     * @return Il numero di righe eliminate.
+     */
+    static int potaRegistro(ScrittoreDB scrittore, final long daConservare) throws SQLException {
+        return scrittore.esegui(new ScrittoreDB.Scrittura<Integer>() {
+            @Override
+            public Integer esegui(Connection conn) throws SQLException {
+                try (PreparedStatement ps = conn.prepareStatement(POTA_REGISTRO)) {
+                    ps.setLong(1, daConservare);
+                    return ps.executeUpdate();
+                }
+            }
+        });
+    }
+}
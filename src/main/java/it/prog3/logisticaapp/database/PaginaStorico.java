@@ -0,0 +1,33 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.EventoTracking;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pagina dello storico spostamenti di un collo (eventi dal più recente al più vecchio).
+ * <p>
+ * Il token di continuazione è opaco per il chiamante: va ripassato così com'è
+ * per ottenere la pagina successiva (eventi più vecchi).
+ * </p>
+ */
+public class PaginaStorico {
+
+    private final List<EventoTracking> eventi;
+    private final String tokenSuccessivo;
+
+    public PaginaStorico(List<EventoTracking> eventi, String tokenSuccessivo) {
+        this.eventi = Collections.unmodifiableList(eventi);
+        this.tokenSuccessivo = tokenSuccessivo;
+    }
+
+    public List<EventoTracking> getEventi() { return eventi; }
+
+    /**
+     * @return Il token per la pagina successiva, oppure null se questa è l'ultima.
+     */
+    public String getTokenSuccessivo() { return tokenSuccessivo; }
+
+    public boolean haAltri() { return tokenSuccessivo != null; }
+}
@@ -0,0 +1,358 @@
+package it.prog3.logisticaapp.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool limitato di connessioni JDBC riutilizzabili.
+ * <p>
+ * Le connessioni fisiche vengono aperte una sola volta e restano vive per tutta la durata
+ * dell'applicazione. Al chiamante viene consegnato un <b>Proxy dinamico</b> della connessione:
+ * la chiamata a {@code close()} non chiude il file SQLite ma restituisce la connessione al pool.
+ * </p>
+ * <p>
+ * Funzionalità: dimensione massima configurabile, validazione al prelievo,
+ * rilevamento delle connessioni non restituite (leak) e chiusura ordinata.
+ * </p>
+ */
+public class PoolConnessioni {
+
+    private final String url;
+    private final Properties proprieta;
+    private final int dimensioneMassima;
+    private final long timeoutAttesaMs;
+    private final long sogliaLeakMs;
+
+    // Connessioni fisiche libere, pronte per essere prestate
+    private final BlockingQueue<Connection> libere;
+    // Connessioni fisiche attualmente in prestito (per il rilevamento dei leak)
+    private final Map<Connection, Prestito> inUso = new ConcurrentHashMap<>();
+
+    private final AtomicInteger connessioniAperte = new AtomicInteger();
+    private final ScheduledExecutorService controlloLeak;
+    private volatile boolean chiuso = false;
+
+    // Statistiche
+    private final AtomicLong prestitiTotali = new AtomicLong();
+    private final AtomicLong attese = new AtomicLong();
+    private final AtomicLong nanosAttesa = new AtomicLong();
+    private final AtomicLong connessioniScartate = new AtomicLong();
+    private final AtomicLong leakSegnalati = new AtomicLong();
+
+    /**
+     * @param url               URL JDBC delle connessioni fisiche.
+     * @param dimensioneMassima Numero massimo di connessioni aperte contemporaneamente.
+     * @param timeoutAttesaMs   Attesa massima quando il pool è esaurito.
+     * @param sogliaLeakMs      Durata oltre la quale un prestito viene segnalato come leak.
+     */
+    public PoolConnessioni(String url, int dimensioneMassima, long timeoutAttesaMs, long sogliaLeakMs) {
+        this(url, new Properties(), dimensioneMassima, timeoutAttesaMs, sogliaLeakMs);
+    }
+
+    /**
+     * @param proprieta Proprietà passate al driver all'apertura di ogni connessione fisica
+     *                  (es. apertura in sola lettura).
+     */
+    public PoolConnessioni(String url, Properties proprieta, int dimensioneMassima, long timeoutAttesaMs, long sogliaLeakMs) {
+        if (dimensioneMassima <= 0) {
+            throw new IllegalArgumentException("La dimensione del pool deve essere maggiore di zero.");
+        }
+        this.url = url;
+        this.proprieta = proprieta;
+        this.dimensioneMassima = dimensioneMassima;
+        this.timeoutAttesaMs = timeoutAttesaMs;
+        this.sogliaLeakMs = sogliaLeakMs;
+        this.libere = new ArrayBlockingQueue<>(dimensioneMassima);
+
+        this.controlloLeak = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "pool-db-leak");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long periodo = Math.max(1000, sogliaLeakMs / 2);
+        this.controlloLeak.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                cercaLeak();
+            }
+        }, periodo, periodo, TimeUnit.MILLISECONDS);
+    }
+
+    // =========================================================================
+    // PRESTITO E RESTITUZIONE
+    // =========================================================================
+
+    /**
+     * Preleva una connessione dal pool (aprendone una nuova se c'è ancora spazio).
+     *
+     * @return Una connessione logica: chiamare {@code close()} per restituirla.
+     * @throws SQLException Se il pool è chiuso o esaurito oltre il timeout.
+     */
+    public Connection preleva() throws SQLException {
+        long inizio = System.nanoTime();
+        long scadenza = inizio + TimeUnit.MILLISECONDS.toNanos(timeoutAttesaMs);
+        boolean inAttesa = false;
+
+        while (true) {
+            if (chiuso) {
+                throw new SQLException("Pool di connessioni chiuso.");
+            }
+
+            Connection fisica = libere.poll();
+
+            if (fisica == null) {
+                fisica = apriSeDisponibile();
+            }
+
+            if (fisica == null) {
+                // Pool esaurito: attendiamo una restituzione
+                if (!inAttesa) {
+                    inAttesa = true;
+                    attese.incrementAndGet();
+                }
+                long residuo = scadenza - System.nanoTime();
+                if (residuo <= 0) {
+                    throw new SQLException("Pool esaurito: nessuna connessione libera dopo " + timeoutAttesaMs + " ms.");
+                }
+                try {
+                    fisica = libere.poll(residuo, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Attesa della connessione interrotta.", e);
+                }
+                if (fisica == null) {
+                    continue;
+                }
+            }
+
+            // Validazione al prelievo: scartiamo le connessioni non più utilizzabili
+            if (!valida(fisica)) {
+                scarta(fisica);
+                continue;
+            }
+
+            if (inAttesa) {
+                nanosAttesa.addAndGet(System.nanoTime() - inizio);
+            }
+            prestitiTotali.incrementAndGet();
+            inUso.put(fisica, new Prestito(Thread.currentThread().getName()));
+            return avvolgi(fisica);
+        }
+    }
+
+    /**
+     * Riporta la connessione fisica nel pool, ripulendo eventuali transazioni lasciate aperte.
+     */
+    private void restituisci(Connection fisica) {
+        inUso.remove(fisica);
+        try {
+            if (!fisica.getAutoCommit()) {
+                fisica.rollback();
+                fisica.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            scarta(fisica);
+            return;
+        }
+
+        if (chiuso || !libere.offer(fisica)) {
+            chiudiFisica(fisica);
+        }
+    }
+
+    private Connection apriSeDisponibile() throws SQLException {
+        while (true) {
+            int aperte = connessioniAperte.get();
+            if (aperte >= dimensioneMassima) {
+                return null;
+            }
+            if (connessioniAperte.compareAndSet(aperte, aperte + 1)) {
+                try {
+                    return DriverManager.getConnection(url, proprieta);
+                } catch (SQLException e) {
+                    connessioniAperte.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private boolean valida(Connection fisica) {
+        try {
+            return !fisica.isClosed() && fisica.isValid(1);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void scarta(Connection fisica) {
+        connessioniScartate.incrementAndGet();
+        chiudiFisica(fisica);
+    }
+
+    private void chiudiFisica(Connection fisica) {
+        connessioniAperte.decrementAndGet();
+        try {
+            fisica.close();
+        } catch (SQLException e) {
+            // La connessione era già inutilizzabile: nulla da fare
+        }
+    }
+
+    /**
+     * Crea il Proxy dinamico che intercetta {@code close()}.
+     */
+    private Connection avvolgi(Connection fisica) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new ConnessioneInPrestito(fisica));
+    }
+
+    // =========================================================================
+    // LEAK DETECTION E CHIUSURA
+    // =========================================================================
+
+    private void cercaLeak() {
+        long adesso = System.currentTimeMillis();
+        for (Prestito p : inUso.values()) {
+            if (!p.segnalato && adesso - p.inizio > sogliaLeakMs) {
+                p.segnalato = true;
+                leakSegnalati.incrementAndGet();
+                System.err.println("[PoolConnessioni] Possibile leak: connessione prestata al thread '"
+                        + p.thread + "' da " + (adesso - p.inizio) + " ms.");
+            }
+        }
+    }
+
+    /**
+     * Chiude tutte le connessioni libere e impedisce nuovi prestiti.
+     * Le connessioni ancora in uso vengono chiuse al momento della restituzione.
+     */
+    public void chiudi() {
+        if (chiuso) return;
+        chiuso = true;
+        controlloLeak.shutdownNow();
+
+        Connection fisica;
+        while ((fisica = libere.poll()) != null) {
+            chiudiFisica(fisica);
+        }
+        if (!inUso.isEmpty()) {
+            System.err.println("[PoolConnessioni] Chiusura con " + inUso.size() + " connessioni ancora in uso.");
+        }
+        System.out.println("[PoolConnessioni] Pool chiuso. " + getStatistiche());
+    }
+
+    public boolean isChiuso() { return chiuso; }
+
+    // =========================================================================
+    // STATISTICHE
+    // =========================================================================
+
+    public int getDimensioneMassima() { return dimensioneMassima; }
+    public int getConnessioniAperte() { return connessioniAperte.get(); }
+    public int getConnessioniInUso() { return inUso.size(); }
+    public int getConnessioniLibere() { return libere.size(); }
+    public long getPrestitiTotali() { return prestitiTotali.get(); }
+    public long getAttese() { return attese.get(); }
+    public long getConnessioniScartate() { return connessioniScartate.get(); }
+    public long getLeakSegnalati() { return leakSegnalati.get(); }
+
+    /**
+     * @return Tempo medio di attesa (ms) dei prelievi che hanno trovato il pool esaurito.
+     */
+    public double getAttesaMediaMs() {
+        long n = attese.get();
+        return n == 0 ? 0.0 : nanosAttesa.get() / 1_000_000.0 / n;
+    }
+
+    public String getStatistiche() {
+        return String.format("aperte=%d/%d, inUso=%d, libere=%d, prestiti=%d, attese=%d (media %.2f ms), scartate=%d, leak=%d",
+                getConnessioniAperte(), dimensioneMassima, getConnessioniInUso(), getConnessioniLibere(),
+                getPrestitiTotali(), getAttese(), getAttesaMediaMs(), getConnessioniScartate(), getLeakSegnalati());
+    }
+
+    // =========================================================================
+    // CLASSI INTERNE
+    // =========================================================================
+
+    /**
+     * Informazioni su un prestito in corso.
+     */
+    private static class Prestito {
+        private final long inizio = System.currentTimeMillis();
+        private final String thread;
+        private volatile boolean segnalato = false;
+
+        Prestito(String thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * InvocationHandler del Proxy: delega tutto alla connessione fisica tranne {@code close()}.
+     */
+    private class ConnessioneInPrestito implements InvocationHandler {
+
+        private final Connection fisica;
+        private boolean restituita = false;
+
+        ConnessioneInPrestito(Connection fisica) {
+            this.fisica = fisica;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String nome = method.getName();
+
+            if ("close".equals(nome)) {
+                if (!restituita) {
+                    restituita = true;
+                    restituisci(fisica);
+                }
+                return null;
+            }
+            if ("isClosed".equals(nome)) {
+                return restituita || fisica.isClosed();
+            }
+            if ("equals".equals(nome)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(nome)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(nome)) {
+                return "ConnessioneInPrestito[" + fisica + "]";
+            }
+            if (restituita) {
+                throw new SQLException("Connessione già restituita al pool.");
+            }
+
+            try {
+                return method.invoke(fisica, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
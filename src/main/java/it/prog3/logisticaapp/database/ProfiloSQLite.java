@@ -0,0 +1,113 @@
+package it.prog3.logisticaapp.database;
+
+import org.sqlite.SQLiteConfig;
+
+import java.util.Properties;
+
+/**
+ * Profili di configurazione delle connessioni SQLite.
+ * <p>
+ * Entrambi i profili usano il journal <b>WAL</b>: i lettori (ricerche dei clienti) non si
+ * bloccano più dietro allo scrittore (scansioni dei corrieri). Cambia il compromesso tra
+ * durabilità e throughput:
+ * <ul>
+ *     <li>{@link #SICURO}: {@code synchronous=FULL}, nessuna transazione confermata va persa
+ *     nemmeno in caso di blackout;</li>
+ *     <li>{@link #PRESTAZIONI}: {@code synchronous=NORMAL} (in WAL il DB resta integro, si possono
+ *     perdere solo gli ultimi commit in caso di blackout), cache più grande, mmap e tabelle
+ *     temporanee in RAM.</li>
+ * </ul>
+ * Il profilo si sceglie con la proprietà di sistema {@code logistica.db.profilo} (default SICURO).
+ * </p>
+ */
+public enum ProfiloSQLite {
+
+    SICURO(SQLiteConfig.SynchronousMode.FULL, 5000, 8 * 1024, 0L,
+            SQLiteConfig.TempStore.DEFAULT, 1000, 30_000L),
+
+    PRESTAZIONI(SQLiteConfig.SynchronousMode.NORMAL, 5000, 64 * 1024, 256L * 1024 * 1024,
+            SQLiteConfig.TempStore.MEMORY, 4000, 10_000L);
+
+    private final SQLiteConfig.SynchronousMode synchronous;
+    private final int busyTimeoutMs;
+    private final int cacheKiB;
+    private final long mmapByte;
+    private final SQLiteConfig.TempStore tempStore;
+    private final int paginePerCheckpoint;
+    private final long intervalloCheckpointMs;
+
+    /**
+     * @param cacheKiB               Dimensione della page cache per connessione (KiB).
+     * @param mmapByte               Byte del file mappati in memoria (0 = mmap disattivato).
+     * @param paginePerCheckpoint    Pagine di WAL oltre cui il commit esegue un checkpoint automatico.
+     * @param intervalloCheckpointMs Periodo del checkpoint in background.
+     */
+    ProfiloSQLite(SQLiteConfig.SynchronousMode synchronous, int busyTimeoutMs, int cacheKiB, long mmapByte,
+                  SQLiteConfig.TempStore tempStore, int paginePerCheckpoint, long intervalloCheckpointMs) {
+        this.synchronous = synchronous;
+        this.busyTimeoutMs = busyTimeoutMs;
+        this.cacheKiB = cacheKiB;
+        this.mmapByte = mmapByte;
+        this.tempStore = tempStore;
+        this.paginePerCheckpoint = paginePerCheckpoint;
+        this.intervalloCheckpointMs = intervalloCheckpointMs;
+    }
+
+    /**
+     * Legge il profilo dalla proprietà di sistema {@code logistica.db.profilo}.
+     *
+     * @throws IllegalArgumentException Se il nome del profilo non esiste.
+     */
+    public static ProfiloSQLite daProprieta() {
+        String nome = System.getProperty("logistica.db.profilo", SICURO.name());
+        try {
+            return valueOf(nome.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Profilo SQLite sconosciuto: " + nome + " (ammessi: SICURO, PRESTAZIONI)", e);
+        }
+    }
+
+    /**
+     * Proprietà della connessione dello scrittore: imposta anche il journal WAL,
+     * che resta salvato nel file e vale quindi anche per i lettori.
+     */
+    public Properties proprietaScrittura() {
+        SQLiteConfig config = configurazioneComune();
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        return config.toProperties();
+    }
+
+    /**
+     * Proprietà delle connessioni in sola lettura del pool.
+     */
+    public Properties proprietaLettura() {
+        SQLiteConfig config = configurazioneComune();
+        config.setReadOnly(true);
+        return config.toProperties();
+    }
+
+    private SQLiteConfig configurazioneComune() {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setSynchronous(synchronous);
+        config.setBusyTimeout(busyTimeoutMs);
+        config.setCacheSize(-cacheKiB); // valore negativo = dimensione in KiB invece che in pagine
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(mmapByte));
+        config.setTempStore(tempStore);
+        return config;
+    }
+
+    /**
+     * Istruzione che imposta il checkpoint automatico sulla connessione dello scrittore.
+     */
+    public String pragmaCheckpointAutomatico() {
+        return "PRAGMA wal_autocheckpoint = " + paginePerCheckpoint;
+    }
+
+    public long getIntervalloCheckpointMs() { return intervalloCheckpointMs; }
+
+    @Override
+    public String toString() {
+        return String.format("%s (synchronous=%s, busy_timeout=%d ms, cache=%d KiB, mmap=%d MiB, temp_store=%s, autocheckpoint=%d pagine)",
+                name(), synchronous, busyTimeoutMs, cacheKiB, mmapByte / (1024 * 1024), tempStore, paginePerCheckpoint);
+    }
+}
@@ -0,0 +1,39 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.EventoTracking;
+import it.prog3.logisticaapp.model.StatoCollo;
+
+/**
+ * Riepilogo del tracking di un collo: stato, numero di eventi e ultimo evento.
+ * <p>
+ * È quanto serve alla prima schermata del Cliente, senza caricare il collo completo né lo storico.
+ * Su SQLite viene letto con una sola lettura per chiave primaria dalla tabella {@code stato_tracking}
+ * (migrazione v12), tenuta aggiornata dai trigger.
+ * </p>
+ */
+public class RiepilogoTracking {
+
+    private final String codice;
+    private final StatoCollo stato;
+    private final int numeroEventi;
+    private final EventoTracking ultimoEvento;
+
+    /**
+     * @param ultimoEvento L'evento più recente, oppure null se lo storico è vuoto.
+     */
+    public RiepilogoTracking(String codice, StatoCollo stato, int numeroEventi, EventoTracking ultimoEvento) {
+        this.codice = codice;
+        this.stato = stato;
+        this.numeroEventi = numeroEventi;
+        this.ultimoEvento = ultimoEvento;
+    }
+
+    public String getCodice() { return codice; }
+    public StatoCollo getStato() { return stato; }
+    public int getNumeroEventi() { return numeroEventi; }
+
+    /**
+     * @return L'evento più recente, oppure null se il collo non ha ancora eventi.
+     */
+    public EventoTracking getUltimoEvento() { return ultimoEvento; }
+}
@@ -0,0 +1,362 @@
+package it.prog3.logisticaapp.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unico scrittore del database.
+ * <p>
+ * SQLite ammette un solo writer alla volta: invece di far competere le connessioni del pool
+ * per il lock (SQLITE_BUSY, latenze imprevedibili) tutte le modifiche vengono accodate qui
+ * ed eseguite da un solo thread, che possiede una connessione dedicata e sempre aperta.
+ * </p>
+ * <p>
+ * Le richieste arrivate mentre il thread era occupato vengono <b>raggruppate in un'unica
+ * transazione</b> (un solo COMMIT, un solo fsync). Ogni richiesta gira nel proprio SAVEPOINT:
+ * se fallisce viene annullata solo lei, le altre del gruppo vengono comunque confermate.
+ * Il chiamante resta in attesa finché la sua scrittura non è stata confermata o rifiutata,
+ * al massimo per il tempo indicato al costruttore: oltre, riceve una SQLException.
+ * </p>
+ * <p>
+ * Nessun errore di una scrittura (nemmeno un {@link Error}, es. StackOverflowError) può fermare
+ * il thread: viene consegnato al chiamante come esito della sua richiesta.
+ * </p>
+ */
+public class ScrittoreDB {
+
+    /**
+     * Operazione di scrittura eseguita sulla connessione dello scrittore.
+     * <p>
+     * Non deve chiamare {@code commit()}/{@code rollback()}: la transazione è gestita dallo scrittore.
+     * </p>
+     */
+    public interface Scrittura<T> {
+        T esegui(Connection conn) throws SQLException;
+    }
+
+    private final Connection conn;
+    private final int massimoPerTransazione;
+    private final long attesaMassimaMs;
+    private final BlockingQueue<Richiesta<?>> coda = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean chiuso = false;
+
+    // Statistiche
+    private final AtomicLong transazioni = new AtomicLong();
+    private final AtomicLong scrittureEseguite = new AtomicLong();
+    private final AtomicLong scrittureFallite = new AtomicLong();
+    private final AtomicLong massimoRaggruppate = new AtomicLong();
+    private final AtomicLong atteseScadute = new AtomicLong();
+
+    /**
+     * @param url                   URL JDBC del database.
+     * @param proprieta             Proprietà della connessione (es. configurazione del driver).
+     * @param massimoPerTransazione Numero massimo di richieste raggruppate in una transazione.
+     * @param attesaMassimaMs       Attesa massima del chiamante per l'esito della propria scrittura.
+     * @throws SQLException Se la connessione non può essere aperta.
+     */
+    public ScrittoreDB(String url, Properties proprieta, int massimoPerTransazione, long attesaMassimaMs) throws SQLException {
+        if (massimoPerTransazione <= 0) {
+            throw new IllegalArgumentException("Il numero di scritture per transazione deve essere maggiore di zero.");
+        }
+        if (attesaMassimaMs <= 0) {
+            throw new IllegalArgumentException("L'attesa massima deve essere maggiore di zero.");
+        }
+        this.conn = DriverManager.getConnection(url, proprieta);
+        this.massimoPerTransazione = massimoPerTransazione;
+        this.attesaMassimaMs = attesaMassimaMs;
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ciclo();
+            }
+        }, "scrittore-db");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // =========================================================================
+    // API
+    // =========================================================================
+
+    /**
+     * Accoda una scrittura e attende che la transazione che la contiene sia confermata.
+     *
+     * @return Il valore restituito dalla scrittura.
+     * @throws SQLException Se la scrittura o il COMMIT falliscono (la scrittura non è stata applicata),
+     *                      o se l'esito non arriva entro l'attesa massima.
+     */
+    public <T> T esegui(Scrittura<T> scrittura) throws SQLException {
+        return sottometti(new Richiesta<>(scrittura, true));
+    }
+
+    /**
+     * Esegue una scrittura da sola, fuori dalle transazioni raggruppate e in autocommit.
+     * <p>
+     * Serve alle operazioni che gestiscono da sé le transazioni (es. le migrazioni dello schema).
+     * </p>
+     */
+    public <T> T eseguiInEsclusiva(Scrittura<T> scrittura) throws SQLException {
+        return sottometti(new Richiesta<>(scrittura, false));
+    }
+
+    private <T> T sottometti(Richiesta<T> richiesta) throws SQLException {
+        // Chiamata rientrante dal thread scrittore: eseguirla in coda causerebbe un deadlock
+        if (Thread.currentThread() == thread) {
+            return richiesta.scrittura.esegui(conn);
+        }
+        if (chiuso) {
+            throw new SQLException("Scrittore del database chiuso.");
+        }
+
+        coda.add(richiesta);
+        long scadenza = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(attesaMassimaMs);
+        try {
+            // Attesa a intervalli: se il thread scrittore non c'è più è inutile aspettare la scadenza
+            while (!richiesta.completata.await(Math.min(1000, attesaMassimaMs), TimeUnit.MILLISECONDS)) {
+                if (!thread.isAlive()) {
+                    throw abbandona(richiesta, "Thread scrittore terminato", null);
+                }
+                if (System.nanoTime() - scadenza >= 0) {
+                    atteseScadute.incrementAndGet();
+                    throw abbandona(richiesta, "Nessun esito dopo " + attesaMassimaMs + " ms", null);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw abbandona(richiesta, "Attesa della scrittura interrotta", e);
+        }
+        return richiesta.risultato();
+    }
+
+    /**
+     * Ritira una richiesta di cui il chiamante non attende più l'esito.
+     * Se il thread non l'ha ancora presa in carico non verrà più eseguita.
+     */
+    private static SQLException abbandona(Richiesta<?> richiesta, String motivo, Throwable causa) {
+        if (richiesta.stato.compareAndSet(Richiesta.IN_CODA, Richiesta.ABBANDONATA)) {
+            return new SQLException(motivo + ": la scrittura non è stata eseguita.", causa);
+        }
+        return new SQLException(motivo + " (l'esito non è noto).", causa);
+    }
+
+    // =========================================================================
+    // THREAD SCRITTORE
+    // =========================================================================
+
+    private void ciclo() {
+        List<Richiesta<?>> gruppo = new ArrayList<>();
+        while (true) {
+            Richiesta<?> prima;
+            try {
+                prima = coda.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                prima = null;
+            }
+            if (prima == null) {
+                if (chiuso && coda.isEmpty()) return;
+                continue;
+            }
+            // Il chiamante ha smesso di attendere prima che la richiesta fosse presa in carico
+            if (!prima.prendiInCarico()) continue;
+
+            if (!prima.transazionale) {
+                eseguiDaSola(prima);
+                continue;
+            }
+
+            // Raggruppamento: tutte le scritture transazionali già in coda finiscono nello stesso COMMIT
+            gruppo.add(prima);
+            while (gruppo.size() < massimoPerTransazione) {
+                Richiesta<?> successiva = coda.peek();
+                if (successiva == null || !successiva.transazionale) break;
+                coda.poll();
+                if (successiva.prendiInCarico()) gruppo.add(successiva);
+            }
+
+            eseguiGruppo(gruppo);
+            gruppo.clear();
+        }
+    }
+
+    private void eseguiDaSola(Richiesta<?> richiesta) {
+        try {
+            richiesta.eseguiSu(conn);
+            scrittureEseguite.incrementAndGet();
+        } catch (Throwable e) {
+            richiesta.errore = e;
+            scrittureFallite.incrementAndGet();
+        } finally {
+            richiesta.completata.countDown();
+        }
+    }
+
+    private void eseguiGruppo(List<Richiesta<?>> gruppo) {
+        try {
+            conn.setAutoCommit(false);
+            for (Richiesta<?> r : gruppo) {
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    r.eseguiSu(conn);
+                    conn.releaseSavepoint(savepoint);
+                } catch (Throwable e) {
+                    r.errore = e;
+                    conn.rollback(savepoint);
+                    conn.releaseSavepoint(savepoint);
+                }
+            }
+            conn.commit();
+        } catch (Throwable e) {
+            // COMMIT (o gestione dei savepoint) fallito: nessuna scrittura del gruppo è stata applicata
+            annullaSilenziosamente();
+            for (Richiesta<?> r : gruppo) {
+                if (r.errore == null) r.errore = e;
+            }
+        } finally {
+            ripristinaAutoCommit();
+
+            transazioni.incrementAndGet();
+            if (gruppo.size() > massimoRaggruppate.get()) {
+                massimoRaggruppate.set(gruppo.size()); // unico thread che scrive il valore
+            }
+            for (Richiesta<?> r : gruppo) {
+                if (r.errore == null) {
+                    scrittureEseguite.incrementAndGet();
+                } else {
+                    scrittureFallite.incrementAndGet();
+                }
+                r.completata.countDown();
+            }
+        }
+    }
+
+    private void annullaSilenziosamente() {
+        try {
+            conn.rollback();
+        } catch (SQLException | RuntimeException e) {
+            // La transazione è già stata annullata dal driver
+        }
+    }
+
+    private void ripristinaAutoCommit() {
+        try {
+            conn.setAutoCommit(true);
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("[ScrittoreDB] Impossibile ripristinare l'autocommit: " + e.getMessage());
+        }
+    }
+
+    // =========================================================================
+    // CHIUSURA E STATISTICHE
+    // =========================================================================
+
+    /**
+     * Smette di accettare scritture, esegue quelle già in coda e chiude la connessione.
+     */
+    public void chiudi() {
+        if (chiuso) return;
+        chiuso = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Richieste arrivate a cavallo della chiusura: le rifiutiamo invece di lasciarle in attesa
+        Richiesta<?> tardiva;
+        while ((tardiva = coda.poll()) != null) {
+            tardiva.errore = new SQLException("Scrittore del database chiuso.");
+            scrittureFallite.incrementAndGet();
+            tardiva.completata.countDown();
+        }
+
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.err.println("[ScrittoreDB] Errore in chiusura: " + e.getMessage());
+        }
+        System.out.println("[ScrittoreDB] Chiuso. " + getStatistiche());
+    }
+
+    public boolean isChiuso() { return chiuso; }
+
+    public int getScrittureInCoda() { return coda.size(); }
+    public long getTransazioni() { return transazioni.get(); }
+    public long getScrittureEseguite() { return scrittureEseguite.get(); }
+    public long getScrittureFallite() { return scrittureFallite.get(); }
+    public long getMassimoRaggruppate() { return massimoRaggruppate.get(); }
+    public long getAtteseScadute() { return atteseScadute.get(); }
+
+    /**
+     * @return Numero medio di scritture confermate con un solo COMMIT.
+     */
+    public double getMediaPerTransazione() {
+        long t = transazioni.get();
+        return t == 0 ? 0.0 : (double) (scrittureEseguite.get() + scrittureFallite.get()) / t;
+    }
+
+    public String getStatistiche() {
+        return String.format("transazioni=%d, scritture=%d, fallite=%d, media/transazione=%.1f, max raggruppate=%d, " +
+                        "inCoda=%d, attese scadute=%d",
+                getTransazioni(), getScrittureEseguite(), getScrittureFallite(),
+                getMediaPerTransazione(), getMassimoRaggruppate(), getScrittureInCoda(), getAtteseScadute());
+    }
+
+    // =========================================================================
+    // CLASSI INTERNE
+    // =========================================================================
+
+    /**
+     * Scrittura accodata in attesa del thread scrittore.
+     */
+    private static class Richiesta<T> {
+        static final int IN_CODA = 0;
+        static final int IN_ESECUZIONE = 1;
+        static final int ABBANDONATA = 2;
+
+        private final Scrittura<T> scrittura;
+        private final boolean transazionale;
+        private final CountDownLatch completata = new CountDownLatch(1);
+        private final AtomicInteger stato = new AtomicInteger(IN_CODA);
+        private T valore;
+        private volatile Throwable errore;
+
+        Richiesta(Scrittura<T> scrittura, boolean transazionale) {
+            this.scrittura = scrittura;
+            this.transazionale = transazionale;
+        }
+
+        /**
+         * @return false se il chiamante l'ha già abbandonata (non va eseguita).
+         */
+        boolean prendiInCarico() {
+            return stato.compareAndSet(IN_CODA, IN_ESECUZIONE);
+        }
+
+        void eseguiSu(Connection conn) throws SQLException {
+            valore = scrittura.esegui(conn);
+        }
+
+        T risultato() throws SQLException {
+            if (errore instanceof SQLException) throw (SQLException) errore;
+            if (errore instanceof RuntimeException) throw (RuntimeException) errore;
+            if (errore != null) {
+                // Error nella scrittura: lo scrittore resta attivo, il chiamante riceve l'esito come SQLException
+                throw new SQLException("Errore grave durante la scrittura: " + errore, errore);
+            }
+            return valore;
+        }
+    }
+}
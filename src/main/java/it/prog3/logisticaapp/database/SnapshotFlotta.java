@@ -0,0 +1,318 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.Azienda;
+import it.prog3.logisticaapp.model.AziendaConcreta;
+import it.prog3.logisticaapp.model.ColloProxy;
+import it.prog3.logisticaapp.model.GruppoColli;
+import it.prog3.logisticaapp.model.ICollo;
+import it.prog3.logisticaapp.model.IVeicolo;
+import it.prog3.logisticaapp.model.StatoCollo;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot binario del grafo della flotta (Azienda -> IVeicolo -> ICollo).
+ * <p>
+ * Ogni apertura di una schermata crea una {@link it.prog3.logisticaapp.business.LogisticaFacade},
+ * che carica l'intera flotta. Invece di ricostruire il grafo con la join SQL, lo snapshot lo legge
+ * da un file compatto con una sola lettura sequenziale.
+ * </p>
+ * <p>
+ * Validità: i trigger della migrazione v9 incrementano il contatore {@code versione_dati.flotta}
+ * a ogni modifica che cambia il grafo (veicoli, colli caricati, stato dei colli caricati).
+ * Lo snapshot salva il contatore (e l'epoca del DB, che cambia a ogni reset): se non coincide
+ * con quello attuale, la flotta viene riletta via SQL e lo snapshot riscritto.
+ * Contatore e flotta vengono letti nella stessa transazione di lettura, quindi lo snapshot
+ * non può mai associare un grafo alla versione sbagliata.
+ * </p>
+ * <p>
+ * Formato: {@code "LGFS" | versione formato | epoca | versione flotta | CRC32 del corpo | corpo},
+ * corpo = aziende (nome, veicoli (codice, tipo, colli (codice, stato))).
+ * </p>
+ */
+public class SnapshotFlotta {
+
+    private static final byte[] MAGIA = {'L', 'G', 'F', 'S'};
+    private static final int VERSIONE_FORMATO = 1;
+    private static final int DIMENSIONE_INTESTAZIONE = 4 + 4 + 8 + 8 + 8;
+
+    private static final String SELECT_VERSIONE =
+            "SELECT chiave, versione FROM versione_dati WHERE chiave IN ('epoca', 'flotta')";
+
+    private static SnapshotFlotta istanzaDefault;
+    private static boolean defaultLetto = false;
+
+    private final Path file;
+
+    // Statistiche
+    private final AtomicLong caricamentiDaFile = new AtomicLong();
+    private final AtomicLong caricamentiDaDb = new AtomicLong();
+    private final AtomicLong nanosFile = new AtomicLong();
+    private final AtomicLong nanosDb = new AtomicLong();
+
+    public SnapshotFlotta(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Snapshot usato dall'applicazione: file indicato dalla proprietà {@code logistica.snapshot.flotta}
+     * (default {@code flotta.snapshot}); una stringa vuota lo disattiva.
+     *
+     * @return Lo snapshot, oppure null se disattivato.
+     */
+    public static synchronized SnapshotFlotta getDefault() {
+        if (!defaultLetto) {
+            String percorso = System.getProperty("logistica.snapshot.flotta", "flotta.snapshot");
+            istanzaDefault = percorso.trim().isEmpty() ? null : new SnapshotFlotta(Paths.get(percorso));
+            defaultLetto = true;
+        }
+        return istanzaDefault;
+    }
+
+    /**
+     * Restituisce la flotta dallo snapshot se è aggiornato, altrimenti dal DB (riscrivendo lo snapshot).
+     *
+     * @param gestore Gestore usato per la lettura SQL e come persistenza dei proxy creati.
+     */
+    public List<Azienda> carica(GestoreDatabase gestore) {
+        long inizio = System.nanoTime();
+        try (Connection conn = ConnessioneDB.getInstance().getConnection()) {
+            // Una sola transazione di lettura: contatore e flotta vengono dallo stesso stato del DB
+            conn.setAutoCommit(false);
+            try {
+                long[] versione = leggiVersione(conn);
+
+                List<Azienda> flotta = leggiFile(versione, gestore);
+                if (flotta != null) {
+                    caricamentiDaFile.incrementAndGet();
+                    nanosFile.addAndGet(System.nanoTime() - inizio);
+                    return flotta;
+                }
+
+                flotta = gestore.leggiFlotta(StatisticheQuery.getInstance().strumenta(conn));
+                scriviFile(versione, flotta);
+                caricamentiDaDb.incrementAndGet();
+                nanosDb.addAndGet(System.nanoTime() - inizio);
+                return flotta;
+            } finally {
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore caricamento flotta", e);
+        }
+    }
+
+    /**
+     * Elimina il file (es. dopo un reset del DB). Non è indispensabile: l'epoca lo invaliderebbe comunque.
+     */
+    public void invalida() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("[Snapshot] Impossibile eliminare " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static long[] leggiVersione(Connection conn) throws SQLException {
+        long[] versione = new long[2]; // epoca, flotta
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(SELECT_VERSIONE)) {
+            while (rs.next()) {
+                versione["epoca".equals(rs.getString(1)) ? 0 : 1] = rs.getLong(2);
+            }
+        }
+        return versione;
+    }
+
+    // =========================================================================
+    // LETTURA
+    // =========================================================================
+
+    /**
+     * @return La flotta salvata, oppure null se il file manca, è di un'altra versione o è danneggiato.
+     */
+    private List<Azienda> leggiFile(long[] versione, GestoreDatabase gestore) {
+        ByteBuffer buffer;
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+            long dimensione = canale.size();
+            if (dimensione < DIMENSIONE_INTESTAZIONE || dimensione > Integer.MAX_VALUE) return null;
+            buffer = ByteBuffer.allocate((int) dimensione);
+            while (buffer.hasRemaining() && canale.read(buffer) != -1) {
+                // Lettura sequenziale dell'intero file
+            }
+            buffer.flip();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("[Snapshot] Lettura di " + file + " fallita: " + e.getMessage());
+            return null;
+        }
+
+        try {
+            byte[] magia = new byte[MAGIA.length];
+            buffer.get(magia);
+            if (!Arrays.equals(magia, MAGIA) || buffer.getInt() != VERSIONE_FORMATO) return null;
+            if (buffer.getLong() != versione[0] || buffer.getLong() != versione[1]) return null;
+
+            long crcAtteso = buffer.getLong();
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != crcAtteso) {
+                System.err.println("[Snapshot] " + file + " danneggiato (CRC), ricarico dal DB.");
+                return null;
+            }
+
+            return decodifica(buffer, gestore);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("[Snapshot] " + file + " non valido (" + e + "), ricarico dal DB.");
+            return null;
+        }
+    }
+
+    private static List<Azienda> decodifica(ByteBuffer buffer, GestoreDatabase gestore) {
+        int numeroAziende = buffer.getInt();
+        List<Azienda> aziende = new ArrayList<>(numeroAziende);
+        for (int a = 0; a < numeroAziende; a++) {
+            Azienda azienda = new AziendaConcreta(leggiStringa(buffer));
+
+            int numeroVeicoli = buffer.getInt();
+            for (int v = 0; v < numeroVeicoli; v++) {
+                String codiceVeicolo = leggiStringa(buffer);
+                IVeicolo veicolo = azienda.createVeicolo(leggiStringa(buffer), codiceVeicolo);
+                if (veicolo == null) {
+                    throw new IllegalArgumentException("Tipo veicolo sconosciuto per " + codiceVeicolo);
+                }
+
+                int numeroColli = buffer.getInt();
+                for (int c = 0; c < numeroColli; c++) {
+                    String codiceCollo = leggiStringa(buffer);
+                    veicolo.caricaCollo(ColloProxy.interna(codiceCollo, StatoCollo.daCodice(buffer.get()), gestore));
+                }
+                GruppoColli.raggruppa(veicolo.getCarico());
+                azienda.aggiungiVeicoloEsistente(veicolo);
+            }
+            aziende.add(azienda);
+        }
+        return aziende;
+    }
+
+    private static String leggiStringa(ByteBuffer buffer) {
+        byte[] utf8 = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    // =========================================================================
+    // SCRITTURA
+    // =========================================================================
+
+    private void scriviFile(long[] versione, List<Azienda> flotta) {
+        try {
+            ByteBuffer corpo = codifica(flotta);
+            CRC32 crc = new CRC32();
+            crc.update(corpo.duplicate());
+
+            ByteBuffer intestazione = ByteBuffer.allocate(DIMENSIONE_INTESTAZIONE);
+            intestazione.put(MAGIA).putInt(VERSIONE_FORMATO).putLong(versione[0]).putLong(versione[1]).putLong(crc.getValue());
+            intestazione.flip();
+
+            // File temporaneo + rename atomico: chi legge vede sempre uno snapshot completo
+            Path temporaneo = Paths.get(file + ".tmp");
+            try (FileChannel canale = FileChannel.open(temporaneo, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer[] blocchi = {intestazione, corpo};
+                while (corpo.hasRemaining()) {
+                    canale.write(blocchi);
+                }
+            }
+            Files.move(temporaneo, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // Lo snapshot è solo un'ottimizzazione: la flotta appena letta dal DB resta valida
+            System.err.println("[Snapshot] Scrittura di " + file + " fallita: " + e.getMessage());
+        }
+    }
+
+    private static ByteBuffer codifica(List<Azienda> flotta) {
+        Codificatore out = new Codificatore();
+        out.intero(flotta.size());
+        for (Azienda azienda : flotta) {
+            out.stringa(azienda.getNome());
+            out.intero(azienda.getFlotta().size());
+            for (IVeicolo veicolo : azienda.getFlotta()) {
+                out.stringa(veicolo.getCodice());
+                out.stringa(veicolo.getTipo());
+                out.intero(veicolo.getCarico().size());
+                for (ICollo collo : veicolo.getCarico()) {
+                    out.stringa(collo.getCodice());
+                    out.buffer.put((byte) collo.getStato().getCodice());
+                }
+            }
+        }
+        out.buffer.flip();
+        return out.buffer;
+    }
+
+    /**
+     * Buffer di scrittura che raddoppia quando serve spazio.
+     */
+    private static final class Codificatore {
+        private ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+
+        void intero(int valore) {
+            spazio(4);
+            buffer.putInt(valore);
+        }
+
+        void stringa(String valore) {
+            byte[] utf8 = valore.getBytes(StandardCharsets.UTF_8);
+            if (utf8.length > 0xFFFF) {
+                throw new IllegalArgumentException("Stringa troppo lunga per lo snapshot: " + utf8.length + " byte.");
+            }
+            spazio(2 + utf8.length + 1); // +1: eventuale byte di stato che segue il codice collo
+            buffer.putShort((short) utf8.length);
+            buffer.put(utf8);
+        }
+
+        private void spazio(int byteNecessari) {
+            if (buffer.remaining() >= byteNecessari) return;
+            ByteBuffer nuovo = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + byteNecessari));
+            buffer.flip();
+            nuovo.put(buffer);
+            buffer = nuovo;
+        }
+    }
+
+    // =========================================================================
+    // STATISTICHE
+    // =========================================================================
+
+    public long getCaricamentiDaFile() { return caricamentiDaFile.get(); }
+    public long getCaricamentiDaDb() { return caricamentiDaDb.get(); }
+
+    public String getStatistiche() {
+        long daFile = caricamentiDaFile.get();
+        long daDb = caricamentiDaDb.get();
+        return String.format("da file=%d (media %.2f ms), da DB=%d (media %.2f ms)",
+                daFile, daFile == 0 ? 0.0 : nanosFile.get() / 1_000_000.0 / daFile,
+                daDb, daDb == 0 ? 0.0 : nanosDb.get() / 1_000_000.0 / daDb);
+    }
+}
@@ -0,0 +1,465 @@
+package it.prog3.logisticaapp.database;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Strumentazione delle query JDBC: tempi, righe e query lente, raggruppati per nome della query.
+ * <p>
+ * {@link #strumenta(Connection)} restituisce un Proxy dinamico della connessione (come fa
+ * {@link PoolConnessioni}) che avvolge statement e ResultSet. Il tempo misurato è quello
+ * passato <b>dentro il driver</b>: esecuzione più le chiamate a {@code next()}, esclusa
+ * l'elaborazione delle righe da parte del chiamante. La misura si chiude alla chiusura
+ * del ResultSet (o alla fine delle righe).
+ * </p>
+ * <p>
+ * Il nome di una query è quello della costante che contiene l'SQL (vedi {@link #registraNomi(Class)});
+ * l'SQL costruito dinamicamente viene raggruppato per i suoi primi caratteri.
+ * Le query oltre la soglia {@code logistica.db.querylenteMs} (default 200) vengono stampate
+ * e conservate tra le ultime {@value #MASSIMO_QUERY_LENTE}.
+ * Con {@code -Dlogistica.db.monitor=false} la strumentazione è disattivata.
+ * </p>
+ */
+public class StatisticheQuery {
+
+    private static final StatisticheQuery INSTANCE = new StatisticheQuery();
+
+    public static final int MASSIMO_QUERY_LENTE = 100;
+
+    private final boolean attivo;
+    private final long sogliaLentaNanos;
+    private final Map<String, String> nomiPerSql = new ConcurrentHashMap<>();
+    private final Map<String, Misura> misure = new ConcurrentHashMap<>();
+    private final Deque<QueryLenta> queryLente = new ArrayDeque<>();
+
+    private StatisticheQuery() {
+        this.attivo = Boolean.parseBoolean(System.getProperty("logistica.db.monitor", "true"));
+        this.sogliaLentaNanos = Long.getLong("logistica.db.querylenteMs", 200L) * 1_000_000L;
+    }
+
+    public static StatisticheQuery getInstance() {
+        return INSTANCE;
+    }
+
+    // =========================================================================
+    // REGISTRAZIONE E STRUMENTAZIONE
+    // =========================================================================
+
+    /**
+     * Usa come nome delle query le costanti {@code static final String} SQL della classe.
+     */
+    public void registraNomi(Class<?> classe) {
+        for (Field f : classe.getDeclaredFields()) {
+            int mod = f.getModifiers();
+            if (!Modifier.isStatic(mod) || !Modifier.isFinal(mod) || f.getType() != String.class) continue;
+            try {
+                f.setAccessible(true);
+                String sql = (String) f.get(null);
+                if (sql != null && sembraSql(sql)) {
+                    nomiPerSql.put(sql, f.getName());
+                }
+            } catch (IllegalAccessException | RuntimeException e) {
+                // Campo non leggibile: la query verrà raggruppata per testo
+            }
+        }
+    }
+
+    private static boolean sembraSql(String testo) {
+        String t = testo.trim().toUpperCase();
+        return t.startsWith("SELECT") || t.startsWith("INSERT") || t.startsWith("UPDATE")
+                || t.startsWith("DELETE") || t.startsWith("WITH") || t.startsWith("REPLACE");
+    }
+
+    /**
+     * Avvolge la connessione: ogni statement creato da essa viene misurato.
+     * Se la strumentazione è disattivata restituisce la connessione così com'è.
+     */
+    public Connection strumenta(Connection conn) {
+        if (!attivo) return conn;
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnessioneMisurata(conn));
+    }
+
+    private String nomeDi(String sql) {
+        String nome = nomiPerSql.get(sql);
+        if (nome != null) return nome;
+        // SQL dinamico (es. liste IN): raggruppiamo per l'inizio del testo, a lunghezza limitata
+        String normalizzato = sql.trim().replaceAll("\\s+", " ");
+        return normalizzato.length() <= 60 ? normalizzato : normalizzato.substring(0, 60) + "...";
+    }
+
+    void registra(String sql, long nanos, long righe, boolean errore) {
+        String nome = nomeDi(sql);
+        Misura m = misure.get(nome);
+        if (m == null) {
+            Misura nuova = new Misura(nome);
+            m = misure.putIfAbsent(nome, nuova);
+            if (m == null) m = nuova;
+        }
+        m.aggiungi(nanos, righe, errore);
+
+        if (nanos >= sogliaLentaNanos) {
+            QueryLenta lenta = new QueryLenta(nome, sql, nanos, righe, System.currentTimeMillis());
+            synchronized (queryLente) {
+                if (queryLente.size() == MASSIMO_QUERY_LENTE) queryLente.removeFirst();
+                queryLente.addLast(lenta);
+            }
+            System.err.println("[QueryLenta] " + lenta);
+        }
+    }
+
+    // =========================================================================
+    // API DI LETTURA
+    // =========================================================================
+
+    public boolean isAttivo() { return attivo; }
+
+    public long getSogliaLentaMs() { return sogliaLentaNanos / 1_000_000L; }
+
+    /**
+     * @return Le misure per query, ordinate per tempo totale decrescente.
+     */
+    public List<Misura> getMisure() {
+        List<Misura> lista = new ArrayList<>(misure.values());
+        Collections.sort(lista, new Comparator<Misura>() {
+            @Override
+            public int compare(Misura a, Misura b) {
+                return Long.compare(b.getNanosTotali(), a.getNanosTotali());
+            }
+        });
+        return lista;
+    }
+
+    /**
+     * @return Le ultime query lente, dalla più vecchia alla più recente.
+     */
+    public List<QueryLenta> getQueryLente() {
+        synchronized (queryLente) {
+            return new ArrayList<>(queryLente);
+        }
+    }
+
+    public void azzera() {
+        misure.clear();
+        synchronized (queryLente) {
+            queryLente.clear();
+        }
+    }
+
+    /**
+     * Tabella testuale delle misure (per log, schermata del manager o dump a riga di comando).
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %8s %10s %10s %9s %9s %9s %6s%n",
+                "QUERY", "N", "RIGHE", "TOT ms", "p50 ms", "p99 ms", "MAX ms", "ERR"));
+        for (Misura m : getMisure()) {
+            sb.append(String.format("%-40s %8d %10d %10.1f %9.3f %9.3f %9.3f %6d%n",
+                    m.getNome().length() > 40 ? m.getNome().substring(0, 40) : m.getNome(),
+                    m.getEsecuzioni(), m.getRighe(), m.getNanosTotali() / 1_000_000.0,
+                    m.getPercentileMs(50), m.getPercentileMs(99), m.getMassimoMs(), m.getErrori()));
+        }
+        return sb.toString();
+    }
+
+    // =========================================================================
+    // MISURE
+    // =========================================================================
+
+    /**
+     * Contatori di una query: esecuzioni, righe, tempi e istogramma delle latenze.
+     */
+    public static class Misura {
+        private final String nome;
+        private final AtomicLong esecuzioni = new AtomicLong();
+        private final AtomicLong righe = new AtomicLong();
+        private final AtomicLong nanosTotali = new AtomicLong();
+        private final AtomicLong massimoNanos = new AtomicLong();
+        private final AtomicLong errori = new AtomicLong();
+        private final Istogramma istogramma = new Istogramma();
+
+        Misura(String nome) {
+            this.nome = nome;
+        }
+
+        void aggiungi(long nanos, long righe, boolean errore) {
+            esecuzioni.incrementAndGet();
+            this.righe.addAndGet(righe);
+            nanosTotali.addAndGet(nanos);
+            if (errore) errori.incrementAndGet();
+            istogramma.registra(nanos);
+
+            long massimo;
+            while (nanos > (massimo = massimoNanos.get())) {
+                if (massimoNanos.compareAndSet(massimo, nanos)) break;
+            }
+        }
+
+        public String getNome() { return nome; }
+        public long getEsecuzioni() { return esecuzioni.get(); }
+        public long getRighe() { return righe.get(); }
+        public long getNanosTotali() { return nanosTotali.get(); }
+        public long getErrori() { return errori.get(); }
+        public double getMassimoMs() { return massimoNanos.get() / 1_000_000.0; }
+
+        public double getMediaMs() {
+            long n = esecuzioni.get();
+            return n == 0 ? 0.0 : nanosTotali.get() / 1_000_000.0 / n;
+        }
+
+        /**
+         * @param percentile Percentile tra 0 e 100 (es. 50, 99).
+         * @return Latenza in ms (limite superiore del bucket, errore massimo ~12%).
+         */
+        public double getPercentileMs(double percentile) {
+            return istogramma.percentileNanos(percentile) / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: n=%d, righe=%d, media=%.3f ms, p50=%.3f ms, p99=%.3f ms, max=%.3f ms",
+                    nome, getEsecuzioni(), getRighe(), getMediaMs(), getPercentileMs(50), getPercentileMs(99), getMassimoMs());
+        }
+    }
+
+    /**
+     * Istogramma log-lineare in microsecondi: 8 bucket per ogni potenza di 2 (memoria fissa,
+     * registrazione senza lock).
+     */
+    static final class Istogramma {
+        private static final int SOTTO_BUCKET = 8;
+        private static final int LINEARI = 16;      // 0..15 µs: un bucket per µs
+        private static final int POTENZE = 40;      // fino a ~2^44 µs
+        private final AtomicLongArray conteggi = new AtomicLongArray(LINEARI + POTENZE * SOTTO_BUCKET);
+        private final AtomicLong totale = new AtomicLong();
+
+        void registra(long nanos) {
+            conteggi.incrementAndGet(indice(Math.max(0, nanos / 1000)));
+            totale.incrementAndGet();
+        }
+
+        private static int indice(long micros) {
+            if (micros < LINEARI) return (int) micros;
+            int esponente = 63 - Long.numberOfLeadingZeros(micros);  // >= 4
+            int sotto = (int) ((micros >>> (esponente - 3)) & (SOTTO_BUCKET - 1));
+            int i = LINEARI + (esponente - 4) * SOTTO_BUCKET + sotto;
+            return Math.min(i, LINEARI + POTENZE * SOTTO_BUCKET - 1);
+        }
+
+        /** Limite superiore (in µs) del bucket. */
+        private static long limiteSuperiore(int i) {
+            if (i < LINEARI) return i + 1;
+            int esponente = (i - LINEARI) / SOTTO_BUCKET + 4;
+            int sotto = (i - LINEARI) % SOTTO_BUCKET;
+            return (1L << esponente) + ((long) (sotto + 1) << (esponente - 3));
+        }
+
+        long percentileNanos(double percentile) {
+            long n = totale.get();
+            if (n == 0) return 0;
+            long soglia = (long) Math.ceil(n * percentile / 100.0);
+            long cumulato = 0;
+            for (int i = 0; i < conteggi.length(); i++) {
+                cumulato += conteggi.get(i);
+                if (cumulato >= soglia) return limiteSuperiore(i) * 1000;
+            }
+            return limiteSuperiore(conteggi.length() - 1) * 1000;
+        }
+    }
+
+    /**
+     * Esecuzione oltre la soglia delle query lente.
+     */
+    public static class QueryLenta {
+        private final String nome;
+        private final String sql;
+        private final long nanos;
+        private final long righe;
+        private final long istante;
+
+        QueryLenta(String nome, String sql, long nanos, long righe, long istante) {
+            this.nome = nome;
+            this.sql = sql;
+            this.nanos = nanos;
+            this.righe = righe;
+            this.istante = istante;
+        }
+
+        public String getNome() { return nome; }
+        public String getSql() { return sql; }
+        public double getDurataMs() { return nanos / 1_000_000.0; }
+        public long getRighe() { return righe; }
+        public long getIstante() { return istante; }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.1f ms, righe=%d: %s", nome, getDurataMs(), righe, sql);
+        }
+    }
+
+    // =========================================================================
+    // PROXY DINAMICI
+    // =========================================================================
+
+    private static Object delega(Object destinazione, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(destinazione, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Connessione: avvolge gli statement creati, delega tutto il resto.
+     */
+    private class ConnessioneMisurata implements InvocationHandler {
+        private final Connection conn;
+
+        ConnessioneMisurata(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String nome = method.getName();
+            if ("equals".equals(nome)) return proxy == args[0];
+            if ("hashCode".equals(nome)) return System.identityHashCode(proxy);
+
+            Object risultato = delega(conn, method, args);
+            if ("prepareStatement".equals(nome)) {
+                return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class}, new StatementMisurato((Statement) risultato, (String) args[0]));
+            }
+            if ("createStatement".equals(nome)) {
+                return Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                        new Class<?>[]{Statement.class}, new StatementMisurato((Statement) risultato, null));
+            }
+            return risultato;
+        }
+    }
+
+    /**
+     * Statement: misura execute/executeUpdate/executeBatch; executeQuery passa la misura al ResultSet.
+     */
+    private class StatementMisurato implements InvocationHandler {
+        private final Statement statement;
+        private final String sqlPreparato;
+
+        StatementMisurato(Statement statement, String sqlPreparato) {
+            this.statement = statement;
+            this.sqlPreparato = sqlPreparato;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String nome = method.getName();
+            if (!nome.startsWith("execute")) {
+                if ("equals".equals(nome)) return proxy == args[0];
+                if ("hashCode".equals(nome)) return System.identityHashCode(proxy);
+                return delega(statement, method, args);
+            }
+
+            // Statement semplice: l'SQL è il primo argomento; PreparedStatement: quello di prepareStatement
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sqlPreparato;
+            if (sql == null) return delega(statement, method, args);
+
+            long inizio = System.nanoTime();
+            Object risultato;
+            try {
+                risultato = delega(statement, method, args);
+            } catch (Throwable t) {
+                registra(sql, System.nanoTime() - inizio, 0, true);
+                throw t;
+            }
+            long nanos = System.nanoTime() - inizio;
+
+            if (risultato instanceof ResultSet) {
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, new ResultSetMisurato((ResultSet) risultato, sql, nanos));
+            }
+            registra(sql, nanos, righeModificate(risultato), false);
+            return risultato;
+        }
+
+        private long righeModificate(Object risultato) {
+            if (risultato instanceof Integer) return Math.max(0, (Integer) risultato);
+            if (risultato instanceof Long) return Math.max(0, (Long) risultato);
+            if (risultato instanceof int[]) {
+                long somma = 0;
+                for (int n : (int[]) risultato) somma += Math.max(0, n);
+                return somma;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * ResultSet: somma il tempo delle {@code next()} e registra la misura una sola volta.
+     */
+    private class ResultSetMisurato implements InvocationHandler {
+        private final ResultSet rs;
+        private final String sql;
+        private long nanos;
+        private long righe;
+        private boolean registrato = false;
+
+        ResultSetMisurato(ResultSet rs, String sql, long nanosEsecuzione) {
+            this.rs = rs;
+            this.sql = sql;
+            this.nanos = nanosEsecuzione;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String nome = method.getName();
+            if ("next".equals(nome)) {
+                long inizio = System.nanoTime();
+                boolean presente;
+                try {
+                    presente = (Boolean) delega(rs, method, args);
+                } catch (Throwable t) {
+                    nanos += System.nanoTime() - inizio;
+                    chiudiMisura(true);
+                    throw t;
+                }
+                nanos += System.nanoTime() - inizio;
+                if (presente) {
+                    righe++;
+                } else {
+                    chiudiMisura(false);
+                }
+                return presente;
+            }
+            if ("close".equals(nome)) {
+                chiudiMisura(false);
+            }
+            if ("equals".equals(nome)) return proxy == args[0];
+            if ("hashCode".equals(nome)) return System.identityHashCode(proxy);
+            return delega(rs, method, args);
+        }
+
+        private void chiudiMisura(boolean errore) {
+            if (registrato) return;
+            registrato = true;
+            registra(sql, nanos, righe, errore);
+        }
+    }
+}
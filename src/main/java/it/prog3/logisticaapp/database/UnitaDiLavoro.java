@@ -0,0 +1,81 @@
+package it.prog3.logisticaapp.database;
+
+import it.prog3.logisticaapp.model.EventoTracking;
+import it.prog3.logisticaapp.model.ICollo;
+import it.prog3.logisticaapp.model.StatoCollo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit of Work: raccoglie in memoria le modifiche da rendere persistenti insieme.
+ * <p>
+ * Le operazioni vengono solo registrate; la scrittura avviene in blocco con
+ * {@link GestoreDatabase#eseguiUnitaDiLavoro(UnitaDiLavoro)}, in un'unica transazione
+ * con statement batch (tutto o niente).
+ * </p>
+ */
+public class UnitaDiLavoro {
+
+    private final List<Associazione> associazioni = new ArrayList<>();
+    private final List<RigaStorico> eventi = new ArrayList<>();
+
+    /**
+     * Registra il nuovo stato del collo e il veicolo su cui è stato caricato.
+     * Lo stato viene letto subito, così la scrittura riflette il momento della registrazione.
+     */
+    public void associaColloVeicolo(ICollo c, String codiceVeicolo) {
+        associazioni.add(new Associazione(c.getCodice(), c.getStato(), codiceVeicolo));
+    }
+
+    /**
+     * Registra una nuova riga di storico per il collo.
+     */
+    public void aggiornaTracking(String codiceCollo, EventoTracking evento) {
+        eventi.add(new RigaStorico(codiceCollo, evento));
+    }
+
+    public List<Associazione> getAssociazioni() { return Collections.unmodifiableList(associazioni); }
+
+    public List<RigaStorico> getEventi() { return Collections.unmodifiableList(eventi); }
+
+    public int getNumeroOperazioni() { return associazioni.size() + eventi.size(); }
+
+    public boolean isVuota() { return associazioni.isEmpty() && eventi.isEmpty(); }
+
+    /**
+     * Aggiornamento (stato, veicolo) di un collo.
+     */
+    public static class Associazione {
+        private final String codiceCollo;
+        private final StatoCollo stato;
+        private final String codiceVeicolo;
+
+        Associazione(String codiceCollo, StatoCollo stato, String codiceVeicolo) {
+            this.codiceCollo = codiceCollo;
+            this.stato = stato;
+            this.codiceVeicolo = codiceVeicolo;
+        }
+
+        public String getCodiceCollo() { return codiceCollo; }
+        public StatoCollo getStato() { return stato; }
+        public String getCodiceVeicolo() { return codiceVeicolo; }
+    }
+
+    /**
+     * Nuova riga della tabella storico_spostamenti.
+     */
+    public static class RigaStorico {
+        private final String codiceCollo;
+        private final EventoTracking evento;
+
+        RigaStorico(String codiceCollo, EventoTracking evento) {
+            this.codiceCollo = codiceCollo;
+            this.evento = evento;
+        }
+
+        public String getCodiceCollo() { return codiceCollo; }
+        public EventoTracking getEvento() { return evento; }
+    }
+}
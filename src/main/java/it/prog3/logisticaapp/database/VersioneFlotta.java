@@ -0,0 +1,49 @@
+package it.prog3.logisticaapp.database;
+
+/**
+ * Versione della flotta salvata: epoca del DB e contatore delle modifiche (vedi migrazioni v9 e v10).
+ * <p>
+ * Il contatore cresce a ogni modifica del grafo Azienda -> Veicolo -> Collo; l'epoca cambia
+ * solo quando il DB viene ricreato, e in quel caso due contatori non sono confrontabili.
+ * </p>
+ */
+public final class VersioneFlotta {
+
+    private final long epoca;
+    private final long contatore;
+
+    public VersioneFlotta(long epoca, long contatore) {
+        this.epoca = epoca;
+        this.contatore = contatore;
+    }
+
+    public long getEpoca() { return epoca; }
+
+    public long getContatore() { return contatore; }
+
+    /**
+     * @return true se le modifiche successive a {@code precedente} possono essere lette dal registro
+     *         (stessa epoca e contatore non tornato indietro).
+     */
+    public boolean seguiva(VersioneFlotta precedente) {
+        return precedente != null && precedente.epoca == epoca && precedente.contatore <= contatore;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VersioneFlotta)) return false;
+        VersioneFlotta altra = (VersioneFlotta) o;
+        return epoca == altra.epoca && contatore == altra.contatore;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(epoca) * 31 + Long.hashCode(contatore);
+    }
+
+    @Override
+    public String toString() {
+        return epoca + "/" + contatore;
+    }
+}
@@ -1,7 +1,8 @@
 package it.prog3.logisticaapp.model;
 
 import it.prog3.logisticaapp.business.Sessione;
-import it.prog3.logisticaapp.database.GestoreDatabase;
+import it.prog3.logisticaapp.database.IPersistenza;
+import it.prog3.logisticaapp.util.Subject;
 import java.util.List;
 
 /**
@@ -11,38 +12,154 @@ import java.util.List;
  * 1. <b>Virtual Proxy:</b> Lazy Loading dei dati pesanti (storico/dettagli).
  * 2. <b>Protection Proxy:</b> Controllo accessi basato sui ruoli della Sessione.
  * </p>
+ * <p>
+ * È anche il {@link Subject} osservato dalle viste: grazie alla {@link MappaIdentitaColli}
+ * ogni codice ha un solo proxy vivo, quindi chi lo osserva riceve tutte le modifiche al collo.
+ * </p>
  */
-public class ColloProxy implements ICollo {
-
-
+public class ColloProxy extends Subject implements ICollo {
 
     // Riferimento all'oggetto reale (Lazy).
     private ColloReale colloReale;
 
     // Dati "leggeri" mantenuti nel Proxy per evitare query inutili.
     private String codice;
-    private String stato;
+    private StatoCollo stato;
+
+    // Livello di persistenza da cui caricare l'oggetto reale (iniettato dal DAO che crea il Proxy).
+    private final IPersistenza persistenza;
+
+    // Fratelli dello stesso caricamento, idratati insieme (null = caricamento singolo).
+    private GruppoColli gruppo;
+
+    // Stato salvato prima della prima modifica non ancora scritta (null = nessuna scrittura in sospeso).
+    private StatoCollo statoSalvato;
+
+    // true dopo l'iscrizione del FileLogger: il proxy torna più volte dalla Identity Map.
+    private boolean loggerAgganciato;
 
     /**
      * Costruttore leggero.
      * Non effettua connessioni al DB.
+     *
+     * @param persistenza Sorgente dei dati completi, usata solo al primo accesso.
      */
-    public ColloProxy(String codice, String stato) {
+    public ColloProxy(String codice, StatoCollo stato, IPersistenza persistenza) {
+        if (persistenza == null) {
+            throw new IllegalArgumentException("Il Proxy richiede un livello di persistenza.");
+        }
         this.codice = codice;
         this.stato = stato;
+        this.persistenza = persistenza;
         this.colloReale = null;
     }
 
+    /**
+     * Factory usata dai livelli di persistenza: restituisce il proxy già vivo per quel codice
+     * (Identity Map della sessione) oppure ne crea uno nuovo.
+     */
+    public static ColloProxy interna(String codice, StatoCollo stato, IPersistenza persistenza) {
+        return Sessione.getInstance().getMappaColli().interna(codice, stato, persistenza);
+    }
+
+    IPersistenza getPersistenza() {
+        return persistenza;
+    }
+
+    GruppoColli getGruppo() {
+        return gruppo;
+    }
+
+    void setGruppo(GruppoColli gruppo) {
+        this.gruppo = gruppo;
+    }
+
+    boolean isIdratato() {
+        return colloReale != null;
+    }
+
+    /**
+     * Riceve l'oggetto reale caricato dal gruppo (se non ne ha già uno).
+     */
+    void impostaReale(ColloReale reale) {
+        if (this.colloReale == null) {
+            this.colloReale = reale;
+        }
+    }
+
+    /**
+     * Aggiorna lo stato "leggero" con quello appena letto.
+     * <p>
+     * Se il reale è già in memoria ma ha uno stato diverso viene scartato (sarà riletto al prossimo accesso),
+     * a meno che il proxy abbia modifiche non ancora scritte: in quel caso resta la fonte di verità.
+     * </p>
+     *
+     * @return true se lo stato visibile è cambiato: il chiamante deve avvisare gli osservatori.
+     */
+    boolean allineaStato(StatoCollo statoLetto) {
+        if (statoLetto == null || statoSalvato != null) return false;
+        StatoCollo prima = colloReale != null ? colloReale.getStato() : stato;
+        if (colloReale != null && colloReale.getStato() != statoLetto) {
+            this.colloReale = null;
+            this.gruppo = null;
+        }
+        if (colloReale == null) {
+            this.stato = statoLetto;
+        }
+        return prima != statoLetto;
+    }
+
+    /**
+     * Segna il proxy come già osservato dal logger su file.
+     *
+     * @return true solo la prima volta: il chiamante iscrive il logger.
+     */
+    public synchronized boolean segnaLoggerAgganciato() {
+        if (loggerAgganciato) return false;
+        loggerAgganciato = true;
+        return true;
+    }
+
+    /**
+     * @return true se il proxy ha modifiche allo stato non ancora confermate dalla persistenza.
+     */
+    public boolean haModificheInSospeso() {
+        return statoSalvato != null;
+    }
+
+    /**
+     * Da chiamare dopo che le modifiche fatte tramite il proxy sono state scritte (commit riuscito).
+     */
+    public void confermaModifiche() {
+        this.statoSalvato = null;
+    }
+
+    /**
+     * Da chiamare se la scrittura delle modifiche è fallita (rollback): torna allo stato precedente
+     * alla prima modifica e scarta l'oggetto reale, che sarà riletto dalla persistenza al prossimo accesso.
+     */
+    public void annullaModifiche() {
+        if (statoSalvato == null) return;
+        this.stato = statoSalvato;
+        this.statoSalvato = null;
+        this.colloReale = null;
+        this.gruppo = null;
+        notifyObservers();
+    }
+
     /**
      * Lazy Loading: Carica l'oggetto reale solo quando serve.
      */
     private ColloReale getColloReale() {
+        // Se il proxy fa parte di un gruppo, carica anche i fratelli (una query per tutti)
+        if (this.colloReale == null && this.gruppo != null) {
+            this.gruppo.idrata();
+        }
         if (this.colloReale == null) {
             System.out.println("[Proxy] Lazy Loading: Recupero dati completi per " + codice + "...");
 
-            // Usiamo il GestoreDatabase per creare l'oggetto
-            GestoreDatabase db = new GestoreDatabase();
-            this.colloReale = db.getColloRealeCompleto(this.codice);
+            // Usiamo la persistenza iniettata per creare l'oggetto
+            this.colloReale = persistenza.getColloRealeCompleto(this.codice);
 
             // Controllo robustezza
             if (this.colloReale == null) {
@@ -71,7 +188,7 @@ public class ColloProxy implements ICollo {
     }
 
     @Override
-    public String getStato() {
+    public StatoCollo getStato() {
         // Se il reale è già in memoria, usa quello (potrebbe essere più fresco)
         if (colloReale != null) return colloReale.getStato();
         return stato;
@@ -82,13 +199,19 @@ public class ColloProxy implements ICollo {
      */
     // In ColloProxy.java
     @Override
-    public void setStato(String stato) {
+    public void setStato(StatoCollo stato) {
         // PROTEZIONE: Solo Manager e Corriere possono scrivere
         if (Sessione.getInstance().getRuoloCorrente() == Sessione.Ruolo.CLIENTE) {
             throw new SecurityException("Permesso negato: Il cliente non può modificare lo stato.");
         }
-        // Delega al reale
-        getColloReale().setStato(stato);
+        // Delega al reale (ricordando lo stato salvato, per un eventuale rollback)
+        ColloReale reale = getColloReale();
+        if (statoSalvato == null) {
+            statoSalvato = reale.getStato();
+        }
+        reale.setStato(stato);
+        this.stato = stato;
+        notifyObservers();
     }
 
 // Fai lo stesso per setMittente, setDestinatario, setPeso se vuoi blindare tutto.
@@ -96,7 +219,7 @@ public class ColloProxy implements ICollo {
     // --- Metodi che forzano il caricamento (Virtual Proxy / Delegation) ---
 
     @Override
-    public void aggiungiEventoStorico(String evento) {
+    public void aggiungiEventoStorico(EventoTracking evento) {
         // Controllo sicurezza: Solo il corriere o il sistema dovrebbero scrivere nello storico
         if (Sessione.getInstance().getRuoloCorrente() != Sessione.Ruolo.CORRIERE &&
                 Sessione.getInstance().getRuoloCorrente() != Sessione.Ruolo.MANAGER) {
@@ -105,17 +228,18 @@ public class ColloProxy implements ICollo {
 
         // Delega al reale (caricandolo se serve)
         getColloReale().aggiungiEventoStorico(evento);
+        notifyObservers();
     }
 
     // IL METODO CHE MANCAVA
     @Override
-    public void setStorico(List<String> storico) {
+    public void setStorico(List<EventoTracking> storico) {
         // Delega completamente all'oggetto reale
         getColloReale().setStorico(storico);
     }
 
     @Override
-    public List<String> getStorico() {
+    public List<EventoTracking> getStorico() {
         return getColloReale().getStorico();
     }
 
@@ -136,6 +260,6 @@ public class ColloProxy implements ICollo {
 
     @Override
     public String toString() {
-        return codice + " (" + stato + ") [Proxy]";
+        return codice + " (" + getStato() + ") [Proxy]";
     }
 }
\ No newline at end of file
@@ -1,7 +1,6 @@
 package it.prog3.logisticaapp.model;
 
 import it.prog3.logisticaapp.util.Subject;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -15,19 +14,30 @@ public class ColloReale extends Subject implements ICollo {
 
     // Incapsulamento rigoroso dei dati (SRP: Gestione stato)
     private String codice;
-    private String stato;
+    private StatoCollo stato;
     private String mittente;
     private String destinatario;
     private double peso;
-    private List<String> storico;
+    private final StoricoEventi storico;
 
     /**
      * Costruttore vuoto necessario per la serializzazione o creazione rapida.
-     * Inizializza le liste per evitare NullPointerException.
      */
     public ColloReale() {
-        this.storico = new ArrayList<>();
-        this.stato = "IN_PREPARAZIONE"; // Stato iniziale di default
+        this.stato = StatoCollo.IN_PREPARAZIONE; // Stato iniziale di default
+        this.storico = new StoricoEventi();
+    }
+
+    /**
+     * Costruttore di copia (senza osservatori), usato da {@link #copia()}.
+     */
+    private ColloReale(ColloReale origine) {
+        this.codice = origine.codice;
+        this.stato = origine.stato;
+        this.mittente = origine.mittente;
+        this.destinatario = origine.destinatario;
+        this.peso = origine.peso;
+        this.storico = origine.storico.copia();
     }
 
     /**
@@ -57,10 +67,13 @@ public class ColloReale extends Subject implements ICollo {
     }
 
     @Override
-    public String getStato() { return stato; }
+    public StatoCollo getStato() { return stato; }
 
     @Override
-    public void setStato(String stato) {
+    public void setStato(StatoCollo stato) {
+        if (stato == null) {
+            throw new IllegalArgumentException("Lo stato del collo non può essere nullo.");
+        }
         this.stato = stato;
         notifyObservers();
     }
@@ -86,21 +99,42 @@ public class ColloReale extends Subject implements ICollo {
     @Override
     public void setDestinatario(String destinatario) { this.destinatario = destinatario; }
 
+    /**
+     * Accoda l'evento allo storico in O(1) ammortizzato (vedi {@link StoricoEventi}).
+     */
     @Override
-    public void aggiungiEventoStorico(String evento) {
-        if (this.storico == null) {
-            this.storico = new ArrayList<>();
-        }
-        this.storico.add(0, evento);
+    public void aggiungiEventoStorico(EventoTracking evento) {
+        storico.aggiungi(evento);
         notifyObservers();
     }
 
+    /**
+     * @return Istantanea immutabile dello storico, dal più recente: si può scorrere senza copiarla
+     *         e non cambia se nel frattempo arrivano nuovi eventi.
+     */
+    @Override
+    public List<EventoTracking> getStorico() { return storico.dalPiuRecente(); }
+
+    /**
+     * Sostituisce lo storico (usato dal DB). La lista viene copiata: modificarla dopo non ha effetto.
+     *
+     * @param storico Eventi dal più recente al più vecchio.
+     */
     @Override
-    public List<String> getStorico() { return storico; }
+    public void setStorico(List<EventoTracking> storico) {
+        this.storico.sostituisci(storico);
+    }
 
-    // Metodo extra (non in interfaccia) per popolare lo storico, usato dal DB
-    public void setStorico(List<String> storico) {
-        this.storico = storico;
+    /**
+     * @return L'evento più recente, oppure null se lo storico è vuoto.
+     */
+    public EventoTracking getUltimoEvento() { return storico.getUltimo(); }
+
+    /**
+     * @return Una copia indipendente del collo (dati e storico, senza osservatori).
+     */
+    public ColloReale copia() {
+        return new ColloReale(this);
     }
 
     @Override
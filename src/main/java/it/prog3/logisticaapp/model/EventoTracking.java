@@ -0,0 +1,99 @@
+package it.prog3.logisticaapp.model;
+
+import java.io.Serializable;
+
+/**
+ * Evento dello storico spostamenti di un collo (Value Object immutabile).
+ * <p>
+ * L'istante è in millisecondi epoch (UTC): ordinamento e confronto sono tra {@code long},
+ * e la conversione in testo avviene solo nell'interfaccia grafica.
+ * </p>
+ */
+public final class EventoTracking implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Tipo di evento, salvato nel DB come codice intero stabile.
+     */
+    public enum Tipo {
+        /** Il collo ha lasciato il mittente; il luogo è il vettore che lo ha preso in carico. */
+        SPEDITO(0),
+        /** Arrivo a un centro di smistamento; il luogo è la tappa. */
+        ARRIVO_HUB(1),
+        /** Nota libera (es. eventi storici non riconosciuti dalla migrazione); il luogo è il testo. */
+        NOTA(2),
+        /** Consegna al destinatario; il luogo è quello di consegna. */
+        CONSEGNATO(3);
+
+        private final int codice;
+
+        Tipo(int codice) {
+            this.codice = codice;
+        }
+
+        public int getCodice() {
+            return codice;
+        }
+
+        /**
+         * @throws IllegalArgumentException Se il codice non corrisponde a nessun tipo.
+         */
+        public static Tipo daCodice(int codice) {
+            for (Tipo t : values()) {
+                if (t.codice == codice) return t;
+            }
+            throw new IllegalArgumentException("Codice tipo evento non valido: " + codice);
+        }
+    }
+
+    private final long istante;
+    private final Tipo tipo;
+    private final String luogo;
+
+    /**
+     * @param istante Millisecondi epoch dell'evento.
+     * @param tipo    Tipo di evento (obbligatorio).
+     * @param luogo   Luogo (o vettore, per {@link Tipo#SPEDITO}).
+     */
+    public EventoTracking(long istante, Tipo tipo, String luogo) {
+        if (tipo == null) {
+            throw new IllegalArgumentException("Il tipo di evento non può essere nullo.");
+        }
+        this.istante = istante;
+        this.tipo = tipo;
+        this.luogo = luogo;
+    }
+
+    /**
+     * Crea un evento con l'istante corrente.
+     */
+    public static EventoTracking adesso(Tipo tipo, String luogo) {
+        return new EventoTracking(System.currentTimeMillis(), tipo, luogo);
+    }
+
+    public long getIstante() { return istante; }
+    public Tipo getTipo() { return tipo; }
+    public String getLuogo() { return luogo; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EventoTracking)) return false;
+        EventoTracking altro = (EventoTracking) o;
+        return istante == altro.istante && tipo == altro.tipo
+                && (luogo == null ? altro.luogo == null : luogo.equals(altro.luogo));
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Long.hashCode(istante);
+        h = 31 * h + tipo.hashCode();
+        return 31 * h + (luogo == null ? 0 : luogo.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return istante + " " + tipo + " " + luogo;
+    }
+}
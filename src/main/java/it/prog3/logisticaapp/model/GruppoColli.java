@@ -0,0 +1,72 @@
+package it.prog3.logisticaapp.model;
+
+import it.prog3.logisticaapp.database.IPersistenza;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gruppo di {@link ColloProxy} arrivati dallo stesso caricamento (il carico di un veicolo, una pagina di colli).
+ * <p>
+ * Quando uno dei proxy deve caricare l'oggetto reale, il gruppo carica insieme tutti i fratelli
+ * non ancora idratati con {@link IPersistenza#getColliRealiCompleti}: due query (dettagli e storico)
+ * invece di due per ogni collo. Dopo l'idratazione il gruppo si svuota e non trattiene più i proxy.
+ * </p>
+ */
+public class GruppoColli {
+
+    // Oltre questa dimensione un elenco viene diviso in più gruppi: toccare un collo
+    // non deve caricare i dettagli di migliaia di altri
+    public static final int DIMENSIONE_MASSIMA = 500;
+
+    private final IPersistenza persistenza;
+    private List<ColloProxy> membri = new ArrayList<>();
+
+    private GruppoColli(IPersistenza persistenza) {
+        this.persistenza = persistenza;
+    }
+
+    /**
+     * Raggruppa i proxy non ancora idratati dell'elenco (gli altri elementi vengono ignorati).
+     */
+    public static void raggruppa(Collection<? extends ICollo> colli) {
+        GruppoColli gruppo = null;
+        for (ICollo c : colli) {
+            if (!(c instanceof ColloProxy)) continue;
+            ColloProxy proxy = (ColloProxy) c;
+            if (proxy.isIdratato()) continue;
+
+            if (gruppo == null || gruppo.persistenza != proxy.getPersistenza()
+                    || gruppo.membri.size() == DIMENSIONE_MASSIMA) {
+                gruppo = new GruppoColli(proxy.getPersistenza());
+            }
+            gruppo.membri.add(proxy);
+            proxy.setGruppo(gruppo);
+        }
+    }
+
+    /**
+     * Carica in un colpo solo gli oggetti reali dei membri ancora da idratare.
+     */
+    synchronized void idrata() {
+        if (membri.isEmpty()) return;
+
+        List<String> codici = new ArrayList<>();
+        for (ColloProxy p : membri) {
+            // Un proxy può essere passato a un gruppo più recente o essere già stato idratato
+            if (!p.isIdratato() && p.getGruppo() == this) codici.add(p.getCodice());
+        }
+        System.out.println("[Proxy] Lazy Loading di gruppo: recupero dati completi per " + codici.size() + " colli...");
+
+        Map<String, ColloReale> reali = persistenza.getColliRealiCompleti(codici);
+        for (ColloProxy p : membri) {
+            if (p.getGruppo() != this) continue;
+            ColloReale reale = reali.get(p.getCodice());
+            if (reale != null) p.impostaReale(reale);
+            p.setGruppo(null);
+        }
+        membri = new ArrayList<>();
+    }
+}
@@ -13,8 +13,9 @@ public interface ICollo extends IColloDati {
 
     /**
      * @throws SecurityException se l'utente non è autorizzato (gestito dal Proxy).
+     * @throws IllegalArgumentException se lo stato è null.
      */
-    void setStato(String stato);
+    void setStato(StatoCollo stato);
 
     /**
      * @throws IllegalArgumentException se il peso è negativo.
@@ -25,6 +26,6 @@ public interface ICollo extends IColloDati {
     void setDestinatario(String destinatario);
 
     // Gestione Storico
-    void setStorico(List<String> storico);
-    void aggiungiEventoStorico(String evento);
+    void setStorico(List<EventoTracking> storico);
+    void aggiungiEventoStorico(EventoTracking evento);
 }
\ No newline at end of file
@@ -10,9 +10,9 @@ import java.util.List;
  */
 public interface IColloDati extends Serializable {
     String getCodice();
-    String getStato();
+    StatoCollo getStato();
     double getPeso();
     String getMittente();
     String getDestinatario();
-    List<String> getStorico();
+    List<EventoTracking> getStorico();
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package it.prog3.logisticaapp.model;
+
+import it.prog3.logisticaapp.database.IPersistenza;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Identity Map dei {@link ColloProxy}: per ogni codice esiste al più un proxy "vivo".
+ * <p>
+ * Le query che restituiscono colli (veicoli, colli in preparazione, ricerca per codice)
+ * passano da {@link #interna}: se il proxy di quel codice è ancora in memoria viene riusato,
+ * così stato, oggetto reale e osservatori sono condivisi da tutte le schermate.
+ * </p>
+ * <p>
+ * I valori sono {@link WeakReference}: la mappa non tiene in vita i proxy. Quando nessuno
+ * li usa più vengono raccolti dal GC e la voce viene rimossa alla prima operazione successiva.
+ * </p>
+ */
+public class MappaIdentitaColli {
+
+    /**
+     * Riferimento debole che ricorda la propria chiave, per ripulire la mappa dopo il GC.
+     */
+    private static final class Voce extends WeakReference<ColloProxy> {
+        private final String codice;
+
+        Voce(String codice, ColloProxy proxy, ReferenceQueue<ColloProxy> coda) {
+            super(proxy, coda);
+            this.codice = codice;
+        }
+    }
+
+    private final Map<String, Voce> proxy = new HashMap<>();
+    private final ReferenceQueue<ColloProxy> raccolti = new ReferenceQueue<>();
+
+    // Statistiche
+    private long riusati;
+    private long creati;
+
+    /**
+     * Restituisce il proxy del collo, creandolo solo se non ne esiste già uno vivo.
+     * <p>
+     * Se il proxy esiste, il suo stato viene allineato a quello appena letto: un oggetto reale
+     * con uno stato diverso viene scartato e riletto al prossimo accesso. Fanno eccezione i proxy
+     * con modifiche non ancora scritte ({@link ColloProxy#haModificheInSospeso()}), che non vanno perse.
+     * Se lo stato visibile cambia, gli osservatori del proxy vengono avvisati.
+     * </p>
+     *
+     * @param stato       Stato appena letto dalla persistenza.
+     * @param persistenza Sorgente dei dati completi: un proxy di un'altra sorgente viene sostituito.
+     */
+    public ColloProxy interna(String codice, StatoCollo stato, IPersistenza persistenza) {
+        ColloProxy esistente;
+        synchronized (this) {
+            ripulisci();
+
+            Voce voce = proxy.get(codice);
+            esistente = voce == null ? null : voce.get();
+            if (esistente == null || esistente.getPersistenza() != persistenza) {
+                ColloProxy nuovo = new ColloProxy(codice, stato, persistenza);
+                proxy.put(codice, new Voce(codice, nuovo, raccolti));
+                creati++;
+                return nuovo;
+            }
+            riusati++;
+            if (!esistente.allineaStato(stato)) return esistente;
+        }
+
+        // Fuori dal lock della mappa: gli osservatori possono a loro volta interrogare i colli.
+        esistente.notifyObservers();
+        return esistente;
+    }
+
+    /**
+     * Dimentica tutti i proxy (es. al cambio di utente). Quelli già in uso restano validi.
+     */
+    public synchronized void svuota() {
+        proxy.clear();
+    }
+
+    /**
+     * Rimuove le voci i cui proxy sono stati raccolti dal GC.
+     */
+    private void ripulisci() {
+        Voce raccolta;
+        while ((raccolta = (Voce) raccolti.poll()) != null) {
+            // La voce potrebbe essere già stata sostituita da un proxy più recente
+            if (proxy.get(raccolta.codice) == raccolta) {
+                proxy.remove(raccolta.codice);
+            }
+        }
+    }
+
+    // =========================================================================
+    // STATISTICHE
+    // =========================================================================
+
+    public synchronized int getDimensione() {
+        ripulisci();
+        return proxy.size();
+    }
+
+    public synchronized String getStatistiche() {
+        ripulisci();
+        return String.format("proxy vivi=%d, riusati=%d, creati=%d", proxy.size(), riusati, creati);
+    }
+}
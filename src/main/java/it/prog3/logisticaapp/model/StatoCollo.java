@@ -0,0 +1,57 @@
+package it.prog3.logisticaapp.model;
+
+/**
+ * Stati del ciclo di vita di un collo.
+ * <p>
+ * Ogni stato ha un codice intero <b>stabile</b>, usato come rappresentazione nel DB
+ * (colonna {@code colli.stato}): i codici non vanno mai riassegnati, i nuovi stati
+ * si aggiungono in coda con un codice nuovo.
+ * </p>
+ */
+public enum StatoCollo {
+
+    IN_PREPARAZIONE(0),
+    CARICATO(1),
+    IN_TRANSITO(2),
+    /** Stato finale: il collo è chiuso e può essere spostato in archivio. */
+    CONSEGNATO(3);
+
+    // Lookup codice -> stato senza scorrere values() ad ogni riga letta
+    private static final StatoCollo[] PER_CODICE;
+
+    static {
+        int massimo = 0;
+        for (StatoCollo s : values()) {
+            massimo = Math.max(massimo, s.codice);
+        }
+        PER_CODICE = new StatoCollo[massimo + 1];
+        for (StatoCollo s : values()) {
+            PER_CODICE[s.codice] = s;
+        }
+    }
+
+    private final int codice;
+
+    StatoCollo(int codice) {
+        this.codice = codice;
+    }
+
+    /**
+     * @return Il codice intero salvato nel DB.
+     */
+    public int getCodice() {
+        return codice;
+    }
+
+    /**
+     * Decodifica il valore letto dal DB.
+     *
+     * @throws IllegalArgumentException Se il codice non corrisponde a nessuno stato.
+     */
+    public static StatoCollo daCodice(int codice) {
+        if (codice < 0 || codice >= PER_CODICE.length || PER_CODICE[codice] == null) {
+            throw new IllegalArgumentException("Codice stato collo non valido: " + codice);
+        }
+        return PER_CODICE[codice];
+    }
+}
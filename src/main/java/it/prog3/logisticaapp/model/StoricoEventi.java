@@ -0,0 +1,141 @@
+package it.prog3.logisticaapp.model;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Contenitore dello storico di un collo, ottimizzato per l'accodamento.
+ * <p>
+ * Gli eventi sono tenuti in ordine di arrivo in un array che cresce per raddoppio:
+ * aggiungere un evento costa O(1) ammortizzato, senza spostare quelli già presenti
+ * (la vecchia {@code add(0, evento)} su ArrayList copiava tutto lo storico a ogni evento).
+ * </p>
+ * <p>
+ * Le letture passano da <b>istantanee</b> immutabili: una vista sugli eventi presenti
+ * al momento della chiamata, senza copia. È sicura perché la parte già scritta dell'array
+ * non viene mai modificata: gli eventi successivi vanno oltre la fine della vista
+ * e una sostituzione completa ({@link #sostituisci}) crea un array nuovo.
+ * </p>
+ */
+public class StoricoEventi implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final EventoTracking[] VUOTO = new EventoTracking[0];
+
+    // Eventi in ordine di arrivo (il più recente in fondo), validi fino a "dimensione"
+    private EventoTracking[] eventi = VUOTO;
+    private int dimensione;
+
+    public StoricoEventi() {}
+
+    /**
+     * @param dalPiuRecente Eventi ordinati dal più recente al più vecchio (come le query dello storico).
+     */
+    public StoricoEventi(List<EventoTracking> dalPiuRecente) {
+        sostituisci(dalPiuRecente);
+    }
+
+    /**
+     * Accoda un evento (diventa il più recente).
+     */
+    public synchronized void aggiungi(EventoTracking evento) {
+        if (evento == null) {
+            throw new IllegalArgumentException("L'evento di tracking non può essere nullo.");
+        }
+        if (dimensione == eventi.length) {
+            eventi = Arrays.copyOf(eventi, Math.max(8, dimensione * 2));
+        }
+        eventi[dimensione++] = evento;
+    }
+
+    /**
+     * Sostituisce l'intero storico. Le istantanee già consegnate restano invariate.
+     *
+     * @param dalPiuRecente Eventi ordinati dal più recente al più vecchio (null = storico vuoto).
+     */
+    public synchronized void sostituisci(List<EventoTracking> dalPiuRecente) {
+        int n = dalPiuRecente == null ? 0 : dalPiuRecente.size();
+        EventoTracking[] nuovi = n == 0 ? VUOTO : new EventoTracking[n];
+        for (int i = 0; i < n; i++) {
+            EventoTracking e = dalPiuRecente.get(i);
+            if (e == null) {
+                throw new IllegalArgumentException("L'evento di tracking non può essere nullo.");
+            }
+            nuovi[n - 1 - i] = e;
+        }
+        eventi = nuovi;
+        dimensione = n;
+    }
+
+    /**
+     * @return Uno storico indipendente con gli stessi eventi: gli accodamenti su uno non si vedono sull'altro.
+     */
+    public synchronized StoricoEventi copia() {
+        StoricoEventi copia = new StoricoEventi();
+        if (dimensione > 0) {
+            copia.eventi = Arrays.copyOf(eventi, dimensione);
+            copia.dimensione = dimensione;
+        }
+        return copia;
+    }
+
+    /**
+     * @return Istantanea immutabile dal più recente al più vecchio (l'ordine mostrato al Cliente).
+     */
+    public synchronized List<EventoTracking> dalPiuRecente() {
+        return dimensione == 0 ? Collections.<EventoTracking>emptyList() : new Vista(eventi, dimensione, true);
+    }
+
+    /**
+     * @return Istantanea immutabile in ordine cronologico (dal più vecchio).
+     */
+    public synchronized List<EventoTracking> inOrdineCronologico() {
+        return dimensione == 0 ? Collections.<EventoTracking>emptyList() : new Vista(eventi, dimensione, false);
+    }
+
+    /**
+     * @return L'evento più recente, oppure null se lo storico è vuoto.
+     */
+    public synchronized EventoTracking getUltimo() {
+        return dimensione == 0 ? null : eventi[dimensione - 1];
+    }
+
+    public synchronized int size() {
+        return dimensione;
+    }
+
+    /**
+     * Lista in sola lettura sui primi {@code dimensione} elementi dell'array, eventualmente al contrario.
+     */
+    private static final class Vista extends AbstractList<EventoTracking> implements RandomAccess, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final EventoTracking[] eventi;
+        private final int dimensione;
+        private final boolean inversa;
+
+        Vista(EventoTracking[] eventi, int dimensione, boolean inversa) {
+            this.eventi = eventi;
+            this.dimensione = dimensione;
+            this.inversa = inversa;
+        }
+
+        @Override
+        public EventoTracking get(int indice) {
+            if (indice < 0 || indice >= dimensione) {
+                throw new IndexOutOfBoundsException("Indice " + indice + " fuori dallo storico (" + dimensione + " eventi)");
+            }
+            return eventi[inversa ? dimensione - 1 - indice : indice];
+        }
+
+        @Override
+        public int size() {
+            return dimensione;
+        }
+    }
+}
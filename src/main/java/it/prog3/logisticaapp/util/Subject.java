@@ -1,7 +1,7 @@
 package it.prog3.logisticaapp.util;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Classe base astratta per il pattern Observer.
@@ -11,11 +11,12 @@ import java.util.List;
  */
 public abstract class Subject implements IObservable {
 
-    // Lista degli osservatori iscritti
-    private final List<Observer> observers = new ArrayList<>();
+    // Lista degli osservatori iscritti.
+    // Copy-on-write: la GUI può iscriversi mentre un altro thread sta notificando.
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
 
     @Override
-    public void attach(Observer observer) {
+    public synchronized void attach(Observer observer) {
         if (observer != null && !observers.contains(observer)) {
             observers.add(observer);
         }